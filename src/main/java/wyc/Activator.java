@@ -23,11 +23,15 @@ import wyc.command.Compile;
 import wyc.command.Decompile;
 import wyc.command.Run;
 import wyc.lang.WhileyFile;
+import wyc.task.BuildState;
+import wyc.util.AbstractProjectCommand;
+import wyc.util.WhileyFileResolver;
 
 public class Activator implements Module.Activator {
 	/**
-	 * Default implementation of a content registry. This associates whiley and
-	 * wyil files with their respective content types.
+	 * Default implementation of a content registry. This associates whiley,
+	 * wyil and wyis (summary) files with their respective content types, along
+	 * with the wybuild file recording the state of the last build.
 	 *
 	 * @author David J. Pearce
 	 *
@@ -41,6 +45,10 @@ public class Activator implements Module.Activator {
 				e.associate(WhileyFile.ContentType, null);
 			} else if (suffix.equals("wyil")) {
 				e.associate(WhileyFile.BinaryContentType, null);
+			} else if (suffix.equals("wyis")) {
+				e.associate(WhileyFile.SummaryContentType, null);
+			} else if (suffix.equals("wybuild")) {
+				e.associate(BuildState.ContentType, null);
 			} else if (suffix.equals("wyal")) {
 				e.associate(WyalFile.ContentType, null);
 			}
@@ -74,8 +82,13 @@ public class Activator implements Module.Activator {
 				new Decompile(registry, logger),
 				new Run(registry, logger)
 		};
+		// Share name resolution between commands operating on the same project
+		final WhileyFileResolver.Cache cache = new WhileyFileResolver.Cache();
 		// Register all commands
 		for (Command c : commands) {
+			if (c instanceof AbstractProjectCommand) {
+				((AbstractProjectCommand<?>) c).setCache(cache);
+			}
 			context.register(wycc.lang.Command.class, c);
 		}
 		// Done
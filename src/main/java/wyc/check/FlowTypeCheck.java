@@ -37,6 +37,7 @@ import wyil.type.subtyping.StrictTypeEmptinessTest;
 import wyil.type.subtyping.SubtypeOperator;
 import wyil.type.util.ConcreteTypeExtractor;
 import wyil.type.util.ReadWriteTypeExtractor;
+import wyil.type.util.TypeIdCache;
 import wyc.lang.WhileyFile;
 import wyc.lang.WhileyFile.Decl;
 import wyc.lang.WhileyFile.Type;
@@ -110,14 +111,24 @@ public class FlowTypeCheck {
 		this.builder = builder;
 		this.resolver = builder.getNameResolver();
 		EmptinessTest<SemanticType> strictEmptiness = new StrictTypeEmptinessTest(resolver);
-		this.concreteTypeExtractor = new ConcreteTypeExtractor(resolver,strictEmptiness);
+		// Both operators share a cache, so each type is identified only once
+		TypeIdCache types = new TypeIdCache();
 		this.relaxedSubtypeOperator = new SubtypeOperator(resolver,
-				new RelaxedTypeEmptinessTest(resolver));
+				new RelaxedTypeEmptinessTest(resolver), SubtypeOperator.DEFAULT_MEMO_CAPACITY, types);
 		this.strictSubtypeOperator = new SubtypeOperator(resolver,
-				strictEmptiness);
+				strictEmptiness, SubtypeOperator.DEFAULT_MEMO_CAPACITY, types);
+		this.concreteTypeExtractor = new ConcreteTypeExtractor(resolver, strictSubtypeOperator);
 		this.rwTypeExtractor = new ReadWriteTypeExtractor(resolver, strictSubtypeOperator);
 	}
 
+	public SubtypeOperator getRelaxedSubtypeOperator() {
+		return relaxedSubtypeOperator;
+	}
+
+	public SubtypeOperator getStrictSubtypeOperator() {
+		return strictSubtypeOperator;
+	}
+
 	// =========================================================================
 	// WhileyFile(s)
 	// =========================================================================
@@ -522,7 +533,7 @@ public class FlowTypeCheck {
 		checkConditions(stmt.getInvariant(), true, environment);
 		// Determine and update modified variables
 		Tuple<Decl.Variable> modified = FlowTypeUtils.determineModifiedVariables(stmt.getBody());
-		stmt.setModified(stmt.getHeap().allocate(modified));
+		stmt.setModified(allocate(stmt, modified));
 		// Type condition assuming its false to represent the terminated loop.
 		// This is important if the condition contains a type test, as we'll
 		// know that doesn't hold here.
@@ -769,7 +780,7 @@ public class FlowTypeCheck {
 		checkBlock(stmt.getBody(), trueEnvironment, scope);
 		// Determine and update modified variables
 		Tuple<Decl.Variable> modified = FlowTypeUtils.determineModifiedVariables(stmt.getBody());
-		stmt.setModified(stmt.getHeap().allocate(modified));
+		stmt.setModified(allocate(stmt, modified));
 		// Return false environment to represent flow after loop.
 		return falseEnvironment;
 	}
@@ -1128,7 +1139,7 @@ public class FlowTypeCheck {
 		default:
 			return internalFailure("unknown lval encountered (" + lval.getClass().getSimpleName() + ")", lval);
 		}
-		lval.setType(lval.getHeap().allocate(type));
+		lval.setType(allocate(lval, type));
 		return type;
 	}
 
@@ -1388,7 +1399,7 @@ public class FlowTypeCheck {
 			// Something has definitely gone wrong in the type extraction process.
 			internalFailure("extracted empty type (" + type + "=>" + concreteType + ")", expression);
 		} else {
-			expression.setType(expression.getHeap().allocate(concreteType));
+			expression.setType(allocate(expression, concreteType));
 		}
 		// Done
 		return type;
@@ -1470,9 +1481,9 @@ public class FlowTypeCheck {
 		Binding binding = resolveAsCallable(expr.getName(), new Tuple<>(types), expr.getLifetimes(),
 				environment);
 		// Assign descriptor to this expression
-		expr.setSignature(expr.getHeap().allocate(binding.getCandidiateDeclaration().getType()));
+		expr.setSignature(allocate(expr, binding.getCandidiateDeclaration().getType()));
 		// Set inferred lifetime parameters as well
-		expr.setLifetimes(expr.getHeap().allocate(binding.getLifetimeArguments()));
+		expr.setLifetimes(allocate(expr, binding.getLifetimeArguments()));
 		// Finally, return the declared returns/
 		return binding.getConcreteType().getReturns();
 	}
@@ -1756,7 +1767,7 @@ public class FlowTypeCheck {
 			binding = resolveAsCallable(expr.getName(), expr);
 		}
 		// Set descriptor for this expression
-		expr.setSignature(expr.getHeap().allocate(binding.getCandidiateDeclaration().getType()));
+		expr.setSignature(allocate(expr, binding.getCandidiateDeclaration().getType()));
 		//
 		return binding.getConcreteType();
 	}
@@ -1779,7 +1790,7 @@ public class FlowTypeCheck {
 					expr.getLifetimes());
 		}
 		// Update lambda declaration with inferred signature.
-		expr.setType(expr.getHeap().allocate(signature));
+		expr.setType(allocate(expr, signature));
 		// Done
 		return signature;
 	}
@@ -2413,6 +2424,24 @@ public class FlowTypeCheck {
 	// Helpers
 	// ==========================================================================
 
+	/**
+	 * Allocate a given item into the heap enclosing a given item. Since other
+	 * files may be scanning this heap concurrently (e.g. during name
+	 * resolution), allocation is performed whilst holding the heap's lock.
+	 *
+	 * @param context
+	 *            The item whose enclosing heap is being allocated into.
+	 * @param item
+	 *            The item being allocated.
+	 * @return
+	 */
+	private static <T extends SyntacticItem> T allocate(SyntacticItem context, T item) {
+		SyntacticHeap heap = context.getHeap();
+		synchronized (heap) {
+			return heap.allocate(item);
+		}
+	}
+
 	private void checkOperand(Type type, Expr operand, Environment environment) {
 		checkIsSubtype(type, checkExpression(operand, environment), environment, operand);
 	}
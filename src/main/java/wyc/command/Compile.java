@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 import wybs.lang.NameResolver;
@@ -30,6 +31,7 @@ import wybs.util.StdProject;
 import wybs.util.AbstractCompilationUnit.Attribute;
 import wyc.command.Compile;
 import wyc.lang.WhileyFile;
+import wyc.task.BuildState;
 import wyc.task.CompileTask;
 import wyc.task.Wyil2WyalBuilder;
 import wyc.util.AbstractProjectCommand;
@@ -80,6 +82,12 @@ public class Compile extends AbstractProjectCommand<Compile.Result> {
 	 */
 	protected boolean verbose = false;
 
+	/**
+	 * Signals that statistics about the caches used during compilation should
+	 * be reported.
+	 */
+	protected boolean stats = false;
+
 	/**
 	 * Signals that brief error reporting should be used. This is primarily used
 	 * to help integration with external tools. More specifically, brief output
@@ -109,6 +117,17 @@ public class Compile extends AbstractProjectCommand<Compile.Result> {
 	 */
 	protected boolean proof = false;
 
+	/**
+	 * The number of worker threads used to parse and check source files.
+	 */
+	protected int threads = 1;
+
+	/**
+	 * The state of each module as of when it was last compiled. This is read
+	 * from the wyil directory when first needed.
+	 */
+	protected BuildState state;
+
 	/**
 	 * Identifies which whiley source files should be considered for
 	 * compilation. By default, all files reachable from srcdir are considered.
@@ -178,7 +197,9 @@ public class Compile extends AbstractProjectCommand<Compile.Result> {
 			"counterexample",
 			"vcg",
 			"proof",
-			"brief"
+			"brief",
+			"threads",
+			"stats"
 	};
 
 	@Override
@@ -201,6 +222,10 @@ public class Compile extends AbstractProjectCommand<Compile.Result> {
 			return "Emit verification condition for Whiley source files";
 		case "proof":
 			return "Emit generated proofs";
+		case "threads":
+			return "Specify number of threads used to check source files";
+		case "stats":
+			return "Report statistics about the caches used by the Whiley compiler";
 		default:
 			return super.describe(option);
 		}
@@ -227,6 +252,12 @@ public class Compile extends AbstractProjectCommand<Compile.Result> {
 		case "proof":
 			this.proof = true;
 			break;
+		case "threads":
+			setThreads(Integer.parseInt(value.toString()));
+			break;
+		case "stats":
+			this.stats = true;
+			break;
 		default:
 			super.set(option, value);
 		}
@@ -253,6 +284,14 @@ public class Compile extends AbstractProjectCommand<Compile.Result> {
 		return verificationConditions;
 	}
 
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
 	public void setVerbose() {
 		setVerbose(true);
 	}
@@ -352,6 +391,21 @@ public class Compile extends AbstractProjectCommand<Compile.Result> {
 			// =====================================================================
 			// Build the source files
 			project.build(entries);
+			// Rebuild any modules whose dependencies have changed interface.
+			// Since rebuilding these can change their interface in turn, this
+			// is repeated until none remain. A module may be rebuilt more than
+			// once, since a module it depends upon may be rebuilt after it.
+			// However, the interface of a module is determined by its source
+			// file alone and, hence, changes at most once per build. Thus, at
+			// most one round is needed per source file.
+			List<Path.Entry<?>> invalidated = getInvalidatedSourceFiles();
+			int rounds = invalidated.isEmpty() ? 0 : whileydir.get(whileyIncludes).size();
+			for (int round = 0; !invalidated.isEmpty() && round != rounds; ++round) {
+				project.build(invalidated);
+				invalidated = getInvalidatedSourceFiles();
+			}
+			// Record the state of this build for the next
+			wyildir.create(BuildState.ID, BuildState.ContentType).write(getBuildState());
 			// Force all binary files to be written to disk (if appropriate)
 			wyildir.flush();
 			wyaldir.flush();
@@ -392,10 +446,15 @@ public class Compile extends AbstractProjectCommand<Compile.Result> {
 	 */
 	protected void addWhiley2WyilBuildRule(StdProject project) {
 		// Rule for compiling Whiley to WyIL
-		CompileTask wyilBuilder = new CompileTask(project);
+		CompileTask wyilBuilder = new CompileTask(project, cache);
+		wyilBuilder.setThreads(threads);
+		wyilBuilder.setBuildState(getBuildState());
 		if(verbose) {
 			wyilBuilder.setLogger(logger);
 		}
+		if(stats) {
+			wyilBuilder.setStatistics(syserr);
+		}
 		project.add(new StdBuildRule(wyilBuilder, whileydir, whileyIncludes, whileyExcludes, wyildir));
 	}
 
@@ -412,7 +471,7 @@ public class Compile extends AbstractProjectCommand<Compile.Result> {
 		Content.Filter<WyalFile> wyalIncludes = Content.filter("**", WyalFile.ContentType);
 		Content.Filter<WyalFile> wyalExcludes = null;
 		// Rule for compiling WyIL to WyAL
-		Wyil2WyalBuilder wyalBuilder = new Wyil2WyalBuilder(project);
+		Wyil2WyalBuilder wyalBuilder = new Wyil2WyalBuilder(project, cache);
 		if(verbose) {
 			wyalBuilder.setLogger(logger);
 		}
@@ -457,13 +516,77 @@ public class Compile extends AbstractProjectCommand<Compile.Result> {
 		return Result.ERRORS;
 	}
 
+	/**
+	 * Generate the list of source files which need to be recompiled. This is
+	 * done by comparing the contents of each whiley file, and the interfaces of
+	 * the modules it depends upon, against those recorded when it was last
+	 * compiled (see <code>BuildState</code>).
+	 *
+	 * @return
+	 * @throws IOException
+	 */
 	public List getModifiedSourceFiles() throws IOException {
-		if (whileydir == null) {
+		ArrayList<Path.Entry<WhileyFile>> sources = new ArrayList<>();
+		if (whileydir != null) {
 			// Note, whileyDir can be null if e.g. compiling wyil -> wyjc
-			return new ArrayList();
-		} else {
-			return getModifiedSourceFiles(whileydir, whileyIncludes, wyildir, WhileyFile.BinaryContentType);
+			BuildState state = getBuildState();
+			for (Path.Entry<WhileyFile> source : whileydir.get(whileyIncludes)) {
+				Path.Entry<WhileyFile> binary = wyildir.get(source.id(), WhileyFile.BinaryContentType);
+				if (state.isModified(source, binary)) {
+					sources.add(source);
+				}
+			}
+		}
+		return sources;
+	}
+
+	/**
+	 * Get the state of each module as of when it was last compiled. If this
+	 * cannot be read, then nothing is assumed about any module. The state of
+	 * any module whose source file or interface summary no longer exists is
+	 * discarded, such that those depending upon it are recompiled.
+	 *
+	 * @return
+	 */
+	protected BuildState getBuildState() {
+		if (state == null) {
+			try {
+				Path.Entry<BuildState> e = wyildir == null ? null : wyildir.get(BuildState.ID, BuildState.ContentType);
+				state = e == null ? new BuildState() : e.read();
+				if (e != null && whileydir != null) {
+					HashSet<Path.ID> existing = new HashSet<>();
+					for (Path.Entry<WhileyFile> source : whileydir.get(whileyIncludes)) {
+						if (wyildir.get(source.id(), WhileyFile.SummaryContentType) != null) {
+							existing.add(source.id());
+						}
+					}
+					state.retain(existing);
+				}
+			} catch (IOException e) {
+				state = new BuildState();
+			}
 		}
+		return state;
+	}
+
+	/**
+	 * Determine the source files which depend upon a module whose interface
+	 * has changed since they were last compiled.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private List<Path.Entry<?>> getInvalidatedSourceFiles() throws IOException {
+		ArrayList<Path.Entry<?>> sources = new ArrayList<>();
+		if (whileydir != null) {
+			BuildState state = getBuildState();
+			for (Path.Entry<WhileyFile> source : whileydir.get(whileyIncludes)) {
+				if (state.isInvalidated(source.id())) {
+					sources.add(source);
+				}
+			}
+		}
+		return sources;
 	}
 
 	/**
@@ -13,7 +13,10 @@
 // limitations under the License.
 package wyc.command;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.Collections;
 
 import wybs.lang.Build;
@@ -22,11 +25,15 @@ import wybs.util.StdProject;
 import wyc.command.Run;
 import wyc.command.Decompile.Result;
 import wyc.util.AbstractProjectCommand;
+import wycc.lang.Feature.ConfigurationError;
+import wycc.util.ArrayUtils;
 import wycc.util.Logger;
 import wyfs.lang.Content;
 import wyfs.lang.Path;
 import wyfs.util.Trie;
 import wyil.interpreter.Interpreter;
+import wyil.interpreter.MemoTable;
+import wyil.interpreter.Profiler;
 import wyil.interpreter.ConcreteSemantics.RValue;
 
 import static wyc.lang.WhileyFile.*;
@@ -52,6 +59,42 @@ public class Run extends AbstractProjectCommand<Run.Result> {
 		INTERNAL_FAILURE
 	}
 
+	/**
+	 * Determines whether function and method bodies are compiled before being
+	 * executed, or executed by the reference (tree-walking) interpreter.
+	 */
+	protected boolean compiled = true;
+
+	/**
+	 * The number of times a function or method is executed before its body is
+	 * compiled into JVM bytecode, or zero if never.
+	 */
+	protected int compileThreshold = 0;
+
+	/**
+	 * The smallest range of a quantifier which is evaluated in parallel, or
+	 * zero if never.
+	 */
+	protected int parallelThreshold = 0;
+
+	/**
+	 * The maximum number of calls recorded for each function, or zero if
+	 * functions are not memoized.
+	 */
+	protected int memoCapacity = 0;
+
+	/**
+	 * Determines whether execution is profiled, in which case a report is
+	 * printed when it completes.
+	 */
+	protected boolean profile = false;
+
+	/**
+	 * The file to which collapsed stacks are written when profiling, or null
+	 * if none.
+	 */
+	protected File stacksFile;
+
 	public Run(Content.Registry registry, Logger logger) {
 		super(registry, logger);
 	}
@@ -60,6 +103,115 @@ public class Run extends AbstractProjectCommand<Run.Result> {
 	// Configuration
 	// =======================================================================
 
+	private static final String[] SCHEMA = {
+			"reference",
+			"bytecode",
+			"parallel",
+			"memoize",
+			"profile",
+			"flamegraph"
+	};
+
+	@Override
+	public String[] getOptions() {
+		return ArrayUtils.append(super.getOptions(),SCHEMA);
+	}
+
+	@Override
+	public String describe(String option) {
+		switch(option) {
+		case "reference":
+			return "Execute using the reference (tree-walking) interpreter";
+		case "bytecode":
+			return "Compile frequently executed functions and methods into JVM bytecode";
+		case "parallel":
+			return "Evaluate pure quantifiers over large ranges in parallel";
+		case "memoize":
+			return "Record calls to functions, such that repeated calls are not executed again";
+		case "profile":
+			return "Report where time was spent during execution";
+		case "flamegraph":
+			return "Profile execution and write collapsed stacks for a flame graph to the given file";
+		default:
+			return super.describe(option);
+		}
+	}
+
+	@Override
+	public void set(String option, Object value) throws ConfigurationError {
+		switch(option) {
+		case "reference":
+			this.compiled = false;
+			break;
+		case "bytecode":
+			this.compileThreshold = Interpreter.DEFAULT_COMPILE_THRESHOLD;
+			break;
+		case "parallel":
+			this.parallelThreshold = Interpreter.DEFAULT_PARALLEL_THRESHOLD;
+			break;
+		case "memoize":
+			this.memoCapacity = Interpreter.DEFAULT_MEMO_CAPACITY;
+			break;
+		case "profile":
+			this.profile = true;
+			break;
+		case "flamegraph":
+			this.profile = true;
+			this.stacksFile = new File(value.toString());
+			break;
+		default:
+			super.set(option, value);
+		}
+	}
+
+	public void setCompiled(boolean flag) {
+		this.compiled = flag;
+	}
+
+	public boolean getCompiled() {
+		return compiled;
+	}
+
+	public void setCompileThreshold(int threshold) {
+		this.compileThreshold = threshold;
+	}
+
+	public int getCompileThreshold() {
+		return compileThreshold;
+	}
+
+	public void setParallelThreshold(int threshold) {
+		this.parallelThreshold = threshold;
+	}
+
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	public void setMemoCapacity(int capacity) {
+		this.memoCapacity = capacity;
+	}
+
+	public int getMemoCapacity() {
+		return memoCapacity;
+	}
+
+	public void setProfile(boolean flag) {
+		this.profile = flag;
+	}
+
+	public boolean getProfile() {
+		return profile;
+	}
+
+	public void setStacksFile(File file) {
+		this.stacksFile = file;
+	}
+
+	public File getStacksFile() {
+		return stacksFile;
+	}
+
 	@Override
 	public String getDescription() {
 		return "Execute a given method from a WyIL";
@@ -100,6 +252,22 @@ public class Run extends AbstractProjectCommand<Run.Result> {
 	// Helpers
 	// =======================================================================
 
+	/**
+	 * Print the report for a given profiler and, if requested, write its
+	 * collapsed stacks to the given file.
+	 *
+	 * @param profiler
+	 * @throws IOException
+	 */
+	private void writeProfile(Profiler profiler) throws IOException {
+		profiler.printReport(System.err);
+		if (stacksFile != null) {
+			try (PrintStream out = new PrintStream(new FileOutputStream(stacksFile))) {
+				profiler.printCollapsedStacks(out);
+			}
+		}
+	}
+
 	/**
 	 * Execute a given function or method in a wyil file.
 	 *
@@ -111,8 +279,25 @@ public class Run extends AbstractProjectCommand<Run.Result> {
 	private void executeFunctionOrMethod(NameID id, Type.Callable signature, Build.Project project)
 			throws IOException {
 		// Try to run the given function or method
-		Interpreter interpreter = new Interpreter(project, System.out);
-		RValue[] returns = interpreter.execute(id, signature, interpreter.new CallStack());
+		Interpreter interpreter = new Interpreter(project, cache, System.out);
+		interpreter.setCompiled(compiled);
+		interpreter.setCompileThreshold(compileThreshold);
+		interpreter.setParallelThreshold(parallelThreshold);
+		interpreter.setMemoCapacity(memoCapacity);
+		Profiler profiler = profile ? new Profiler() : null;
+		interpreter.setProfiler(profiler);
+		RValue[] returns;
+		try {
+			returns = interpreter.execute(id, signature, interpreter.new CallStack());
+		} finally {
+			// Report how effective memoization was (if enabled)
+			for (MemoTable table : interpreter.getMemoTables()) {
+				System.err.println(table);
+			}
+			if (profiler != null) {
+				writeProfile(profiler);
+			}
+		}
 		// Print out any return values produced
 		if (returns != null) {
 			for (int i = 0; i != returns.length; ++i) {
@@ -13,51 +13,70 @@
 // limitations under the License.
 package wyc.io;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
 
-import wybs.lang.Attribute;
-import wybs.lang.SyntacticElement;
 import wybs.lang.SyntaxError;
 import wyc.lang.WhileyFile;
 import wyfs.lang.Path;
 
 /**
+ * <p>
  * Split a source file into a list of tokens. These tokens can then be fed into
  * the parser in order to generate an Abstract Syntax Tree (AST).
+ * </p>
+ * <p>
+ * The lexer scans the decoded characters of the source file directly, and
+ * records the kind, start and end of each token in parallel arrays. No strings
+ * are constructed during scanning. Instead, a token (along with its text) is
+ * materialised only when it is requested from the resulting list, and keywords
+ * are recognised by comparing characters against a perfect hash table.
+ * </p>
  *
  * @author David J. Pearce
  *
  */
 public class WhileyFileLexer {
 	private final Path.Entry<WhileyFile> entry;
-	private StringBuilder input;
+	private final char[] input;
+	private final int length;
 	private int pos;
+	// The token stream being constructed
+	private int[] kinds;
+	private int[] starts;
+	private int[] ends;
+	private int count;
 
 	public WhileyFileLexer(Path.Entry<WhileyFile> entry) throws IOException {
 		this.entry = entry;
-		Reader reader = new InputStreamReader(entry.inputStream());
-		BufferedReader in = new BufferedReader(reader);
-
-        StringBuilder text = new StringBuilder();
-		int len = 0;
-		char[] buf = new char[1024];
-		while ((len = in.read(buf)) != -1) {
-			text.append(buf, 0, len);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (InputStream in = entry.inputStream()) {
+			int len = 0;
+			byte[] buf = new byte[8192];
+			while ((len = in.read(buf)) != -1) {
+				bytes.write(buf, 0, len);
+			}
 		}
-        input = text;
+		// NOTE: the decoder allocates a fresh buffer whose contents start at
+		// index zero, hence it is safe to use the backing array directly.
+		CharBuffer text = Charset.defaultCharset().decode(ByteBuffer.wrap(bytes.toByteArray()));
+		this.input = text.array();
+		this.length = text.limit();
 	}
 
 	public WhileyFileLexer(String input) {
 		this.entry = null;
-		this.input = new StringBuilder(input);
+		this.input = input.toCharArray();
+		this.length = this.input.length;
 	}
 
 	/**
@@ -66,88 +85,80 @@ public class WhileyFileLexer {
 	 *
 	 * @return
 	 */
-	public List<Token> scan() {
-		ArrayList<Token> tokens = new ArrayList<>();
+	public Tokens scan() {
+		int capacity = 16 + (length / 4);
+		kinds = new int[capacity];
+		starts = new int[capacity];
+		ends = new int[capacity];
+		count = 0;
 		pos = 0;
 
-		while (pos < input.length()) {
-			char c = input.charAt(pos);
+		while (pos < length) {
+			char c = input[pos];
 
 			if (isDigit(c)) {
-				tokens.add(scanNumericLiteral());
+				scanNumericLiteral();
 			} else if (c == '"') {
-				tokens.add(scanStringLiteral());
+				scanStringLiteral();
 			} else if (c == '\'') {
-				tokens.add(scanCharacterLiteral());
+				scanCharacterLiteral();
 			} else if (isOperatorStart(c)) {
-				tokens.add(scanOperator());
+				scanOperator();
 			} else if (isLetter(c) || c == '_') {
-				tokens.add(scanIdentifier());
+				scanIdentifier();
 			} else if (Character.isWhitespace(c)) {
-				scanWhiteSpace(tokens);
+				scanWhiteSpace();
 			} else {
 				syntaxError("unknown token encountered",pos);
 			}
 		}
 
-		return tokens;
+		return new Tokens(input, kinds, starts, ends, count);
 	}
 
 	/**
 	 * Scan a numeric constant. That is a sequence of digits which constitutes an
 	 * integer literal (e.g. 12 or 1_000), a binary literal (e.g. 0b1001_0011) or a
 	 * hex literal (e.g. 0xff).
-	 *
-	 * @return
 	 */
-	public Token scanNumericLiteral() {
-		int start = pos;
+	private void scanNumericLiteral() {
 		int next = pos + 1;
 		// Decide whether it's an integer, binary or hexadecimal literal
-		if (next < input.length() && input.charAt(pos) == '0' && input.charAt(next) == 'x') {
+		if (next < length && input[pos] == '0' && input[next] == 'x') {
 			// Hexadecimal literal
-			return scanHexLiteral();
-		} else if (next < input.length() && input.charAt(pos) == '0' && input.charAt(next) == 'b') {
+			scanHexLiteral();
+		} else if (next < length && input[pos] == '0' && input[next] == 'b') {
 			// Binary literal
-			return scanBinaryLiteral();
+			scanBinaryLiteral();
 		} else {
-			return scanIntegerLiteral();
+			scanIntegerLiteral();
 		}
 	}
 
-	public Token scanIntegerLiteral() {
+	private void scanIntegerLiteral() {
 		int start = pos;
-		while (pos < input.length() && (input.charAt(pos) == '_' || isDigit(input.charAt(pos)))) {
+		while (pos < length && (input[pos] == '_' || isDigit(input[pos]))) {
 			pos = pos + 1;
 		}
-		// Extract literal characters
-		String literal = input.substring(start, pos);
-		// Done
-		return new Token(Token.Kind.IntegerLiteral, literal, start);
+		add(Token.Kind.IntegerLiteral, start, pos);
 	}
 
-	public Token scanHexLiteral() {
+	private void scanHexLiteral() {
 		int start = pos;
 		pos = pos + 2; // skip "0x"
-		while (pos < input.length() && (input.charAt(pos) == '_' || isLetterOrDigit(input.charAt(pos)))) {
+		while (pos < length && (input[pos] == '_' || isLetterOrDigit(input[pos]))) {
 			pos = pos + 1;
 		}
-		// Extract literal characters
-		String literal = input.substring(start, pos);
-		// Done
-		return new Token(Token.Kind.HexLiteral, literal, start);
+		add(Token.Kind.HexLiteral, start, pos);
 	}
 
-	public Token scanBinaryLiteral() {
+	private void scanBinaryLiteral() {
 		int start = pos;
 		pos = pos + 2; // skip "0b"
-		while (pos < input.length() && (input.charAt(pos) == '_' || isDigit(input.charAt(pos)))) {
+		while (pos < length && (input[pos] == '_' || isDigit(input[pos]))) {
 			pos = pos + 1;
 		}
-		// Extract literal characters
-		String literal = input.substring(start, pos);
-		// Done
-		return new Token(Token.Kind.BinaryLiteral, literal, start);
+		add(Token.Kind.BinaryLiteral, start, pos);
 	}
 
 	/**
@@ -155,61 +166,43 @@ public class WhileyFileLexer {
 	 * taken to properly handle escape codes. For example, '\n' is a single
 	 * character constant which is made up from two characters in the input
 	 * string.
-	 *
-	 * @return
 	 */
-	public Token scanCharacterLiteral() {
+	private void scanCharacterLiteral() {
 		int start = pos;
 		pos++;
-		char c = input.charAt(pos++);
+		char c = input[pos++];
 		if (c == '\\') {
 			// escape code
-			switch (input.charAt(pos++)) {
+			switch (input[pos++]) {
 			case 'b':
-				c = '\b';
-				break;
 			case 't':
-				c = '\t';
-				break;
 			case 'n':
-				c = '\n';
-				break;
 			case 'f':
-				c = '\f';
-				break;
 			case 'r':
-				c = '\r';
-				break;
 			case '"':
-				c = '\"';
-				break;
 			case '\'':
-				c = '\'';
-				break;
 			case '\\':
-				c = '\\';
 				break;
 			default:
 				syntaxError("unrecognised escape character", pos);
 			}
 		}
-		if (input.charAt(pos) != '\'') {
+		if (pos >= length || input[pos] != '\'') {
 			syntaxError("unexpected end-of-character", pos);
 		}
 		pos = pos + 1;
-		return new Token(Token.Kind.CharLiteral, input.substring(start, pos),
-				start);
+		add(Token.Kind.CharLiteral, start, pos);
 	}
 
-	public Token scanStringLiteral() {
+	private void scanStringLiteral() {
 		int start = pos;
 		boolean escaped = false;
 		pos++;
-		while (pos < input.length()) {
-			char c = input.charAt(pos);
+		while (pos < length) {
+			char c = input[pos];
 			if (c == '"' && !escaped) {
-				String v = input.substring(start, ++pos);
-				return new Token(Token.Kind.StringLiteral, v, start);
+				add(Token.Kind.StringLiteral, start, ++pos);
+				return;
 			} else if(c == '\\' && !escaped) {
 				escaped = true;
 			} else {
@@ -218,7 +211,6 @@ public class WhileyFileLexer {
 			pos = pos + 1;
 		}
 		syntaxError("unexpected end-of-string", pos - 1);
-		return null;
 	}
 
 	public static final char UC_FORALL = '\u2200';
@@ -263,203 +255,218 @@ public class WhileyFileLexer {
 		return false;
 	}
 
-	public Token scanOperator() {
-		char c = input.charAt(pos);
+	private void scanOperator() {
+		char c = input[pos];
 
 		switch (c) {
 		case '.':
-			if ((pos + 1) < input.length() && input.charAt(pos + 1) == '.') {
-				pos = pos + 2;
-				if (pos < input.length() && input.charAt(pos) == '.') {
-					return new Token(Token.Kind.DotDotDot, "..", pos++);
+			if ((pos + 1) < length && input[pos + 1] == '.') {
+				if ((pos + 2) < length && input[pos + 2] == '.') {
+					operator(Token.Kind.DotDotDot, 3);
 				} else {
-					return new Token(Token.Kind.DotDot, "..", pos);
+					operator(Token.Kind.DotDot, 2);
 				}
 			} else {
-				return new Token(Token.Kind.Dot, ".", pos++);
+				operator(Token.Kind.Dot, 1);
 			}
+			return;
 		case ',':
-			return new Token(Token.Kind.Comma, ",", pos++);
+			operator(Token.Kind.Comma, 1);
+			return;
 		case ';':
-			return new Token(Token.Kind.SemiColon, ";", pos++);
+			operator(Token.Kind.SemiColon, 1);
+			return;
 		case ':':
-			if (pos + 1 < input.length() && input.charAt(pos + 1) == ':') {
-				pos += 2;
-				return new Token(Token.Kind.ColonColon, "::", pos - 2);
+			if (pos + 1 < length && input[pos + 1] == ':') {
+				operator(Token.Kind.ColonColon, 2);
 			} else {
-				return new Token(Token.Kind.Colon, ":", pos++);
+				operator(Token.Kind.Colon, 1);
 			}
+			return;
 		case '|':
-			if (pos + 1 < input.length() && input.charAt(pos + 1) == '|') {
-				pos += 2;
-				return new Token(Token.Kind.LogicalOr, "||", pos - 2);
+			if (pos + 1 < length && input[pos + 1] == '|') {
+				operator(Token.Kind.LogicalOr, 2);
 			} else {
-				return new Token(Token.Kind.VerticalBar, "|", pos++);
+				operator(Token.Kind.VerticalBar, 1);
 			}
+			return;
 		case '(':
-			return new Token(Token.Kind.LeftBrace, "(", pos++);
+			operator(Token.Kind.LeftBrace, 1);
+			return;
 		case ')':
-			return new Token(Token.Kind.RightBrace, ")", pos++);
+			operator(Token.Kind.RightBrace, 1);
+			return;
 		case '[':
-			return new Token(Token.Kind.LeftSquare, "[", pos++);
+			operator(Token.Kind.LeftSquare, 1);
+			return;
 		case ']':
-			return new Token(Token.Kind.RightSquare, "]", pos++);
+			operator(Token.Kind.RightSquare, 1);
+			return;
 		case '{':
-			return new Token(Token.Kind.LeftCurly, "{", pos++);
+			operator(Token.Kind.LeftCurly, 1);
+			return;
 		case '}':
-			return new Token(Token.Kind.RightCurly, "}", pos++);
+			operator(Token.Kind.RightCurly, 1);
+			return;
 		case '+':
-			if ((pos + 1) < input.length() && input.charAt(pos + 1) == '+') {
-				pos = pos + 2;
-				return new Token(Token.Kind.PlusPlus, "++", pos);
+			if ((pos + 1) < length && input[pos + 1] == '+') {
+				operator(Token.Kind.PlusPlus, 2);
 			} else {
-				return new Token(Token.Kind.Plus, "+", pos++);
+				operator(Token.Kind.Plus, 1);
 			}
+			return;
 		case '-':
-			if (pos + 1 < input.length() && input.charAt(pos + 1) == '>') {
-				pos += 2;
-				return new Token(Token.Kind.MinusGreater, "->", pos - 2);
+			if (pos + 1 < length && input[pos + 1] == '>') {
+				operator(Token.Kind.MinusGreater, 2);
 			} else {
-				return new Token(Token.Kind.Minus, "-", pos++);
+				operator(Token.Kind.Minus, 1);
 			}
+			return;
 		case '*':
-			return new Token(Token.Kind.Star, "*", pos++);
+			operator(Token.Kind.Star, 1);
+			return;
 		case '&':
-			if (pos + 1 < input.length() && input.charAt(pos + 1) == '&') {
-				pos += 2;
-				return new Token(Token.Kind.LogicalAnd, "&&", pos - 2);
+			if (pos + 1 < length && input[pos + 1] == '&') {
+				operator(Token.Kind.LogicalAnd, 2);
 			} else {
-				return new Token(Token.Kind.Ampersand, "&", pos++);
+				operator(Token.Kind.Ampersand, 1);
 			}
+			return;
 		case '/':
-			if((pos+1) < input.length() && input.charAt(pos+1) == '/') {
-				return scanLineComment();
-			} else if((pos+1) < input.length() && input.charAt(pos+1) == '*') {
-				return scanBlockComment();
+			if((pos+1) < length && input[pos+1] == '/') {
+				scanLineComment();
+			} else if((pos+1) < length && input[pos+1] == '*') {
+				scanBlockComment();
 			} else {
-				return new Token(Token.Kind.RightSlash, "/", pos++);
+				operator(Token.Kind.RightSlash, 1);
 			}
+			return;
 		case '%':
-			return new Token(Token.Kind.Percent, "%", pos++);
+			operator(Token.Kind.Percent, 1);
+			return;
 		case '^':
-			return new Token(Token.Kind.Caret, "^", pos++);
+			operator(Token.Kind.Caret, 1);
+			return;
 		case '~':
-			return new Token(Token.Kind.Tilde, "~", pos++);
+			operator(Token.Kind.Tilde, 1);
+			return;
 		case '!':
-			if ((pos + 1) < input.length() && input.charAt(pos + 1) == '=') {
-				pos += 2;
-				return new Token(Token.Kind.NotEquals, "!=", pos - 2);
+			if ((pos + 1) < length && input[pos + 1] == '=') {
+				operator(Token.Kind.NotEquals, 2);
 			} else {
-				return new Token(Token.Kind.Shreak, "!", pos++);
+				operator(Token.Kind.Shreak, 1);
 			}
+			return;
 		case '=':
-			if ((pos + 1) < input.length() && input.charAt(pos + 1) == '=') {
-				pos += 2;
-				if (pos < input.length() && input.charAt(pos) == '>') {
-					pos++;
-					return new Token(Token.Kind.LogicalImplication, "==>", pos - 3);
+			if ((pos + 1) < length && input[pos + 1] == '=') {
+				if ((pos + 2) < length && input[pos + 2] == '>') {
+					operator(Token.Kind.LogicalImplication, 3);
 				} else {
-					return new Token(Token.Kind.EqualsEquals, "==", pos - 2);
+					operator(Token.Kind.EqualsEquals, 2);
 				}
-			} else if ((pos + 1) < input.length() && input.charAt(pos + 1) == '>') {
-				pos += 2;
-				return new Token(Token.Kind.EqualsGreater, "=>", pos - 2);
+			} else if ((pos + 1) < length && input[pos + 1] == '>') {
+				operator(Token.Kind.EqualsGreater, 2);
 			} else {
-				return new Token(Token.Kind.Equals, "=", pos++);
+				operator(Token.Kind.Equals, 1);
 			}
+			return;
 		case '<':
-			if ((pos + 1) < input.length() && input.charAt(pos + 1) == '=') {
-				pos += 2;
-				if ((pos+1) < input.length() && input.charAt(pos) == '=' && input.charAt(pos+1) == '>') {
-					pos += 2;
-					return new Token(Token.Kind.LogicalIff, "<==>", pos - 4);
+			if ((pos + 1) < length && input[pos + 1] == '=') {
+				if ((pos + 3) < length && input[pos + 2] == '=' && input[pos + 3] == '>') {
+					operator(Token.Kind.LogicalIff, 4);
 				} else {
-					return new Token(Token.Kind.LessEquals, "<=", pos - 2);
+					operator(Token.Kind.LessEquals, 2);
 				}
-			} else if ((pos + 1) < input.length() && input.charAt(pos + 1) == '<') {
-				pos += 2;
-				return new Token(Token.Kind.LeftAngleLeftAngle, "<<", pos - 2);
+			} else if ((pos + 1) < length && input[pos + 1] == '<') {
+				operator(Token.Kind.LeftAngleLeftAngle, 2);
 			} else{
-				return new Token(Token.Kind.LeftAngle, "<", pos++);
+				operator(Token.Kind.LeftAngle, 1);
 			}
+			return;
 		case '>':
-			if ((pos + 1) < input.length() && input.charAt(pos + 1) == '=') {
-				pos += 2;
-				return new Token(Token.Kind.GreaterEquals, ">=", pos - 2);
-			} else if ((pos + 1) < input.length() && input.charAt(pos + 1) == '>') {
-				pos += 2;
-				return new Token(Token.Kind.RightAngleRightAngle, ">>", pos - 2);
+			if ((pos + 1) < length && input[pos + 1] == '=') {
+				operator(Token.Kind.GreaterEquals, 2);
+			} else if ((pos + 1) < length && input[pos + 1] == '>') {
+				operator(Token.Kind.RightAngleRightAngle, 2);
 			} else {
-				return new Token(Token.Kind.RightAngle, ">", pos++);
+				operator(Token.Kind.RightAngle, 1);
 			}
+			return;
 		// =================================================================
 		//
 		// =================================================================
 		case UC_LESSEQUALS:
-			return new Token(Token.Kind.LessEquals, "" + c, pos++);
+			operator(Token.Kind.LessEquals, 1);
+			return;
 		case UC_GREATEREQUALS:
-			return new Token(Token.Kind.GreaterEquals, "" + c, pos++);
+			operator(Token.Kind.GreaterEquals, 1);
+			return;
 		case UC_SETUNION:
-			return new Token(Token.Kind.SetUnion, "" + c, pos++);
+			operator(Token.Kind.SetUnion, 1);
+			return;
 		case UC_SETINTERSECTION:
-			return new Token(Token.Kind.SetIntersection, "" + c, pos++);
+			operator(Token.Kind.SetIntersection, 1);
+			return;
 		case UC_ELEMENTOF:
-			return new Token(Token.Kind.ElementOf, "" + c, pos++);
+			operator(Token.Kind.ElementOf, 1);
+			return;
 		case UC_SUBSET:
-			return new Token(Token.Kind.Subset, "" + c, pos++);
+			operator(Token.Kind.Subset, 1);
+			return;
 		case UC_SUBSETEQ:
-			return new Token(Token.Kind.SubsetEquals, "" + c, pos++);
+			operator(Token.Kind.SubsetEquals, 1);
+			return;
 		case UC_SUPSET:
-			return new Token(Token.Kind.Superset, "" + c, pos++);
+			operator(Token.Kind.Superset, 1);
+			return;
 		case UC_SUPSETEQ:
-			return new Token(Token.Kind.SupersetEquals, "" + c, pos++);
+			operator(Token.Kind.SupersetEquals, 1);
+			return;
 		case UC_EMPTYSET:
-			return new Token(Token.Kind.EmptySet, "" + c, pos++);
+			operator(Token.Kind.EmptySet, 1);
+			return;
 		case UC_LOGICALOR:
-			return new Token(Token.Kind.LogicalOr, "" + c, pos++);
+			operator(Token.Kind.LogicalOr, 1);
+			return;
 		case UC_LOGICALAND:
-			return new Token(Token.Kind.LogicalAnd, "" + c, pos++);
+			operator(Token.Kind.LogicalAnd, 1);
+			return;
 		}
 
 		syntaxError("unknown operator encountered: " + c, pos);
-		return null;
 	}
 
-	public Token scanIdentifier() {
+	/**
+	 * Add an operator of a given length beginning at the current position.
+	 *
+	 * @param kind
+	 * @param width
+	 */
+	private void operator(Token.Kind kind, int width) {
+		add(kind, pos, pos + width);
+		pos = pos + width;
+	}
+
+	private void scanIdentifier() {
 		int start = pos;
-		while (pos < input.length()
-				&& (input.charAt(pos) == '_' || isLetterOrDigit(input
-						.charAt(pos)))) {
+		while (pos < length && (input[pos] == '_' || isLetterOrDigit(input[pos]))) {
 			pos++;
 		}
-		String text = input.substring(start, pos);
-
-		// now, check for keywords
-		Token.Kind kind = keywords.get(text);
-		if (kind == null) {
-			// not a keyword, so just a regular identifier.
-			kind = Token.Kind.Identifier;
-		}
-		return new Token(kind, text, start);
+		add(classify(input, start, pos), start, pos);
 	}
 
-	public void scanWhiteSpace(List<Token> tokens) {
-		while (pos < input.length()
-				&& Character.isWhitespace(input.charAt(pos))) {
-			if (input.charAt(pos) == ' ' || input.charAt(pos) == '\t') {
-				tokens.add(scanIndent());
-			} else if (input.charAt(pos) == '\n') {
-				tokens.add(new Token(Token.Kind.NewLine, input.substring(pos,
-						pos + 1), pos));
+	private void scanWhiteSpace() {
+		while (pos < length && Character.isWhitespace(input[pos])) {
+			if (input[pos] == ' ' || input[pos] == '\t') {
+				scanIndent();
+			} else if (input[pos] == '\n') {
+				add(Token.Kind.NewLine, pos, pos + 1);
 				pos = pos + 1;
-			} else if (input.charAt(pos) == '\r' && (pos + 1) < input.length()
-					&& input.charAt(pos + 1) == '\n') {
-				tokens.add(new Token(Token.Kind.NewLine, input.substring(pos,
-						pos + 2), pos));
+			} else if (input[pos] == '\r' && (pos + 1) < length && input[pos + 1] == '\n') {
+				add(Token.Kind.NewLine, pos, pos + 2);
 				pos = pos + 2;
 			} else {
-				syntaxError("unknown whitespace character encounterd: \""
-						+ input.charAt(pos), pos);
+				syntaxError("unknown whitespace character encounterd: \"" + input[pos], pos);
 			}
 		}
 	}
@@ -467,48 +474,53 @@ public class WhileyFileLexer {
 	/**
 	 * Scan one or more spaces or tab characters, combining them to form an
 	 * "indent".
-	 *
-	 * @return
 	 */
-	public Token scanIndent() {
+	private void scanIndent() {
 		int start = pos;
-		while (pos < input.length()
-				&& (input.charAt(pos) == ' ' || input.charAt(pos) == '\t')) {
+		while (pos < length && (input[pos] == ' ' || input[pos] == '\t')) {
 			pos++;
 		}
-		return new Token(Token.Kind.Indent, input.substring(start, pos), start);
+		add(Token.Kind.Indent, start, pos);
 	}
 
-	public Token scanLineComment() {
+	private void scanLineComment() {
 		int start = pos;
-		while (pos < input.length() && input.charAt(pos) != '\n') {
+		while (pos < length && input[pos] != '\n') {
 			pos++;
 		}
-		return new Token(Token.Kind.LineComment, input.substring(start, pos),
-				start);
+		add(Token.Kind.LineComment, start, pos);
 	}
 
-	public Token scanBlockComment() {
+	private void scanBlockComment() {
 		int start = pos;
-		while((pos+1) < input.length() && (input.charAt(pos) != '*' || input.charAt(pos+1) != '/')) {
+		while((pos+1) < length && (input[pos] != '*' || input[pos+1] != '/')) {
 			pos++;
 		}
-		pos++;
-		pos++;
-		return new Token(Token.Kind.BlockComment,input.substring(start,pos),start);
+		// NOTE: an unterminated comment extends to the end of the input
+		pos = Math.min(pos + 2, length);
+		add(Token.Kind.BlockComment, start, pos);
 	}
 
 	/**
-	 * Skip over any whitespace at the current index position in the input
-	 * string.
+	 * Append a token to the stream being constructed.
 	 *
-	 * @param tokens
+	 * @param kind
+	 * @param start
+	 *            The index of its first character.
+	 * @param end
+	 *            The index one past its last character.
 	 */
-	public void skipWhitespace(List<Token> tokens) {
-		while (pos < input.length()
-				&& (input.charAt(pos) == '\n' || input.charAt(pos) == '\t')) {
-			pos++;
+	private void add(Token.Kind kind, int start, int end) {
+		if (count == kinds.length) {
+			int capacity = count * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
 		}
+		kinds[count] = kind.ordinal();
+		starts[count] = start;
+		ends[count] = end;
+		count = count + 1;
 	}
 
 	/**
@@ -621,6 +633,143 @@ public class WhileyFileLexer {
 		}
 	};
 
+	/**
+	 * The keywords, indexed by their perfect hash (see <code>hash()</code>).
+	 * The size of this table and the multiplier used in the hash were chosen
+	 * such that no two keywords occupy the same slot. This is checked when the
+	 * table is constructed.
+	 */
+	private static final char[][] keywordText = new char[128][];
+	private static final Token.Kind[] keywordKinds = new Token.Kind[128];
+
+	static {
+		for (Map.Entry<String, Token.Kind> e : keywords.entrySet()) {
+			char[] text = e.getKey().toCharArray();
+			int slot = hash(text, 0, text.length);
+			if (keywordText[slot] != null) {
+				throw new IllegalStateException("keyword hash collision: " + e.getKey());
+			}
+			keywordText[slot] = text;
+			keywordKinds[slot] = e.getValue();
+		}
+	}
+
+	/**
+	 * Determine whether the given range of characters is a keyword or an
+	 * identifier. Every keyword has at least two characters.
+	 *
+	 * @param input
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private static Token.Kind classify(char[] input, int start, int end) {
+		int len = end - start;
+		if (len >= 2) {
+			int slot = hash(input, start, end);
+			char[] keyword = keywordText[slot];
+			if (keyword != null && keyword.length == len) {
+				for (int i = 0; i != len; ++i) {
+					if (keyword[i] != input[start + i]) {
+						return Token.Kind.Identifier;
+					}
+				}
+				return keywordKinds[slot];
+			}
+		}
+		return Token.Kind.Identifier;
+	}
+
+	/**
+	 * Hash a range of at least two characters into a slot of the keyword table,
+	 * using only its length and its first two and last two characters.
+	 *
+	 * @param input
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private static int hash(char[] input, int start, int end) {
+		int h = input[start];
+		h = (h * 31) + input[start + 1];
+		h = (h * 31) + input[end - 2];
+		h = (h * 31) + input[end - 1];
+		h = (h * 31) + (end - start);
+		return (h * 0x6c6f128f) >>> 25;
+	}
+
+	/**
+	 * A list of tokens, stored as parallel arrays giving the kind, start and
+	 * end of each. The tokens returned from this list are constructed on
+	 * demand and, likewise, their text is extracted only when requested.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Tokens extends AbstractList<Token> implements RandomAccess {
+		private static final Token.Kind[] KINDS = Token.Kind.values();
+
+		private final char[] input;
+		private final int[] kinds;
+		private final int[] starts;
+		private final int[] ends;
+		private final Token[] tokens;
+
+		private Tokens(char[] input, int[] kinds, int[] starts, int[] ends, int count) {
+			this.input = input;
+			this.kinds = kinds;
+			this.starts = starts;
+			this.ends = ends;
+			this.tokens = new Token[count];
+		}
+
+		@Override
+		public int size() {
+			return tokens.length;
+		}
+
+		@Override
+		public Token get(int index) {
+			Token token = tokens[index];
+			if (token == null) {
+				token = new Token(getKind(index), input, starts[index], ends[index]);
+				tokens[index] = token;
+			}
+			return token;
+		}
+
+		public Token.Kind getKind(int index) {
+			return KINDS[kinds[checkIndex(index)]];
+		}
+
+		/**
+		 * Get the index of the first character of a given token.
+		 *
+		 * @param index
+		 * @return
+		 */
+		public int getStart(int index) {
+			return starts[checkIndex(index)];
+		}
+
+		/**
+		 * Get the index one past the last character of a given token.
+		 *
+		 * @param index
+		 * @return
+		 */
+		public int getEnd(int index) {
+			return ends[checkIndex(index)];
+		}
+
+		private int checkIndex(int index) {
+			if (index < 0 || index >= tokens.length) {
+				throw new IndexOutOfBoundsException("index " + index + ", size " + tokens.length);
+			}
+			return index;
+		}
+	}
+
 	/**
 	 * The base class for all tokens.
 	 *
@@ -770,6 +919,14 @@ public class WhileyFileLexer {
 			this.start = pos;
 		}
 
+		/**
+		 * Construct a token whose text is the given range of characters. This
+		 * is used when a token is first requested from a list of tokens.
+		 */
+		private Token(Kind kind, char[] source, int start, int limit) {
+			this(kind, new String(source, start, limit - start), start);
+		}
+
 		public int end() {
 			return start + text.length() - 1;
 		}
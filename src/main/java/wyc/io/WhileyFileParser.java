@@ -45,12 +45,21 @@ import wyfs.lang.Path;
  */
 public class WhileyFileParser {
 	private final WhileyFile file;
-	private ArrayList<Token> tokens;
+	private final List<Token> tokens;
 	private int index;
+	/**
+	 * Records the outcome of <code>skipType()</code> at each token index. The
+	 * disambiguation of statements and casts means the same tokens are often
+	 * skipped as a type more than once. For example, when parsing
+	 * <code>((((x))))</code> each bracket attempts to skip all those nested
+	 * within it.
+	 */
+	private final Skip[] skippedTypes;
 
 	public WhileyFileParser(WhileyFile wf, List<Token> tokens) {
 		this.file = wf;
-		this.tokens = new ArrayList<>(tokens);
+		this.tokens = tokens;
+		this.skippedTypes = new Skip[tokens.size() + 1];
 	}
 
 	/**
@@ -2486,19 +2495,20 @@ public class WhileyFileParser {
 		match(LeftSquare);
 		if (tryAndMatch(true, RightSquare) != null) {
 			// this is an empty array initialiser
-			index = start;
-			return parseArrayInitialiserExpression(scope, terminated);
+			return annotateSourceLocation(new Expr.ArrayInitialiser(Type.Void, new Tuple<>()), start);
 		} else {
+			// NOTE: the first element is parsed only once and then passed on,
+			// rather than backtracking and parsing it again. Otherwise, the
+			// time taken to parse nested arrays would be exponential in their
+			// depth.
 			Expr expr = parseExpression(scope, true);
 			// Finally, disambiguate
 			if (tryAndMatch(true, SemiColon) != null) {
 				// this is an array generator
-				index = start;
-				return parseArrayGeneratorExpression(scope, terminated);
+				return parseArrayGeneratorExpression(scope, start, expr, terminated);
 			} else {
 				// this is an array initialiser
-				index = start;
-				return parseArrayInitialiserExpression(scope, terminated);
+				return parseArrayInitialiserExpression(scope, start, expr, terminated);
 			}
 		}
 	}
@@ -2514,6 +2524,10 @@ public class WhileyFileParser {
 	 *            The enclosing scope for this statement, which determines the
 	 *            set of visible (i.e. declared) variables and also the current
 	 *            indentation level.
+	 * @param start
+	 *            The index of the opening left square brace.
+	 * @param first
+	 *            The first element, which has already been parsed.
 	 * @param terminated
 	 *            This indicates that the expression is known to be terminated
 	 *            (or not). An expression that's known to be terminated is one
@@ -2528,16 +2542,11 @@ public class WhileyFileParser {
 	 *
 	 * @return
 	 */
-	private Expr parseArrayInitialiserExpression(EnclosingScope scope, boolean terminated) {
-		int start = index;
-		match(LeftSquare);
+	private Expr parseArrayInitialiserExpression(EnclosingScope scope, int start, Expr first, boolean terminated) {
 		ArrayList<Expr> exprs = new ArrayList<>();
-		boolean firstTime = true;
+		exprs.add(first);
 		while (eventuallyMatch(RightSquare) == null) {
-			if (!firstTime) {
-				match(Comma);
-			}
-			firstTime = false;
+			match(Comma);
 			// NOTE: we require the following expression be a "non-tuple"
 			// expression. That is, it cannot be composed using ',' unless
 			// braces enclose the entire expression. This is because the outer
@@ -2561,6 +2570,11 @@ public class WhileyFileParser {
 	 *            The enclosing scope for this statement, which determines the
 	 *            set of visible (i.e. declared) variables and also the current
 	 *            indentation level.
+	 * @param start
+	 *            The index of the opening left square brace.
+	 * @param element
+	 *            The element expression, which has already been parsed along with
+	 *            the following semi-colon.
 	 * @param terminated
 	 *            This indicates that the expression is known to be terminated
 	 *            (or not). An expression that's known to be terminated is one
@@ -2575,11 +2589,7 @@ public class WhileyFileParser {
 	 *
 	 * @return
 	 */
-	private Expr parseArrayGeneratorExpression(EnclosingScope scope, boolean terminated) {
-		int start = index;
-		match(LeftSquare);
-		Expr element = parseExpression(scope, true);
-		match(SemiColon);
+	private Expr parseArrayGeneratorExpression(EnclosingScope scope, int start, Expr element, boolean terminated) {
 		Expr count = parseExpression(scope, true);
 		match(RightSquare);
 		return annotateSourceLocation(new Expr.ArrayGenerator(Type.Void, element, count), start);
@@ -3196,7 +3206,34 @@ public class WhileyFileParser {
 		}
 	}
 
+	/**
+	 * Attempt to move past a type, without constructing it. This returns false
+	 * if a type cannot be parsed at the current position, in which case the
+	 * position is undefined and the caller is expected to backtrack.
+	 *
+	 * @param scope
+	 * @return
+	 */
 	public boolean skipType(EnclosingScope scope) {
+		int start = index;
+		Skip skip = skippedTypes[start];
+		if (skip != null && skip.isValid(scope)) {
+			if (skip.end < 0) {
+				return false;
+			}
+			index = skip.end;
+			return true;
+		} else {
+			boolean r = skipUnionOrIntersectionType(scope);
+			skippedTypes[start] = new Skip(scope, r ? index : -1);
+			if (!r) {
+				index = start;
+			}
+			return r;
+		}
+	}
+
+	private boolean skipUnionOrIntersectionType(EnclosingScope scope) {
 		if (skipTypeArray(scope)) {
 			while (tryAndMatch(false, Ampersand, VerticalBar) != null) {
 				if (!skipTypeArray(scope)) {
@@ -4523,6 +4560,35 @@ public class WhileyFileParser {
 	 */
 	private static final Indent ROOT_INDENT = new Indent("", 0);
 
+	/**
+	 * The outcome of skipping a type from a given position. This depends upon
+	 * the variables declared in the enclosing scope, since a nominal type
+	 * cannot be the name of a variable. Variables are only ever added to a
+	 * scope and, hence, the outcome remains valid whilst the same scope
+	 * declares the same number of variables.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Skip {
+		private final EnclosingScope scope;
+		private final int variables;
+		/**
+		 * The position after the type, or -1 if no type could be skipped.
+		 */
+		private final int end;
+
+		public Skip(EnclosingScope scope, int end) {
+			this.scope = scope;
+			this.variables = scope.environment.size();
+			this.end = end;
+		}
+
+		public boolean isValid(EnclosingScope scope) {
+			return this.scope == scope && variables == scope.environment.size();
+		}
+	}
+
 	/**
 	 * The enclosing scope provides contextual information about the enclosing
 	 * scope for the given statement or expression being parsed.
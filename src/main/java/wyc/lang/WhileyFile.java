@@ -159,6 +159,40 @@ public class WhileyFile extends AbstractCompilationUnit<WhileyFile> {
 		}
 	};
 
+	// =========================================================================
+	// Summary Content Type
+	// =========================================================================
+
+	/**
+	 * The interface summary of a compiled Whiley file. This omits the bodies of
+	 * all functions and methods, and is used in place of the complete binary
+	 * file when resolving names and type checking against other modules.
+	 *
+	 * @see wyil.stage.SummaryGenerator
+	 */
+	public static final Content.Type<WhileyFile> SummaryContentType = new Content.Type<WhileyFile>() {
+
+		@Override
+		public WhileyFile read(Path.Entry<WhileyFile> e, InputStream input) throws IOException {
+			return new WyilFileReader(e).read();
+		}
+
+		@Override
+		public void write(OutputStream output, WhileyFile value) throws IOException {
+			new WyilFileWriter(output).write(value);
+		}
+
+		@Override
+		public String toString() {
+			return "Content-Type: wyis";
+		}
+
+		@Override
+		public String getSuffix() {
+			return "wyis";
+		}
+	};
+
 	// DECLARATIONS: 00010000 (16) -- 00011111 (31)
 	public static final int DECL_mask = 0b00010000;
 	public static final int DECL_module = DECL_mask + 0;
@@ -288,6 +322,14 @@ public class WhileyFile extends AbstractCompilationUnit<WhileyFile> {
 	public static final int EXPR_arrayinitialiser = EXPR_mask + 61;
 	public static final int EXPR_arrayrange = EXPR_mask + 62;
 
+	/**
+	 * Index of the named declarations and imports in this file, used for name
+	 * resolution. This is constructed lazily and brought up to date as items
+	 * are appended. This relies on the items of a file only ever being
+	 * appended, never replaced or removed.
+	 */
+	private final Index index = new Index();
+
 	// =========================================================================
 	// Constructors
 	// =========================================================================
@@ -332,6 +374,86 @@ public class WhileyFile extends AbstractCompilationUnit<WhileyFile> {
 		throw new IllegalArgumentException("unknown declarataion (" + name + "," + signature + ")");
 	}
 
+	/**
+	 * Get all named declarations in this file with a given name, irrespective
+	 * of their kind or signature. The returned list is not modified by
+	 * subsequent changes to this file.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public List<Decl.Named> getNamedDeclarations(String name) {
+		List<Decl.Named> matches;
+		synchronized (this) {
+			index.update(this);
+			matches = index.declarations.get(name);
+		}
+		return matches == null ? Collections.<Decl.Named>emptyList() : Collections.unmodifiableList(matches);
+	}
+
+	/**
+	 * Get all imports in this file, in the order they occur. The returned list
+	 * is not modified by subsequent changes to this file.
+	 *
+	 * @return
+	 */
+	public List<Decl.Import> getImports() {
+		List<Decl.Import> imports;
+		synchronized (this) {
+			index.update(this);
+			imports = index.imports;
+		}
+		return Collections.unmodifiableList(imports);
+	}
+
+	/**
+	 * A declaration index for a single file. This maps every declared name to
+	 * the named declarations in the file, and records all imports in the order
+	 * they occur. Since items are only ever appended to a file, the index is
+	 * brought up to date by examining just those items added since it was last
+	 * used. Lists which have been handed out are never modified; instead, they
+	 * are replaced when new items are found.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Index {
+		private final HashMap<String, List<Decl.Named>> declarations = new HashMap<>();
+		private List<Decl.Import> imports = Collections.emptyList();
+		/**
+		 * The number of items covered by this index.
+		 */
+		private int size;
+
+		private void update(WhileyFile file) {
+			int n = file.size();
+			if (size == n) {
+				return;
+			}
+			ArrayList<Decl.Import> newImports = null;
+			for (int i = size; i < n; ++i) {
+				SyntacticItem item = file.getSyntacticItem(i);
+				if (item instanceof Decl.Named) {
+					Decl.Named nd = (Decl.Named) item;
+					String name = nd.getName().get();
+					List<Decl.Named> matches = declarations.get(name);
+					ArrayList<Decl.Named> extended = matches == null ? new ArrayList<>(1) : new ArrayList<>(matches);
+					extended.add(nd);
+					declarations.put(name, extended);
+				} else if (item instanceof Decl.Import) {
+					if (newImports == null) {
+						newImports = new ArrayList<>(imports);
+					}
+					newImports.add((Decl.Import) item);
+				}
+			}
+			if (newImports != null) {
+				imports = newImports;
+			}
+			size = n;
+		}
+	}
+
 	// ============================================================
 	// Declarations
 	// ============================================================
@@ -0,0 +1,357 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.task;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import wyc.lang.WhileyFile;
+import wyfs.lang.Content;
+import wyfs.lang.Path;
+import wyfs.util.Trie;
+import wyil.io.WyilFileWriter;
+
+/**
+ * <p>
+ * Records the state of each module as of when it was last compiled. This
+ * consists of a hash of its source file, a hash of its interface summary and,
+ * for each module it depends upon, a hash of that module's interface summary.
+ * This state persists between builds and is used to determine which modules
+ * must be recompiled. Specifically, a module must be recompiled only when its
+ * source file has changed, or when the interface of a module it depends upon
+ * has changed.
+ * </p>
+ * <p>
+ * The modules a module depends upon are taken transitively. This is because
+ * an interface summary refers to the declarations of other modules by name
+ * only. For example, suppose <code>x</code> uses <code>y::T</code>, where
+ * <code>type T is z::U</code>. Then, changing <code>z::U</code> leaves the
+ * summary of <code>y</code> unchanged, and yet <code>x</code> must still be
+ * recompiled. Likewise, a module also depends upon every module matched by its
+ * imports, since a name declared later in any of these could shadow one
+ * resolved elsewhere. The imports themselves are also recorded, such that a
+ * module is recompiled when a new module matching one of them appears.
+ * </p>
+ * <p>
+ * Since contents are compared rather than modification times, touching a
+ * source file (e.g. by checking it out again) does not cause it to be
+ * recompiled. Likewise, recompiling a module whose interface does not change
+ * does not cause the modules depending on it to be recompiled.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class BuildState {
+	/**
+	 * The identifier of the entry holding the build state.
+	 */
+	public static final Path.ID ID = Trie.fromString("wyc");
+
+	private final HashMap<Path.ID, Module> modules = new HashMap<>();
+
+	/**
+	 * Determine whether a given source file must be recompiled. When nothing
+	 * is recorded for it, this falls back to comparing its modification time
+	 * against that of its binary file.
+	 *
+	 * @param source
+	 * @param binary
+	 *            The binary file compiled from the source file, or null if
+	 *            none exists.
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized boolean isModified(Path.Entry<?> source, Path.Entry<?> binary) throws IOException {
+		Module module = modules.get(source.id());
+		if (binary == null) {
+			return true;
+		} else if (module == null) {
+			return binary.lastModified() < source.lastModified();
+		} else {
+			return !module.source.equals(hash(source)) || isInvalidated(source.id());
+		}
+	}
+
+	/**
+	 * Determine whether the interface of any module which a given module
+	 * depends upon has changed since it was last compiled. A module whose
+	 * state is no longer recorded (e.g. because its source file was removed)
+	 * is considered to have changed.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public synchronized boolean isInvalidated(Path.ID id) {
+		Module module = modules.get(id);
+		if (module != null) {
+			for (Map.Entry<Path.ID, String> e : module.dependencies.entrySet()) {
+				Module dependency = modules.get(e.getKey());
+				if (dependency == null || !dependency.summary.equals(e.getValue())) {
+					return true;
+				}
+			}
+			for (Path.ID filter : module.imports) {
+				for (Path.ID other : modules.keySet()) {
+					if (!other.equals(id) && !module.dependencies.containsKey(other) && matches(filter, other)) {
+						// A module matching this import has appeared
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Discard the state of every module other than those given. This should be
+	 * applied before the state is used, passing those modules whose source file
+	 * and interface summary both still exist. Any module depending upon one
+	 * which is discarded is then invalidated.
+	 *
+	 * @param ids
+	 */
+	public synchronized void retain(Set<Path.ID> ids) {
+		modules.keySet().retainAll(ids);
+	}
+
+	/**
+	 * Get the hash of the interface summary recorded for a given module, or
+	 * null if none.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public synchronized String getSummary(Path.ID id) {
+		Module module = modules.get(id);
+		return module == null ? null : module.summary;
+	}
+
+	/**
+	 * Record that a given module has just been compiled. Its dependencies are
+	 * recorded separately (see <code>setDependencies()</code>), since these
+	 * are compared against the summaries of modules compiled alongside it.
+	 *
+	 * @param source
+	 * @param summary
+	 *            The interface summary generated for the module.
+	 * @throws IOException
+	 */
+	public synchronized void put(Path.Entry<?> source, WhileyFile summary) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new WyilFileWriter(bytes).write(summary);
+		modules.put(source.id(), new Module(hash(source), hash(bytes.toByteArray())));
+	}
+
+	/**
+	 * Record the modules which each of a given set of modules compiled
+	 * together depends upon, along with the hash of each one's interface
+	 * summary. Only the modules each depends upon directly are given, and
+	 * those it depends upon transitively are determined from them. Modules for
+	 * which nothing is recorded (e.g. those in the standard library) are
+	 * ignored.
+	 *
+	 * @param dependencies
+	 *            The modules each module compiled depends upon directly.
+	 */
+	public synchronized void setDependencies(Map<Path.ID, ? extends Iterable<Path.ID>> dependencies) {
+		for (Map.Entry<Path.ID, ? extends Iterable<Path.ID>> e : dependencies.entrySet()) {
+			Module module = modules.get(e.getKey());
+			module.dependencies.clear();
+			for (Path.ID dependency : e.getValue()) {
+				addDependency(e.getKey(), module, dependency);
+			}
+		}
+		// NOTE: the dependencies recorded for modules compiled previously are
+		// already transitive, but those for modules compiled together are not
+		// until this completes.
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Path.ID id : dependencies.keySet()) {
+				Module module = modules.get(id);
+				for (Path.ID dependency : new ArrayList<>(module.dependencies.keySet())) {
+					for (Path.ID transitive : modules.get(dependency).dependencies.keySet()) {
+						if (!module.dependencies.containsKey(transitive)) {
+							changed |= addDependency(id, module, transitive);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private boolean addDependency(Path.ID id, Module module, Path.ID dependency) {
+		String summary = getSummary(dependency);
+		if (summary != null && !dependency.equals(id)) {
+			module.dependencies.put(dependency, summary);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Record the imports of a given module, each of which is a filter over
+	 * module identifiers (where <code>*</code> matches any one component).
+	 *
+	 * @param id
+	 * @param imports
+	 */
+	public synchronized void setImports(Path.ID id, Iterable<Path.ID> imports) {
+		Module module = modules.get(id);
+		module.imports.clear();
+		for (Path.ID filter : imports) {
+			module.imports.add(filter);
+		}
+	}
+
+	/**
+	 * Determine whether a given import filter matches a given module
+	 * identifier.
+	 *
+	 * @param filter
+	 * @param id
+	 * @return
+	 */
+	private static boolean matches(Path.ID filter, Path.ID id) {
+		if (filter.size() != id.size()) {
+			return false;
+		}
+		for (int i = 0; i != filter.size(); ++i) {
+			String component = filter.get(i);
+			if (!component.equals("*") && !component.equals(id.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compute the hash of a given entry's contents.
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	private static String hash(Path.Entry<?> entry) throws IOException {
+		try (InputStream in = entry.inputStream()) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) >= 0) {
+				bytes.write(buffer, 0, n);
+			}
+			return hash(bytes.toByteArray());
+		}
+	}
+
+	private static String hash(byte[] bytes) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+			StringBuilder r = new StringBuilder();
+			for (byte b : digest) {
+				r.append(String.format("%02x", b));
+			}
+			return r.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static final class Module {
+		private final String source;
+		private final String summary;
+		private final HashMap<Path.ID, String> dependencies = new HashMap<>();
+		private final ArrayList<Path.ID> imports = new ArrayList<>();
+
+		public Module(String source, String summary) {
+			this.source = source;
+			this.summary = summary;
+		}
+	}
+
+	// =========================================================================
+	// Content Type
+	// =========================================================================
+
+	/**
+	 * The build state is stored as text. Each module is given on a line of the
+	 * form <code>module id source summary</code>, followed by one line of the
+	 * form <code>depends id summary</code> for each module it depends upon and
+	 * one line of the form <code>imports filter</code> for each import.
+	 * Should the contents be malformed (e.g. because a previous build was
+	 * interrupted), the state is simply discarded. This means every module is
+	 * recompiled if its binary file is older than its source file.
+	 */
+	public static final Content.Type<BuildState> ContentType = new Content.Type<BuildState>() {
+
+		@Override
+		public BuildState read(Path.Entry<BuildState> e, InputStream input) throws IOException {
+			BuildState state = new BuildState();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+			Module module = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(" ");
+				if (fields.length == 4 && fields[0].equals("module")) {
+					module = new Module(fields[2], fields[3]);
+					state.modules.put(Trie.fromString(fields[1]), module);
+				} else if (fields.length == 3 && fields[0].equals("depends") && module != null) {
+					module.dependencies.put(Trie.fromString(fields[1]), fields[2]);
+				} else if (fields.length == 2 && fields[0].equals("imports") && module != null) {
+					module.imports.add(Trie.fromString(fields[1]));
+				} else {
+					return new BuildState();
+				}
+			}
+			return state;
+		}
+
+		@Override
+		public void write(OutputStream output, BuildState state) throws IOException {
+			PrintWriter writer = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+			synchronized (state) {
+				for (Map.Entry<Path.ID, Module> e : state.modules.entrySet()) {
+					Module module = e.getValue();
+					writer.println("module " + e.getKey() + " " + module.source + " " + module.summary);
+					for (Map.Entry<Path.ID, String> d : module.dependencies.entrySet()) {
+						writer.println("depends " + d.getKey() + " " + d.getValue());
+					}
+					for (Path.ID filter : module.imports) {
+						writer.println("imports " + filter);
+					}
+				}
+			}
+			writer.flush();
+		}
+
+		@Override
+		public String toString() {
+			return "Content-Type: wybuild";
+		}
+
+		@Override
+		public String getSuffix() {
+			return "wybuild";
+		}
+	};
+}
@@ -18,13 +18,17 @@ import static wyc.util.ErrorMessages.errorMessage;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import wyal.lang.WyalFile;
 import wyfs.lang.Content;
 import wyfs.lang.Path;
-import wyfs.util.Trie;
 import wyil.stage.MoveAnalysis;
 import wyil.stage.RecursiveTypeAnalysis;
+import wyil.stage.SummaryGenerator;
 import wybs.lang.*;
 import wybs.lang.SyntaxError.InternalFailure;
 import wybs.util.*;
@@ -36,6 +40,7 @@ import wyc.check.FunctionalCheck;
 import wyc.check.StaticVariableCheck;
 import wyc.lang.*;
 import wyc.util.WhileyFileResolver;
+import wyil.type.subtyping.SubtypeOperator;
 import wycc.util.ArrayUtils;
 import wycc.util.Logger;
 import wycc.util.Pair;
@@ -98,7 +103,7 @@ public final class CompileTask implements Build.Task {
 	 * and performing subtype tests, etc. This object may cache results to
 	 * improve performance of some operations.
 	 */
-	private final NameResolver resolver;
+	private final WhileyFileResolver resolver;
 
 	/**
 	 * The logger used for logging system events
@@ -111,17 +116,45 @@ public final class CompileTask implements Build.Task {
 	private final HashMap<Path.ID, Path.Entry<WhileyFile>> srcFiles = new HashMap<>();
 
 	/**
-	 * The import cache caches specific import queries to their result sets.
-	 * This is extremely important to avoid recomputing these result sets every
-	 * time. For example, the statement <code>import whiley.lang.*</code>
-	 * corresponds to the triple <code>("whiley.lang",*,null)</code>.
+	 * The resolution cache caches the results of name resolution, such as the
+	 * modules matched by an import. This is extremely important to avoid
+	 * recomputing these results every time. For example, the statement
+	 * <code>import whiley.lang.*</code> corresponds to the filter
+	 * <code>whiley.lang.*</code>. This cache may be shared with other tasks and
+	 * is cleared at the start of every build.
 	 */
-	private final HashMap<Trie, ArrayList<Path.ID>> importCache = new HashMap<>();
+	private final WhileyFileResolver.Cache cache;
+
+	/**
+	 * The number of worker threads used for parsing and checking source files.
+	 * When this is one, all files are processed sequentially on the calling
+	 * thread. Otherwise, independent files are processed concurrently on a
+	 * fork-join pool of this size.
+	 */
+	private int threads = 1;
+
+	/**
+	 * Records the state of each module compiled, such that subsequent builds
+	 * can determine which modules must be recompiled. This may be null, in
+	 * which case nothing is recorded.
+	 */
+	private BuildState state;
+
+	/**
+	 * The stream to which statistics about the caches used during compilation
+	 * are reported, or null if they are not reported.
+	 */
+	private PrintStream statistics;
 
 	public CompileTask(Build.Project project) {
+		this(project, new WhileyFileResolver.Cache());
+	}
+
+	public CompileTask(Build.Project project, WhileyFileResolver.Cache cache) {
 		this.logger = Logger.NULL;
 		this.project = project;
-		this.resolver = new WhileyFileResolver(project);
+		this.cache = cache;
+		this.resolver = new WhileyFileResolver(project, cache);
 	}
 
 	public String id() {
@@ -142,10 +175,58 @@ public final class CompileTask implements Build.Task {
 		return resolver;
 	}
 
+	/**
+	 * Access the resolution cache this compile task is using.
+	 *
+	 * @return
+	 */
+	public WhileyFileResolver.Cache getResolutionCache() {
+		return cache;
+	}
+
 	public void setLogger(Logger logger) {
 		this.logger = logger;
 	}
 
+	/**
+	 * Set the number of worker threads used for parsing and checking source
+	 * files. Errors are always reported in the order in which files were given,
+	 * regardless of how many threads are used.
+	 *
+	 * @param threads
+	 *            Number of worker threads (at least one).
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("invalid number of threads: " + threads);
+		}
+		this.threads = threads;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setBuildState(BuildState state) {
+		this.state = state;
+	}
+
+	public BuildState getBuildState() {
+		return state;
+	}
+
+	/**
+	 * Set the stream to which statistics about the caches used during
+	 * compilation (e.g. the subtype memo) are reported after each build.
+	 *
+	 * @param statistics
+	 *            The stream to report on, or null if statistics should not be
+	 *            reported.
+	 */
+	public void setStatistics(PrintStream statistics) {
+		this.statistics = statistics;
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public Set<Path.Entry<?>> build(Collection<Pair<Path.Entry<?>, Path.Root>> delta, Build.Graph graph)
@@ -155,33 +236,43 @@ public final class CompileTask implements Build.Task {
 		long startMemory = runtime.freeMemory();
 		long tmpTime = startTime;
 		long tmpMemory = startMemory;
+		// Binary modules are about to change, hence previous results of name
+		// resolution may no longer be valid.
+		cache.clear();
 
 		// ========================================================================
 		// Parse source files
 		// ========================================================================
 
-		int count = 0;
-
-		ArrayList<WhileyFile> binaryFiles = new ArrayList<>();
-		Set<Path.Entry<?>> generatedFiles = new HashSet<>();
+		ArrayList<Path.Entry<WhileyFile>> sources = new ArrayList<>();
+		ArrayList<Path.Root> roots = new ArrayList<>();
 		for (Pair<Path.Entry<?>, Path.Root> p : delta) {
 			Path.Entry<?> entry = p.first();
 			if (entry.contentType() == WhileyFile.ContentType) {
-				Path.Entry<WhileyFile> source = (Path.Entry<WhileyFile>) entry;
-				Path.Root bindir = p.second();
-				// Parse Whiley source file. This may produce errors at this
-				// stage, which means compilation of this file cannot proceed
-				WhileyFile wf = source.read();
-				Path.Entry<WhileyFile> target = bindir.create(entry.id(), WhileyFile.BinaryContentType);
-				target.write(wf);
-				binaryFiles.add(wf);
-				generatedFiles.add(target);
-				// Register the derivation in the build graph. This is important
-				// to understand what a particular intermediate file was
-				// derived from.
-				graph.registerDerivation(source, target);
-				count++;
+				sources.add((Path.Entry<WhileyFile>) entry);
+				roots.add(p.second());
+			}
+		}
+		int count = sources.size();
+		// Parse Whiley source files. This may produce errors at this stage,
+		// which means compilation cannot proceed.
+		List<WhileyFile> binaryFiles = apply(sources, new Stage<Path.Entry<WhileyFile>>() {
+			@Override
+			public WhileyFile apply(Path.Entry<WhileyFile> source) throws IOException {
+				return source.read();
 			}
+		});
+		Set<Path.Entry<?>> generatedFiles = new HashSet<>();
+		for (int i = 0; i != count; ++i) {
+			Path.Entry<WhileyFile> source = sources.get(i);
+			WhileyFile wf = binaryFiles.get(i);
+			Path.Entry<WhileyFile> target = roots.get(i).create(source.id(), WhileyFile.BinaryContentType);
+			target.write(wf);
+			generatedFiles.add(target);
+			// Register the derivation in the build graph. This is important
+			// to understand what a particular intermediate file was
+			// derived from.
+			graph.registerDerivation(source, target);
 		}
 
 		logger.logTimedMessage("Parsed " + count + " source file(s).", System.currentTimeMillis() - tmpTime,
@@ -195,11 +286,24 @@ public final class CompileTask implements Build.Task {
 		tmpTime = System.currentTimeMillis();
 		tmpMemory = runtime.freeMemory();
 
-		FlowTypeCheck flowChecker = new FlowTypeCheck(this);
-		flowChecker.check(binaryFiles);
+		final FlowTypeCheck flowChecker = new FlowTypeCheck(this);
+		apply(binaryFiles, new Stage<WhileyFile>() {
+			@Override
+			public WhileyFile apply(WhileyFile wf) {
+				flowChecker.check(wf);
+				return wf;
+			}
+		});
 
 		logger.logTimedMessage("Typed " + count + " source file(s).", System.currentTimeMillis() - tmpTime,
 				tmpMemory - runtime.freeMemory());
+		if (statistics != null) {
+			SubtypeOperator strict = flowChecker.getStrictSubtypeOperator();
+			SubtypeOperator relaxed = flowChecker.getRelaxedSubtypeOperator();
+			statistics.println("Subtype memo: " + (strict.getMemoHits() + relaxed.getMemoHits()) + " hit(s), "
+					+ (strict.getMemoMisses() + relaxed.getMemoMisses()) + " miss(es)");
+			statistics.println("Type identifiers: " + strict.getTypeIdCache());
+		}
 
 		// ========================================================================
 		// Code Generation
@@ -209,28 +313,156 @@ public final class CompileTask implements Build.Task {
 		tmpTime = System.currentTimeMillis();
 		tmpMemory = runtime.freeMemory();
 
-		for (WhileyFile wf : binaryFiles) {
-			new DefiniteAssignmentCheck().check(wf);
-			new DefiniteUnassignmentCheck(this).check(wf);
-			new FunctionalCheck(this).check(wf);
-			new StaticVariableCheck(this).check(wf);
-			new AmbiguousCoercionCheck(this).check(wf);
-			new MoveAnalysis(this).apply(wf);
-			new RecursiveTypeAnalysis(this).apply(wf);
-			// new CoercionCheck(this);
-		}
+		apply(binaryFiles, new Stage<WhileyFile>() {
+			@Override
+			public WhileyFile apply(WhileyFile wf) {
+				new DefiniteAssignmentCheck().check(wf);
+				new DefiniteUnassignmentCheck(CompileTask.this).check(wf);
+				new FunctionalCheck(CompileTask.this).check(wf);
+				new StaticVariableCheck(CompileTask.this).check(wf);
+				new AmbiguousCoercionCheck(CompileTask.this).check(wf);
+				new MoveAnalysis(CompileTask.this).apply(wf);
+				new RecursiveTypeAnalysis(CompileTask.this).apply(wf);
+				// new CoercionCheck(this);
+				return wf;
+			}
+		});
 
 		logger.logTimedMessage("Generated code for " + count + " source file(s).", System.currentTimeMillis() - tmpTime,
 				tmpMemory - runtime.freeMemory());
 
+		// ========================================================================
+		// Interface Summaries
+		// ========================================================================
+
+		for (int i = 0; i != count; ++i) {
+			Path.Entry<WhileyFile> source = sources.get(i);
+			Path.Entry<WhileyFile> target = roots.get(i).create(source.id(), WhileyFile.SummaryContentType);
+			WhileyFile summary = new SummaryGenerator().generate(binaryFiles.get(i), target);
+			target.write(summary);
+			generatedFiles.add(target);
+			graph.registerDerivation(source, target);
+			if (state != null) {
+				state.put(source, summary);
+			}
+		}
+		if (state != null) {
+			// NOTE: dependencies are recorded only once the summaries of all
+			// modules compiled together are known. Every name in a module has
+			// been resolved by this point and, hence, is held in the cache.
+			HashMap<Path.ID, Set<Path.ID>> dependencies = new HashMap<>();
+			for (int i = 0; i != count; ++i) {
+				Path.ID id = sources.get(i).id();
+				Set<Path.ID> ds = cache.getDependencies(id);
+				ArrayList<Path.ID> filters = new ArrayList<>();
+				for (WhileyFile.Decl.Import imp : binaryFiles.get(i).getImports()) {
+					for (Path.Entry<WhileyFile> module : resolver.expandImport(imp)) {
+						ds.add(module.id());
+					}
+					filters.add(WhileyFileResolver.getFilter(imp));
+				}
+				dependencies.put(id, ds);
+				state.setImports(id, filters);
+			}
+			state.setDependencies(dependencies);
+		}
+
 		// ========================================================================
 		// Done
 		// ========================================================================
 
 		long endTime = System.currentTimeMillis();
+		if (statistics != null) {
+			statistics.println("Resolution cache: " + cache);
+		}
 		logger.logTimedMessage("Whiley => Wyil: compiled " + delta.size() + " file(s)", endTime - startTime,
 				startMemory - runtime.freeMemory());
 
 		return generatedFiles;
 	}
+
+	// ========================================================================
+	// Helpers
+	// ========================================================================
+
+	/**
+	 * Represents a single stage of the pipeline which is applied independently
+	 * to each file being compiled.
+	 *
+	 * @param <T>
+	 *            The kind of item the stage is applied to.
+	 */
+	private interface Stage<T> {
+		public WhileyFile apply(T item) throws IOException;
+	}
+
+	/**
+	 * Apply a given stage to every item in a list, returning the results in the
+	 * same order. When more than one thread is configured, the items are
+	 * processed concurrently. In this case, every item is still processed and
+	 * the first error (in list order) is rethrown. Thus, errors are reported
+	 * exactly as they would be when processing sequentially.
+	 *
+	 * @param items
+	 *            The items to which the stage is applied.
+	 * @param stage
+	 *            The stage being applied.
+	 * @return
+	 * @throws IOException
+	 */
+	private <T> List<WhileyFile> apply(List<T> items, final Stage<T> stage) throws IOException {
+		ArrayList<WhileyFile> results = new ArrayList<>();
+		if (threads == 1 || items.size() <= 1) {
+			for (T item : items) {
+				results.add(stage.apply(item));
+			}
+			return results;
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			ArrayList<ForkJoinTask<WhileyFile>> tasks = new ArrayList<>();
+			for (final T item : items) {
+				tasks.add(pool.submit(new Callable<WhileyFile>() {
+					@Override
+					public WhileyFile call() throws IOException {
+						return stage.apply(item);
+					}
+				}));
+			}
+			for (ForkJoinTask<WhileyFile> task : tasks) {
+				results.add(join(task));
+			}
+			return results;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Wait for a given task to complete and return its result. If the task
+	 * failed, then the original exception is rethrown.
+	 *
+	 * @param task
+	 * @return
+	 * @throws IOException
+	 */
+	private static WhileyFile join(ForkJoinTask<WhileyFile> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else {
+				throw new RuntimeException(cause);
+			}
+		}
+	}
 }
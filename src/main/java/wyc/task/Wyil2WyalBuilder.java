@@ -47,8 +47,19 @@ public class Wyil2WyalBuilder implements Build.Task {
 	 */
 	protected Logger logger = Logger.NULL;
 
+	/**
+	 * Caches the results of name resolution. This is typically shared with the
+	 * task which compiled the WyIL files being translated.
+	 */
+	protected final WhileyFileResolver.Cache cache;
+
 	public Wyil2WyalBuilder(Build.Project project) {
+		this(project, new WhileyFileResolver.Cache());
+	}
+
+	public Wyil2WyalBuilder(Build.Project project, WhileyFileResolver.Cache cache) {
 		this.project = project;
+		this.cache = cache;
 	}
 
 	@Override
@@ -76,7 +87,7 @@ public class Wyil2WyalBuilder implements Build.Task {
 		// ========================================================================
 		// Translate files
 		// ========================================================================
-		NameResolver resolver = new WhileyFileResolver(project);
+		NameResolver resolver = new WhileyFileResolver(project, cache);
 		HashSet<Path.Entry<?>> generatedFiles = new HashSet<>();
 		for (Pair<Path.Entry<?>, Path.Root> p : delta) {
 			Path.Entry<WhileyFile> source = (Path.Entry<WhileyFile>) p.first();
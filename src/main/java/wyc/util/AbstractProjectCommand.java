@@ -80,6 +80,13 @@ public abstract class AbstractProjectCommand<T> implements Command<T> {
 	 */
 	protected Logger logger;
 
+	/**
+	 * The name resolution cache shared between everything this command builds
+	 * or executes. This may be replaced (e.g. to share it with another command
+	 * operating on the same project).
+	 */
+	protected WhileyFileResolver.Cache cache = new WhileyFileResolver.Cache();
+
 	/**
 	 * Construct a new instance of this command.
 	 *
@@ -93,6 +100,14 @@ public abstract class AbstractProjectCommand<T> implements Command<T> {
 		this.logger = logger;
 	}
 
+	public WhileyFileResolver.Cache getCache() {
+		return cache;
+	}
+
+	public void setCache(WhileyFileResolver.Cache cache) {
+		this.cache = cache;
+	}
+
 	// =======================================================================
 	// Configuration Options
 	// =======================================================================
@@ -141,9 +141,78 @@ public class TestUtils {
 	 * @throws IOException
 	 */
 	public static void execWyil(File wyilDir, Path.ID id) throws IOException {
+		execWyil(wyilDir, id, true);
+	}
+
+	/**
+	 * Execute a given WyIL file using either the compiling interpreter, or the
+	 * reference (tree-walking) interpreter.
+	 *
+	 * @param wyilDir
+	 *            The root directory to look for the WyIL file.
+	 * @param id
+	 *            The name of the WyIL file
+	 * @param compiled
+	 *            Whether or not to compile function and method bodies
+	 * @throws IOException
+	 */
+	public static void execWyil(File wyilDir, Path.ID id, boolean compiled) throws IOException {
+		execWyil(wyilDir, id, compiled, 0, 0);
+	}
+
+	/**
+	 * Execute a given WyIL file using either the compiling interpreter, or the
+	 * reference (tree-walking) interpreter.
+	 *
+	 * @param wyilDir
+	 *            The root directory to look for the WyIL file.
+	 * @param id
+	 *            The name of the WyIL file
+	 * @param compiled
+	 *            Whether or not to compile function and method bodies
+	 * @param threshold
+	 *            The number of executions before a function or method body is
+	 *            compiled into JVM bytecode, or zero if never.
+	 * @param parallelThreshold
+	 *            The smallest range of a quantifier which is evaluated in
+	 *            parallel, or zero if never.
+	 * @throws IOException
+	 */
+	public static void execWyil(File wyilDir, Path.ID id, boolean compiled, int threshold, int parallelThreshold)
+			throws IOException {
+		execWyil(wyilDir, id, compiled, threshold, parallelThreshold, 0);
+	}
+
+	/**
+	 * Execute a given WyIL file using either the compiling interpreter, or the
+	 * reference (tree-walking) interpreter.
+	 *
+	 * @param wyilDir
+	 *            The root directory to look for the WyIL file.
+	 * @param id
+	 *            The name of the WyIL file
+	 * @param compiled
+	 *            Whether or not to compile function and method bodies
+	 * @param threshold
+	 *            The number of executions before a function or method body is
+	 *            compiled into JVM bytecode, or zero if never.
+	 * @param parallelThreshold
+	 *            The smallest range of a quantifier which is evaluated in
+	 *            parallel, or zero if never.
+	 * @param memoCapacity
+	 *            The maximum number of calls recorded for each function, or
+	 *            zero if functions are not memoized.
+	 * @throws IOException
+	 */
+	public static void execWyil(File wyilDir, Path.ID id, boolean compiled, int threshold, int parallelThreshold,
+			int memoCapacity) throws IOException {
 		Content.Registry registry = new wyc.Activator.Registry();
 		Run cmd = new Run(registry,Logger.NULL);
 		cmd.setWyildir(wyilDir);
+		cmd.setCompiled(compiled);
+		cmd.setCompileThreshold(threshold);
+		cmd.setParallelThreshold(parallelThreshold);
+		cmd.setMemoCapacity(memoCapacity);
 		cmd.execute(id.toString(),"test");
 	}
 
@@ -15,8 +15,12 @@ package wyc.util;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import wyc.lang.WhileyFile;
 import static wyc.lang.WhileyFile.*;
@@ -31,6 +35,8 @@ import wybs.lang.SyntacticItem;
 import wyfs.lang.Content;
 import wyfs.lang.Path;
 import wyfs.util.Trie;
+import wyil.io.WyilFileReader;
+import wycc.util.Pair;
 
 /**
  * Responsible for resolving a name which occurs at some position in a WhileyFile.
@@ -58,12 +64,46 @@ import wyfs.util.Trie;
 public final class WhileyFileResolver implements NameResolver {
 	private final Build.Project project;
 
+	/**
+	 * Caches the results of resolution for reuse, possibly by other resolvers.
+	 */
+	private final Cache cache;
+
 	public WhileyFileResolver(Build.Project project) {
+		this(project, new Cache());
+	}
+
+	public WhileyFileResolver(Build.Project project, Cache cache) {
 		this.project = project;
+		this.cache = cache;
+	}
+
+	/**
+	 * Get the cache used by this resolver.
+	 *
+	 * @return
+	 */
+	public Cache getCache() {
+		return cache;
 	}
 
 	@Override
 	public NameID resolve(CompilationUnit.Name name) throws ResolutionError {
+		WhileyFile enclosing = getWhileyFile(name.getHeap());
+		if (enclosing.getEntry() == null) {
+			// Cannot cache names for anonymous modules
+			return resolveUncached(name);
+		}
+		Pair<Path.ID, String> key = new Pair<>(enclosing.getEntry().id(), toString(name));
+		NameID nid = cache.getName(key);
+		if (nid == null) {
+			nid = resolveUncached(name);
+			cache.putName(key, nid);
+		}
+		return nid;
+	}
+
+	private NameID resolveUncached(CompilationUnit.Name name) throws ResolutionError {
 		//
 		if (name.size() == 1) {
 			CompilationUnit.Identifier ident = name.get(0);
@@ -98,13 +138,9 @@ public final class WhileyFileResolver implements NameResolver {
 			WhileyFile enclosing = loadModule(nid,name);
 			ArrayList<T> result = new ArrayList<>();
 			// Look through the enclosing file first!
-			for (int i = 0; i != enclosing.size(); ++i) {
-				SyntacticItem item = enclosing.getSyntacticItem(i);
-				if (item instanceof WhileyFile.Decl.Named) {
-					WhileyFile.Decl.Named nd = (WhileyFile.Decl.Named) item;
-					if (nd.getName().get().equals(nid.name()) && kind.isInstance(nd)) {
-						result.add((T) nd);
-					}
+			for (WhileyFile.Decl.Named nd : enclosing.getNamedDeclarations(nid.name())) {
+				if (kind.isInstance(nd)) {
+					result.add((T) nd);
 				}
 			}
 			//
@@ -131,9 +167,9 @@ public final class WhileyFileResolver implements NameResolver {
 			return enclosing;
 		} else {
 			// This is a non-local lookup.
-			Path.Entry<WhileyFile> entry = project.get(nid.module(), WhileyFile.BinaryContentType);
-			if (entry != null) {
-				return entry.read();
+			WhileyFile module = readModule(nid.module());
+			if (module != null) {
+				return module;
 			} else {
 				throw new NameResolver.NameNotFoundError(name);
 			}
@@ -141,34 +177,17 @@ public final class WhileyFileResolver implements NameResolver {
 	}
 
 	/**
-	 * Look up the given named item in the given heap. The precondition is that
+	 * Look up the given named item in the given file. The precondition is that
 	 * this name has exactly one component.
 	 *
 	 * @param name
-	 * @param heap
+	 * @param file
 	 * @param kind
 	 * @return
 	 * @throws NameNotFoundError
 	 */
-	private <T extends Decl.Named> boolean localNameLookup(String name, SyntacticHeap heap) {
-		int count = 0;
-		// Look through the enclosing file first!
-		for (int i = 0; i != heap.size(); ++i) {
-			SyntacticItem item = heap.getSyntacticItem(i);
-			if (item instanceof WhileyFile.Decl.Named) {
-				WhileyFile.Decl.Named nd = (WhileyFile.Decl.Named) item;
-				if (nd.getName().get().equals(name)) {
-					count = count + 1;
-				}
-			}
-		}
-		//
-		if (count == 0) {
-			return false;
-		} else {
-			//
-			return true;
-		}
+	private <T extends Decl.Named> boolean localNameLookup(String name, WhileyFile file) {
+		return !file.getNamedDeclarations(name).isEmpty();
 	}
 
 	/**
@@ -180,21 +199,24 @@ public final class WhileyFileResolver implements NameResolver {
 	private NameID nonLocalNameLookup(CompilationUnit.Name name) throws NameResolver.ResolutionError {
 		try {
 			WhileyFile enclosing = (WhileyFile) getWhileyFile(name.getHeap());
-			List<WhileyFile.Decl.Import> imports = getImportsInReverseOrder(enclosing);
-			// Check name against import statements
-			for (WhileyFile.Decl.Import imp : imports) {
-				NameID nid = matchImport(imp, name);
+			List<WhileyFile.Decl.Import> imports = enclosing.getImports();
+			// Check name against import statements, in reverse order since
+			// later imports take precedence over earlier ones
+			for (int i = imports.size() - 1; i >= 0; --i) {
+				NameID nid = matchImport(imports.get(i), name);
 				if (nid != null) {
 					return nid;
 				}
 			}
 			// Check whether name is fully qualified or not
 			NameID nid = name.toNameID();
-			if (name.size() > 1 && project.exists(nid.module(), WhileyFile.BinaryContentType)) {
-				// Yes, this is a fully qualified name so load the module
-				WhileyFile module = project.get(nid.module(), WhileyFile.BinaryContentType).read();
-				// Look inside to see whether a matching item is found
-				if (localNameLookup(nid.name(), module)) {
+			Path.Entry<WhileyFile> module = (name.size() > 1)
+					? project.get(nid.module(), WhileyFile.BinaryContentType)
+					: null;
+			if (module != null) {
+				// Yes, this is a fully qualified name so look inside to see
+				// whether a matching item is found
+				if (declares(module, nid.name())) {
 					return nid;
 				}
 			} else if(name.size() > 1){
@@ -216,25 +238,6 @@ public final class WhileyFileResolver implements NameResolver {
 		throw new NameResolver.NameNotFoundError(name);
 	}
 
-	/**
-	 * Extract the list of imports from the given WhileyFile. These are returned
-	 * in reverse order, since that is the order in which they will be examined
-	 * for the given named item.
-	 *
-	 * @param heap
-	 * @return
-	 */
-	private List<WhileyFile.Decl.Import> getImportsInReverseOrder(SyntacticHeap heap) {
-		ArrayList<WhileyFile.Decl.Import> imports = new ArrayList<>();
-		for (int i = heap.size() - 1; i >= 0; --i) {
-			SyntacticElement element = heap.getSyntacticItem(i);
-			if (element instanceof WhileyFile.Decl.Import) {
-				imports.add((WhileyFile.Decl.Import) element);
-			}
-		}
-		return imports;
-	}
-
 	/**
 	 * Match a given import against a given partially or fully quantified name.
 	 * For example, we might match <code>import wyal.lang.*</code> against the
@@ -267,7 +270,7 @@ public final class WhileyFileResolver implements NameResolver {
 				if (matchPartialModulePath(nid.module(), module.id())) {
 					// Yes, it does match. Therefore, do we now have a valid name
 					// identifier?
-					if (localNameLookup(nid.name(), module.read())) {
+					if (declares(module, nid.name())) {
 						// Ok, we have found a matching item. Therefore, we are
 						// done.
 						return new NameID(module.id(), nid.name());
@@ -319,7 +322,24 @@ public final class WhileyFileResolver implements NameResolver {
 	 * @return
 	 * @throws IOException
 	 */
-	private List<Path.Entry<WhileyFile>> expandImport(WhileyFile.Decl.Import imp) throws IOException {
+	public List<Path.Entry<WhileyFile>> expandImport(WhileyFile.Decl.Import imp) throws IOException {
+		Trie filter = getFilter(imp);
+		List<Path.Entry<WhileyFile>> modules = cache.getImport(filter);
+		if (modules == null) {
+			modules = project.get(Content.filter(filter, WhileyFile.BinaryContentType));
+			cache.putImport(filter, modules);
+		}
+		return modules;
+	}
+
+	/**
+	 * Get the filter over module identifiers given by an import. For example,
+	 * <code>wyal::lang::*</code> gives the filter <code>wyal/lang/*</code>.
+	 *
+	 * @param imp
+	 * @return
+	 */
+	public static Trie getFilter(WhileyFile.Decl.Import imp) {
 		Trie filter = Trie.ROOT;
 		Tuple<Identifier> path = imp.getPath();
 		for (int i = 0; i != path.size(); ++i) {
@@ -330,7 +350,101 @@ public final class WhileyFileResolver implements NameResolver {
 				filter = filter.append(component.get());
 			}
 		}
-		return project.get(Content.filter(filter, WhileyFile.BinaryContentType));
+		return filter;
+	}
+
+	/**
+	 * Determine whether the binary module for a given entry declares a given
+	 * name. Where possible, this reads only the table of declared names from
+	 * the header of the module, rather than reading it in full.
+	 *
+	 * @param entry
+	 * @param name
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean declares(Path.Entry<WhileyFile> entry, String name) throws IOException {
+		entry = getInterface(entry);
+		Set<String> names = cache.getDeclaredNames(entry.id());
+		if (names == null) {
+			if (entry.isModified() || cache.getModule(entry.id()) != null) {
+				// NOTE: the module held in memory may differ from that on disk
+				// and, in any case, has already been read.
+				return localNameLookup(name, readModule(entry));
+			}
+			names = new WyilFileReader(entry).readDeclaredNames();
+			if (names == null) {
+				// Module predates the table of declared names
+				return localNameLookup(name, readModule(entry));
+			}
+			cache.putDeclaredNames(entry.id(), names);
+		}
+		return names.contains(name);
+	}
+
+	/**
+	 * Read the interface of the module with a given identifier, or return null
+	 * if no such module exists.
+	 *
+	 * @param id
+	 * @return
+	 * @throws IOException
+	 */
+	private WhileyFile readModule(Path.ID id) throws IOException {
+		WhileyFile module = cache.getModule(id);
+		if (module == null) {
+			Path.Entry<WhileyFile> entry = project.get(id, WhileyFile.BinaryContentType);
+			if (entry != null) {
+				module = getInterface(entry).read();
+				cache.putModule(id, module);
+			}
+		}
+		return module;
+	}
+
+	/**
+	 * Read the interface of the module for a given entry.
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	private WhileyFile readModule(Path.Entry<WhileyFile> entry) throws IOException {
+		WhileyFile module = cache.getModule(entry.id());
+		if (module == null) {
+			module = getInterface(entry).read();
+			cache.putModule(entry.id(), module);
+		}
+		return module;
+	}
+
+	/**
+	 * Get the entry from which the interface of a given binary module is read.
+	 * This is its summary, which omits all function and method bodies, where
+	 * one exists and is up to date. Otherwise, it is the binary module itself.
+	 *
+	 * @param binary
+	 * @return
+	 * @throws IOException
+	 */
+	private Path.Entry<WhileyFile> getInterface(Path.Entry<WhileyFile> binary) throws IOException {
+		if (binary.contentType() == WhileyFile.BinaryContentType && !binary.isModified()) {
+			// NOTE: a binary module modified in memory (i.e. during the current
+			// build) has no up to date summary until the build completes.
+			Path.Entry<WhileyFile> summary = project.get(binary.id(), WhileyFile.SummaryContentType);
+			if (summary != null && summary.lastModified() >= binary.lastModified()) {
+				return summary;
+			}
+		}
+		return binary;
+	}
+
+	private static String toString(CompilationUnit.Name name) {
+		String r = name.get(0).get();
+		for (int i = 1; i < name.size(); ++i) {
+			r += "::" + name.get(i).get();
+		}
+		return r;
 	}
 
 	public WhileyFile getWhileyFile(SyntacticHeap heap) {
@@ -340,4 +454,128 @@ public final class WhileyFileResolver implements NameResolver {
 			return getWhileyFile(heap.getParent());
 		}
 	}
+
+	/**
+	 * <p>
+	 * Caches the results of name resolution. This maps each name occurring in a
+	 * given module to its fully qualified name, each import filter to the list
+	 * of modules it matches, and each module identifier to its loaded binary
+	 * module (or, if not loaded, just the names it declares). A cache can be shared between resolvers (e.g. those used for
+	 * compiling, verifying and interpreting) and between threads.
+	 * </p>
+	 * <p>
+	 * The cache must be cleared whenever the set of binary modules changes. For
+	 * example, at the start of each (incremental) build.
+	 * </p>
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Cache {
+		private final ConcurrentHashMap<Pair<Path.ID, String>, NameID> names = new ConcurrentHashMap<>();
+		private final ConcurrentHashMap<Trie, List<Path.Entry<WhileyFile>>> imports = new ConcurrentHashMap<>();
+		private final ConcurrentHashMap<Path.ID, WhileyFile> modules = new ConcurrentHashMap<>();
+		private final ConcurrentHashMap<Path.ID, Set<String>> declaredNames = new ConcurrentHashMap<>();
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+
+		public NameID getName(Pair<Path.ID, String> key) {
+			return record(names.get(key));
+		}
+
+		public void putName(Pair<Path.ID, String> key, NameID nid) {
+			names.put(key, nid);
+		}
+
+		/**
+		 * Get the modules (other than itself) to which names occurring in a
+		 * given module have been resolved.
+		 *
+		 * @param id
+		 * @return
+		 */
+		public Set<Path.ID> getDependencies(Path.ID id) {
+			HashSet<Path.ID> dependencies = new HashSet<>();
+			for (Map.Entry<Pair<Path.ID, String>, NameID> e : names.entrySet()) {
+				Path.ID module = e.getValue().module();
+				if (e.getKey().first().equals(id) && !module.equals(id)) {
+					dependencies.add(module);
+				}
+			}
+			return dependencies;
+		}
+
+		public List<Path.Entry<WhileyFile>> getImport(Trie filter) {
+			return record(imports.get(filter));
+		}
+
+		public void putImport(Trie filter, List<Path.Entry<WhileyFile>> matches) {
+			imports.put(filter, matches);
+		}
+
+		public WhileyFile getModule(Path.ID id) {
+			return record(modules.get(id));
+		}
+
+		public void putModule(Path.ID id, WhileyFile module) {
+			modules.put(id, module);
+		}
+
+		/**
+		 * Get the names declared by the module with a given identifier, as read
+		 * from the header of its binary file.
+		 *
+		 * @param id
+		 * @return
+		 */
+		public Set<String> getDeclaredNames(Path.ID id) {
+			return record(declaredNames.get(id));
+		}
+
+		public void putDeclaredNames(Path.ID id, Set<String> names) {
+			declaredNames.put(id, names);
+		}
+
+		/**
+		 * Get the number of lookups which were answered by this cache.
+		 *
+		 * @return
+		 */
+		public long getHits() {
+			return hits.get();
+		}
+
+		/**
+		 * Get the number of lookups which were not answered by this cache.
+		 *
+		 * @return
+		 */
+		public long getMisses() {
+			return misses.get();
+		}
+
+		/**
+		 * Discard all cached results. The hit and miss counters are not reset.
+		 */
+		public void clear() {
+			names.clear();
+			imports.clear();
+			modules.clear();
+			declaredNames.clear();
+		}
+
+		private <T> T record(T result) {
+			if (result == null) {
+				misses.incrementAndGet();
+			} else {
+				hits.incrementAndGet();
+			}
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return hits.get() + " hit(s), " + misses.get() + " miss(es)";
+		}
+	}
 }
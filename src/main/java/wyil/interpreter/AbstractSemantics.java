@@ -65,6 +65,13 @@ public interface AbstractSemantics {
 	 */
 	public RValue.Int Int(BigInteger value);
 
+	/**
+	 * Create a new <code>int</code> value from a (small) integer.
+	 *
+	 * @return
+	 */
+	public RValue.Int Int(long value);
+
 	/**
 	 * Create a new cell value.
 	 *
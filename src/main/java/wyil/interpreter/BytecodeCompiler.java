@@ -0,0 +1,912 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.interpreter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import wybs.lang.NameResolver.ResolutionError;
+import wybs.util.AbstractCompilationUnit.Identifier;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wyc.lang.WhileyFile;
+import wyc.lang.WhileyFile.Decl;
+import wyc.lang.WhileyFile.Expr;
+import wyc.lang.WhileyFile.LVal;
+import wyc.lang.WhileyFile.Stmt;
+import wyil.interpreter.BytecodeWriter.Label;
+import wyil.interpreter.ConcreteSemantics.RValue;
+import wyil.interpreter.Interpreter.CallStack;
+
+/**
+ * <p>
+ * Compiles the body of a function or method into a JVM class with a single
+ * static method, which is then loaded into its own class loader and invoked
+ * via a method handle. Local variables are held in JVM locals (being read from
+ * the frame on entry, and the return values written back on exit), control
+ * flow is compiled into branches, and operations on values are compiled into
+ * direct calls on the concrete semantics. Thus, the JVM is free to inline and
+ * optimise the body as it would any other method.
+ * </p>
+ * <p>
+ * Only a subset of statements and expressions are supported. In particular,
+ * those which are either uncommon in hot code or are complex to implement
+ * (e.g. quantifiers, lambdas, references or switch statements) are not. Any
+ * function or method containing such a construct is not compiled and, instead,
+ * remains executed by its <code>ExecutionTree</code>. Likewise, anything which
+ * goes wrong whilst generating or loading the class (e.g. the method being too
+ * large) simply means the body is not compiled.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class BytecodeCompiler {
+	private static final String GENERATED_PREFIX = "wyil/interpreter/generated/Callable$";
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	private static final String RVALUE = "wyil/interpreter/ConcreteSemantics$RValue";
+	private static final String INT = RVALUE + "$Int";
+	private static final String BOOL = RVALUE + "$Bool";
+	private static final String ARRAY = RVALUE + "$Array";
+	private static final String LINK = "wyil/interpreter/BytecodeCompiler$Link";
+	private static final String CALLSTACK = "wyil/interpreter/Interpreter$CallStack";
+
+	private static final String RVALUE_D = "L" + RVALUE + ";";
+	private static final String RVALUES_D = "[" + RVALUE_D;
+	private static final String INT_D = "L" + INT + ";";
+	private static final String BOOL_D = "L" + BOOL + ";";
+	private static final String ABSTRACT_INT_D = "Lwyil/interpreter/AbstractSemantics$RValue$Int;";
+
+	private static final String RUN = "run";
+	private static final String RUN_D = "(L" + LINK + ";L" + CALLSTACK + ";" + RVALUES_D + ")V";
+
+	// Fixed JVM locals of the generated method
+	private static final int LINK_LOCAL = 0;
+	private static final int FRAME_LOCAL = 1;
+	private static final int LOCALS_LOCAL = 2;
+	private static final int CONSTANTS_LOCAL = 3;
+	private static final int FIRST_SLOT_LOCAL = 4;
+
+	/**
+	 * Attempt to compile a given function or method. This returns
+	 * <code>null</code> if the function or method could not be compiled, in
+	 * which case it should continue to be executed as before.
+	 *
+	 * @param interpreter
+	 * @param decl
+	 * @return
+	 */
+	public static Compiled compile(Interpreter interpreter, Decl.FunctionOrMethod decl) {
+		try {
+			return new Generator(interpreter, decl).generate();
+		} catch (Unsupported | IllegalStateException | LinkageError | ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A function or method body which has been compiled into a JVM method.
+	 */
+	public static final class Compiled {
+		private final MethodHandle handle;
+		private final Link link;
+
+		private Compiled(MethodHandle handle, Link link) {
+			this.handle = handle;
+			this.link = link;
+		}
+
+		/**
+		 * Execute the body in a given frame. Upon returning, the return values
+		 * are held in the frame.
+		 *
+		 * @param frame
+		 */
+		public void execute(CallStack frame) {
+			try {
+				handle.invokeExact(link, frame, frame.getLocals());
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				// Cannot happen, since the generated method throws no checked
+				// exceptions
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Links a generated method back to the interpreter. This holds everything
+	 * which cannot be embedded directly in the generated class (e.g. constant
+	 * values and call sites), and provides helpers for operations which are
+	 * awkward to generate inline. Every method invoked from generated code
+	 * must be public, since generated classes are loaded separately.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Link {
+		private final Interpreter interpreter;
+		/**
+		 * The constant values used by the generated method, indexed by their
+		 * position in the constant table.
+		 */
+		public final RValue[] constants;
+		private final Expr.Invoke[] sites;
+		/**
+		 * The function or method invoked at each call site, which is resolved
+		 * on first invocation. Since resolution always gives the same result,
+		 * racing updates are harmless.
+		 */
+		private final Decl.Callable[] targets;
+		private final FieldSite[] fields;
+		private final Expr.Is[] types;
+		private final TypeTest[] tests;
+		private final Expr[] assertions;
+
+		private Link(Interpreter interpreter, RValue[] constants, Expr.Invoke[] sites, FieldSite[] fields,
+				Expr.Is[] types, Expr[] assertions) {
+			this.interpreter = interpreter;
+			this.constants = constants;
+			this.sites = sites;
+			this.targets = new Decl.Callable[sites.length];
+			this.fields = fields;
+			this.types = types;
+			this.assertions = assertions;
+			this.tests = new TypeTest[types.length];
+			for (int i = 0; i != types.length; ++i) {
+				tests[i] = interpreter.getTypeTest(types[i].getTestType());
+			}
+		}
+
+		public RValue[] invoke(CallStack frame, int site, RValue[] arguments) {
+			Decl.Callable decl = targets[site];
+			if (decl == null) {
+				Expr.Invoke expr = sites[site];
+				try {
+					decl = interpreter.resolveCallSite(expr);
+				} catch (ResolutionError e) {
+					Interpreter.error(e.getMessage(), expr);
+					return null;
+				}
+				targets[site] = decl;
+			}
+			return interpreter.execute(decl, frame, arguments);
+		}
+
+		public RValue is(RValue value, int site) {
+			try {
+				return tests[site].test(value) ? RValue.True : RValue.False;
+			} catch (ResolutionError e) {
+				Interpreter.error(e.getMessage(), types[site]);
+				return null;
+			}
+		}
+
+		public RValue readField(RValue record, int site) {
+			RValue.Record rec = (RValue.Record) record;
+			return rec.read(fields[site].getSlot(rec.getShape()));
+		}
+
+		public RValue assignField(RValue record, int site, RValue value) {
+			RValue.Record rec = (RValue.Record) record;
+			if (rec.isUnique()) {
+				// Nothing else refers to this record, so no copy is needed
+				rec.update(fields[site].field, value);
+				return rec;
+			} else {
+				return rec.write(fields[site].field, value);
+			}
+		}
+
+		public static RValue assignElement(RValue array, RValue index, RValue value) {
+			RValue.Array arr = (RValue.Array) array;
+			if (arr.isUnique()) {
+				// Nothing else refers to this array, so no copy is needed
+				arr.update((RValue.Int) index, value);
+				return arr;
+			} else {
+				return arr.write((RValue.Int) index, value);
+			}
+		}
+
+		public static RValue copy(RValue value) {
+			return value == null ? null : value.share();
+		}
+
+		public static RValue equal(RValue lhs, RValue rhs) {
+			return lhs.equals(rhs) ? RValue.True : RValue.False;
+		}
+
+		public static RValue notEqual(RValue lhs, RValue rhs) {
+			return lhs.equals(rhs) ? RValue.False : RValue.True;
+		}
+
+		public AssertionError assertionFailure(int site) {
+			return Interpreter.assertionFailure(assertions[site]);
+		}
+
+		public static AssertionError runtimeFault() {
+			return new AssertionError("Runtime fault occurred");
+		}
+	}
+
+	/**
+	 * A record access site, which caches the slot of its field for the shape
+	 * of record last accessed there.
+	 */
+	private static final class FieldSite {
+		private final Identifier field;
+		private volatile Slot cache;
+
+		public FieldSite(Identifier field) {
+			this.field = field;
+		}
+
+		public int getSlot(RValue.Record.Shape shape) {
+			Slot slot = cache;
+			if (slot == null || slot.shape != shape) {
+				int index = shape.indexOf(field.get());
+				if (index < 0) {
+					throw new RuntimeException("Invalid record access");
+				}
+				slot = new Slot(shape, index);
+				cache = slot;
+			}
+			return slot.index;
+		}
+
+		private static final class Slot {
+			private final RValue.Record.Shape shape;
+			private final int index;
+
+			public Slot(RValue.Record.Shape shape, int index) {
+				this.shape = shape;
+				this.index = index;
+			}
+		}
+	}
+
+	/**
+	 * Signals a construct for which code cannot be generated.
+	 */
+	private static final class Unsupported extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * Each generated class is defined in its own loader, such that it can be
+	 * unloaded once no longer referenced.
+	 */
+	private static final class Loader extends ClassLoader {
+		public Loader() {
+			super(BytecodeCompiler.class.getClassLoader());
+		}
+
+		public Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	// =============================================================
+	// Code Generation
+	// =============================================================
+
+	private static final class Generator {
+		private final Interpreter interpreter;
+		private final Decl.FunctionOrMethod context;
+		private final BytecodeWriter writer;
+		private final int frameSize;
+		private final ArrayList<RValue> constants = new ArrayList<>();
+		private final ArrayList<Expr.Invoke> sites = new ArrayList<>();
+		private final ArrayList<FieldSite> fields = new ArrayList<>();
+		private final ArrayList<Expr.Is> types = new ArrayList<>();
+		private final ArrayList<Expr> assertions = new ArrayList<>();
+		private final ArrayDeque<Label> breaks = new ArrayDeque<>();
+		private final ArrayDeque<Label> continues = new ArrayDeque<>();
+		private final Label exit = new Label();
+		private final int[] returns;
+		private int temporary = -1;
+
+		public Generator(Interpreter interpreter, Decl.FunctionOrMethod context) {
+			this.interpreter = interpreter;
+			this.context = context;
+			this.frameSize = interpreter.getFrameSize(context);
+			this.writer = new BytecodeWriter(FIRST_SLOT_LOCAL + frameSize);
+			Tuple<Decl.Variable> rs = context.getReturns();
+			this.returns = new int[rs.size()];
+			for (int i = 0; i != returns.length; ++i) {
+				returns[i] = getSlot(rs.get(i));
+			}
+		}
+
+		public Compiled generate() throws ReflectiveOperationException {
+			// Load every slot from the frame
+			writer.aload(LINK_LOCAL);
+			writer.getfield(LINK, "constants", RVALUES_D);
+			writer.astore(CONSTANTS_LOCAL);
+			for (int i = 0; i != frameSize; ++i) {
+				writer.aload(LOCALS_LOCAL);
+				writer.iconst(i);
+				writer.aaload();
+				writer.astore(FIRST_SLOT_LOCAL + i);
+			}
+			generateBlock(context.getBody());
+			if (writer.getDepth() >= 0) {
+				writer.goTo(exit);
+			}
+			// Write the return values back to the frame
+			writer.mark(exit);
+			if (writer.getDepth() >= 0) {
+				for (int i = 0; i != returns.length; ++i) {
+					writer.aload(LOCALS_LOCAL);
+					writer.iconst(returns[i]);
+					writer.aload(FIRST_SLOT_LOCAL + returns[i]);
+					writer.aastore();
+				}
+				writer.vreturn();
+			}
+			String name = GENERATED_PREFIX + counter.incrementAndGet();
+			byte[] bytes = writer.toByteArray(name, RUN, RUN_D);
+			// Force the class to be verified and initialised now, so that any
+			// problem is reported here rather than on first invocation.
+			Loader loader = new Loader();
+			String binaryName = name.replace('/', '.');
+			loader.define(binaryName, bytes);
+			Class<?> cls = Class.forName(binaryName, true, loader);
+			MethodType type = MethodType.methodType(void.class, Link.class, CallStack.class, RValue[].class);
+			MethodHandle handle = MethodHandles.publicLookup().findStatic(cls, RUN, type);
+			Link link = new Link(interpreter, constants.toArray(new RValue[constants.size()]),
+					sites.toArray(new Expr.Invoke[sites.size()]), fields.toArray(new FieldSite[fields.size()]),
+					types.toArray(new Expr.Is[types.size()]), assertions.toArray(new Expr[assertions.size()]));
+			return new Compiled(handle, link);
+		}
+
+		// =============================================================
+		// Statements
+		// =============================================================
+
+		private void generateBlock(Stmt.Block block) {
+			for (int i = 0; i != block.size(); ++i) {
+				if (writer.getDepth() < 0) {
+					// Remaining statements are unreachable
+					return;
+				}
+				generateStatement(block.get(i));
+			}
+		}
+
+		private void generateStatement(Stmt stmt) {
+			switch (stmt.getOpcode()) {
+			case WhileyFile.STMT_assert:
+				generateAssert(((Stmt.Assert) stmt).getCondition());
+				break;
+			case WhileyFile.STMT_assume:
+				generateAssert(((Stmt.Assume) stmt).getCondition());
+				break;
+			case WhileyFile.STMT_assign:
+				generateAssign((Stmt.Assign) stmt);
+				break;
+			case WhileyFile.STMT_block:
+				generateBlock((Stmt.Block) stmt);
+				break;
+			case WhileyFile.STMT_break:
+				generateJump(breaks);
+				break;
+			case WhileyFile.STMT_continue:
+				generateJump(continues);
+				break;
+			case WhileyFile.STMT_dowhile:
+				generateDoWhile((Stmt.DoWhile) stmt);
+				break;
+			case WhileyFile.STMT_fail:
+				writer.invokestatic(LINK, "runtimeFault", "()Ljava/lang/AssertionError;");
+				writer.athrow();
+				break;
+			case WhileyFile.STMT_if:
+			case WhileyFile.STMT_ifelse:
+				generateIfElse((Stmt.IfElse) stmt);
+				break;
+			case WhileyFile.EXPR_invoke:
+				// Discard any values produced
+				generateInvoke((Expr.Invoke) stmt);
+				writer.pop();
+				break;
+			case WhileyFile.STMT_namedblock:
+				generateBlock(((Stmt.NamedBlock) stmt).getBlock());
+				break;
+			case WhileyFile.STMT_while:
+				generateWhile((Stmt.While) stmt);
+				break;
+			case WhileyFile.STMT_return:
+				generateReturn((Stmt.Return) stmt);
+				break;
+			case WhileyFile.STMT_skip:
+				break;
+			case WhileyFile.DECL_variableinitialiser:
+			case WhileyFile.DECL_variable: {
+				Decl.Variable s = (Decl.Variable) stmt;
+				if (s.hasInitialiser()) {
+					generateExpression(s.getInitialiser());
+					writer.astore(getLocal(s));
+				}
+				break;
+			}
+			default:
+				throw new Unsupported();
+			}
+		}
+
+		private void generateAssert(Expr condition) {
+			Label ok = new Label();
+			generateBranch(condition, true, ok);
+			assertions.add(condition);
+			writer.aload(LINK_LOCAL);
+			writer.iconst(assertions.size() - 1);
+			writer.invokevirtual(LINK, "assertionFailure", "(I)Ljava/lang/AssertionError;");
+			writer.athrow();
+			writer.mark(ok);
+		}
+
+		private void generateAssign(Stmt.Assign stmt) {
+			Tuple<LVal> lhs = stmt.getLeftHandSide();
+			Tuple<Expr> rhs = stmt.getRightHandSide();
+			if (lhs.size() != rhs.size()) {
+				// Multiple values produced by a single invocation
+				throw new Unsupported();
+			} else if (lhs.size() == 1 && !(lhs.get(0) instanceof Expr.VariableAccess)) {
+				generateAssign(lhs.get(0), rhs.get(0));
+				return;
+			}
+			// NOTE: all right-hand sides are evaluated before any assignment
+			for (int i = 0; i != rhs.size(); ++i) {
+				generateExpression(rhs.get(i));
+			}
+			for (int i = lhs.size() - 1; i >= 0; --i) {
+				LVal lval = lhs.get(i);
+				if (!(lval instanceof Expr.VariableAccess)) {
+					throw new Unsupported();
+				}
+				writer.astore(getLocal(((Expr.VariableAccess) lval).getVariableDeclaration()));
+			}
+		}
+
+		/**
+		 * Assign an element of an array, or a field of a record, held in a
+		 * local variable.
+		 *
+		 * @param lval
+		 * @param rhs
+		 */
+		private void generateAssign(LVal lval, Expr rhs) {
+			int tmp = getTemporary();
+			switch (lval.getOpcode()) {
+			case WhileyFile.EXPR_arrayborrow:
+			case WhileyFile.EXPR_arrayaccess: {
+				Expr.ArrayAccess e = (Expr.ArrayAccess) lval;
+				int local = getLocal(e.getFirstOperand());
+				generateExpression(rhs);
+				writer.astore(tmp);
+				writer.aload(local);
+				generateExpression(e.getSecondOperand());
+				writer.aload(tmp);
+				writer.invokestatic(LINK, "assignElement", "(" + RVALUE_D + RVALUE_D + RVALUE_D + ")" + RVALUE_D);
+				writer.astore(local);
+				break;
+			}
+			case WhileyFile.EXPR_recordaccess:
+			case WhileyFile.EXPR_recordborrow: {
+				Expr.RecordAccess e = (Expr.RecordAccess) lval;
+				int local = getLocal(e.getOperand());
+				generateExpression(rhs);
+				writer.astore(tmp);
+				writer.aload(LINK_LOCAL);
+				writer.aload(local);
+				writer.iconst(addFieldSite(e.getField()));
+				writer.aload(tmp);
+				writer.invokevirtual(LINK, "assignField", "(" + RVALUE_D + "I" + RVALUE_D + ")" + RVALUE_D);
+				writer.astore(local);
+				break;
+			}
+			default:
+				throw new Unsupported();
+			}
+		}
+
+		private void generateJump(ArrayDeque<Label> targets) {
+			if (targets.isEmpty()) {
+				throw new Unsupported();
+			}
+			writer.goTo(targets.peek());
+		}
+
+		private void generateIfElse(Stmt.IfElse stmt) {
+			Label end = new Label();
+			if (stmt.hasFalseBranch()) {
+				Label falseBranch = new Label();
+				generateBranch(stmt.getCondition(), false, falseBranch);
+				generateBlock(stmt.getTrueBranch());
+				if (writer.getDepth() >= 0) {
+					writer.goTo(end);
+				}
+				writer.mark(falseBranch);
+				generateBlock(stmt.getFalseBranch());
+			} else {
+				generateBranch(stmt.getCondition(), false, end);
+				generateBlock(stmt.getTrueBranch());
+			}
+			writer.mark(end);
+		}
+
+		private void generateWhile(Stmt.While stmt) {
+			Label head = new Label();
+			Label end = new Label();
+			writer.mark(head);
+			generateBranch(stmt.getCondition(), false, end);
+			breaks.push(end);
+			continues.push(head);
+			generateBlock(stmt.getBody());
+			breaks.pop();
+			continues.pop();
+			if (writer.getDepth() >= 0) {
+				writer.goTo(head);
+			}
+			writer.mark(end);
+		}
+
+		private void generateDoWhile(Stmt.DoWhile stmt) {
+			Label head = new Label();
+			Label end = new Label();
+			writer.mark(head);
+			breaks.push(end);
+			// NOTE: as for the interpreter, a continue does not check the
+			// condition.
+			continues.push(head);
+			generateBlock(stmt.getBody());
+			breaks.pop();
+			continues.pop();
+			if (writer.getDepth() >= 0) {
+				generateBranch(stmt.getCondition(), true, head);
+			}
+			writer.mark(end);
+		}
+
+		private void generateReturn(Stmt.Return stmt) {
+			Tuple<Expr> values = stmt.getReturns();
+			if (values.size() != returns.length) {
+				// Multiple values produced by a single invocation
+				throw new Unsupported();
+			}
+			for (int i = 0; i != returns.length; ++i) {
+				generateExpression(values.get(i));
+			}
+			for (int i = returns.length - 1; i >= 0; --i) {
+				writer.astore(FIRST_SLOT_LOCAL + returns[i]);
+			}
+			writer.goTo(exit);
+		}
+
+		// =============================================================
+		// Conditions
+		// =============================================================
+
+		/**
+		 * Generate code which branches to a given target if a condition
+		 * evaluates to the given sense, and otherwise falls through.
+		 *
+		 * @param condition
+		 * @param sense
+		 * @param target
+		 */
+		private void generateBranch(Expr condition, boolean sense, Label target) {
+			switch (condition.getOpcode()) {
+			case WhileyFile.EXPR_logicalnot:
+				generateBranch(((Expr.LogicalNot) condition).getOperand(), !sense, target);
+				break;
+			case WhileyFile.EXPR_logicaland:
+				generateBranch(((Expr.LogicalAnd) condition).getOperands(), false, sense, target);
+				break;
+			case WhileyFile.EXPR_logicalor:
+				generateBranch(((Expr.LogicalOr) condition).getOperands(), true, sense, target);
+				break;
+			case WhileyFile.EXPR_logiaclimplication: {
+				Expr.LogicalImplication e = (Expr.LogicalImplication) condition;
+				if (sense) {
+					generateBranch(e.getFirstOperand(), false, target);
+					generateBranch(e.getSecondOperand(), true, target);
+				} else {
+					Label skip = new Label();
+					generateBranch(e.getFirstOperand(), false, skip);
+					generateBranch(e.getSecondOperand(), false, target);
+					writer.mark(skip);
+				}
+				break;
+			}
+			default:
+				generateExpression(condition);
+				writer.getstatic(RVALUE, "True", BOOL_D);
+				if (sense) {
+					writer.ifAcmpeq(target);
+				} else {
+					writer.ifAcmpne(target);
+				}
+			}
+		}
+
+		/**
+		 * Generate code for a short-circuiting conjunction or disjunction. The
+		 * dominant value is that which, when produced by any operand,
+		 * determines the outcome (i.e. false for a conjunction).
+		 *
+		 * @param operands
+		 * @param dominant
+		 * @param sense
+		 * @param target
+		 */
+		private void generateBranch(Tuple<Expr> operands, boolean dominant, boolean sense, Label target) {
+			int n = operands.size();
+			if (sense == dominant) {
+				for (int i = 0; i != n; ++i) {
+					generateBranch(operands.get(i), dominant, target);
+				}
+			} else if (n == 0) {
+				writer.goTo(target);
+			} else {
+				Label skip = new Label();
+				for (int i = 0; i != n - 1; ++i) {
+					generateBranch(operands.get(i), dominant, skip);
+				}
+				generateBranch(operands.get(n - 1), sense, target);
+				writer.mark(skip);
+			}
+		}
+
+		// =============================================================
+		// Expressions
+		// =============================================================
+
+		/**
+		 * Generate code which pushes the single value produced by a given
+		 * expression.
+		 *
+		 * @param expr
+		 */
+		private void generateExpression(Expr expr) {
+			switch (expr.getOpcode()) {
+			case WhileyFile.EXPR_constant: {
+				// NOTE: the same value is produced by every evaluation
+				RValue value = interpreter.executeConst((Expr.Constant) expr).share();
+				constants.add(value);
+				writer.aload(CONSTANTS_LOCAL);
+				writer.iconst(constants.size() - 1);
+				writer.aaload();
+				break;
+			}
+			case WhileyFile.EXPR_variablemove:
+				writer.aload(getLocal(expr));
+				break;
+			case WhileyFile.EXPR_variablecopy:
+				writer.aload(getLocal(expr));
+				writer.invokestatic(LINK, "copy", "(" + RVALUE_D + ")" + RVALUE_D);
+				break;
+			case WhileyFile.EXPR_invoke: {
+				Expr.Invoke e = (Expr.Invoke) expr;
+				if (e.getSignature().getReturns().size() != 1) {
+					throw new Unsupported();
+				}
+				generateInvoke(e);
+				writer.iconst(0);
+				writer.aaload();
+				break;
+			}
+			case WhileyFile.EXPR_logicalnot:
+			case WhileyFile.EXPR_logicaland:
+			case WhileyFile.EXPR_logicalor:
+			case WhileyFile.EXPR_logiaclimplication: {
+				Label falseBranch = new Label();
+				Label end = new Label();
+				generateBranch(expr, false, falseBranch);
+				writer.getstatic(RVALUE, "True", BOOL_D);
+				writer.goTo(end);
+				writer.mark(falseBranch);
+				writer.getstatic(RVALUE, "False", BOOL_D);
+				writer.mark(end);
+				break;
+			}
+			case WhileyFile.EXPR_is: {
+				Expr.Is e = (Expr.Is) expr;
+				types.add(e);
+				writer.aload(LINK_LOCAL);
+				generateExpression(e.getOperand());
+				writer.iconst(types.size() - 1);
+				writer.invokevirtual(LINK, "is", "(" + RVALUE_D + "I)" + RVALUE_D);
+				break;
+			}
+			case WhileyFile.EXPR_equal: {
+				Expr.Equal e = (Expr.Equal) expr;
+				generateExpression(e.getFirstOperand());
+				generateExpression(e.getSecondOperand());
+				writer.invokestatic(LINK, "equal", "(" + RVALUE_D + RVALUE_D + ")" + RVALUE_D);
+				break;
+			}
+			case WhileyFile.EXPR_notequal: {
+				Expr.NotEqual e = (Expr.NotEqual) expr;
+				generateExpression(e.getFirstOperand());
+				generateExpression(e.getSecondOperand());
+				writer.invokestatic(LINK, "notEqual", "(" + RVALUE_D + RVALUE_D + ")" + RVALUE_D);
+				break;
+			}
+			case WhileyFile.EXPR_integernegation:
+				generateExpression(((Expr.IntegerNegation) expr).getOperand());
+				writer.checkcast(INT);
+				writer.invokevirtual(INT, "negate", "()" + INT_D);
+				break;
+			case WhileyFile.EXPR_integeraddition:
+				generateIntegerOperator((Expr.BinaryOperator) expr, "add", INT_D, false);
+				break;
+			case WhileyFile.EXPR_integersubtraction:
+				generateIntegerOperator((Expr.BinaryOperator) expr, "subtract", INT_D, false);
+				break;
+			case WhileyFile.EXPR_integermultiplication:
+				generateIntegerOperator((Expr.BinaryOperator) expr, "multiply", INT_D, false);
+				break;
+			case WhileyFile.EXPR_integerdivision:
+				generateIntegerOperator((Expr.BinaryOperator) expr, "divide", INT_D, false);
+				break;
+			case WhileyFile.EXPR_integerremainder:
+				generateIntegerOperator((Expr.BinaryOperator) expr, "remainder", INT_D, false);
+				break;
+			case WhileyFile.EXPR_integerlessthan:
+				generateIntegerOperator((Expr.BinaryOperator) expr, "lessThan", BOOL_D, false);
+				break;
+			case WhileyFile.EXPR_integerlessequal:
+				generateIntegerOperator((Expr.BinaryOperator) expr, "lessThanOrEqual", BOOL_D, false);
+				break;
+			case WhileyFile.EXPR_integergreaterthan:
+				generateIntegerOperator((Expr.BinaryOperator) expr, "lessThan", BOOL_D, true);
+				break;
+			case WhileyFile.EXPR_integergreaterequal:
+				generateIntegerOperator((Expr.BinaryOperator) expr, "lessThanOrEqual", BOOL_D, true);
+				break;
+			case WhileyFile.EXPR_arrayborrow:
+			case WhileyFile.EXPR_arrayaccess: {
+				Expr.ArrayAccess e = (Expr.ArrayAccess) expr;
+				generateExpression(e.getFirstOperand());
+				writer.checkcast(ARRAY);
+				generateExpression(e.getSecondOperand());
+				writer.checkcast(INT);
+				writer.invokevirtual(ARRAY, "read", "(" + ABSTRACT_INT_D + ")" + RVALUE_D);
+				if (e.getOpcode() == WhileyFile.EXPR_arrayaccess) {
+					writer.invokevirtual(RVALUE, "share", "()" + RVALUE_D);
+				}
+				break;
+			}
+			case WhileyFile.EXPR_arraylength:
+				generateExpression(((Expr.ArrayLength) expr).getOperand());
+				writer.checkcast(ARRAY);
+				writer.invokevirtual(ARRAY, "length", "()" + INT_D);
+				break;
+			case WhileyFile.EXPR_recordaccess:
+			case WhileyFile.EXPR_recordborrow: {
+				Expr.RecordAccess e = (Expr.RecordAccess) expr;
+				writer.aload(LINK_LOCAL);
+				generateExpression(e.getOperand());
+				writer.iconst(addFieldSite(e.getField()));
+				writer.invokevirtual(LINK, "readField", "(" + RVALUE_D + "I)" + RVALUE_D);
+				if (e.getOpcode() == WhileyFile.EXPR_recordaccess) {
+					writer.invokevirtual(RVALUE, "share", "()" + RVALUE_D);
+				}
+				break;
+			}
+			default:
+				throw new Unsupported();
+			}
+		}
+
+		/**
+		 * Generate a binary integer operator, where a greater than comparison
+		 * is implemented by reversing a less than comparison (though operands
+		 * are still evaluated from left to right).
+		 *
+		 * @param expr
+		 * @param method
+		 * @param result
+		 * @param reversed
+		 */
+		private void generateIntegerOperator(Expr.BinaryOperator expr, String method, String result,
+				boolean reversed) {
+			generateExpression(expr.getFirstOperand());
+			writer.checkcast(INT);
+			generateExpression(expr.getSecondOperand());
+			writer.checkcast(INT);
+			if (reversed) {
+				writer.swap();
+			}
+			writer.invokevirtual(INT, method, "(" + ABSTRACT_INT_D + ")" + result);
+		}
+
+		/**
+		 * Generate code which invokes a function or method, pushing the array
+		 * of values it returns.
+		 *
+		 * @param expr
+		 */
+		private void generateInvoke(Expr.Invoke expr) {
+			Tuple<Expr> operands = expr.getOperands();
+			sites.add(expr);
+			writer.aload(LINK_LOCAL);
+			writer.aload(FRAME_LOCAL);
+			writer.iconst(sites.size() - 1);
+			writer.iconst(operands.size());
+			writer.anewarray(RVALUE);
+			for (int i = 0; i != operands.size(); ++i) {
+				writer.dup();
+				writer.iconst(i);
+				generateExpression(operands.get(i));
+				writer.aastore();
+			}
+			writer.invokevirtual(LINK, "invoke", "(L" + CALLSTACK + ";I" + RVALUES_D + ")" + RVALUES_D);
+		}
+
+		// =============================================================
+		// Helpers
+		// =============================================================
+
+		private int addFieldSite(Identifier field) {
+			fields.add(new FieldSite(field));
+			return fields.size() - 1;
+		}
+
+		private int getTemporary() {
+			if (temporary < 0) {
+				temporary = writer.allocate();
+			}
+			return temporary;
+		}
+
+		/**
+		 * Get the JVM local holding a given variable, where the expression
+		 * must be a variable access.
+		 *
+		 * @param expr
+		 * @return
+		 */
+		private int getLocal(Expr expr) {
+			if (!(expr instanceof Expr.VariableAccess)) {
+				throw new Unsupported();
+			}
+			return getLocal(((Expr.VariableAccess) expr).getVariableDeclaration());
+		}
+
+		private int getLocal(Decl.Variable variable) {
+			return FIRST_SLOT_LOCAL + getSlot(variable);
+		}
+
+		private int getSlot(Decl.Variable variable) {
+			int slot = interpreter.getSlot(context, variable);
+			if (slot < 0) {
+				throw new Unsupported();
+			}
+			return slot;
+		}
+	}
+}
@@ -0,0 +1,475 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * <p>
+ * A minimal writer for JVM class files, sufficient to generate a public class
+ * containing a single public static method. Only those instructions needed by
+ * the <code>BytecodeCompiler</code> are supported, all of which operate on
+ * references or small integer constants.
+ * </p>
+ * <p>
+ * The maximum stack depth is tracked as instructions are written. The class
+ * file version is chosen so that no stack map frames are required (i.e. such
+ * that the type inferencing verifier applies).
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+final class BytecodeWriter {
+	/**
+	 * Class file version 49.0 (Java 5) is the last not to require stack map
+	 * frames.
+	 */
+	private static final int MAJOR_VERSION = 49;
+
+	// Constant pool tags
+	private static final int CONSTANT_Utf8 = 1;
+	private static final int CONSTANT_Integer = 3;
+	private static final int CONSTANT_Class = 7;
+	private static final int CONSTANT_Fieldref = 9;
+	private static final int CONSTANT_Methodref = 10;
+	private static final int CONSTANT_NameAndType = 12;
+
+	// Opcodes
+	private static final int ACONST_NULL = 0x01;
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int ALOAD = 0x19;
+	private static final int AALOAD = 0x32;
+	private static final int ASTORE = 0x3a;
+	private static final int AASTORE = 0x53;
+	private static final int POP = 0x57;
+	private static final int DUP = 0x59;
+	private static final int SWAP = 0x5f;
+	private static final int IF_ACMPEQ = 0xa5;
+	private static final int IF_ACMPNE = 0xa6;
+	private static final int GOTO = 0xa7;
+	private static final int RETURN = 0xb1;
+	private static final int GETSTATIC = 0xb2;
+	private static final int GETFIELD = 0xb4;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESTATIC = 0xb8;
+	private static final int ANEWARRAY = 0xbd;
+	private static final int ATHROW = 0xbf;
+	private static final int CHECKCAST = 0xc0;
+	private static final int WIDE = 0xc4;
+
+	/**
+	 * A position in the code which may be the target of a branch. Every branch
+	 * to a label must have the same stack depth.
+	 */
+	public static final class Label {
+		private int position = -1;
+		private int depth = -1;
+	}
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolOut = new DataOutputStream(pool);
+	private final HashMap<String, Integer> entries = new HashMap<>();
+	private int poolCount = 1;
+
+	private byte[] code = new byte[256];
+	private int pc;
+	/**
+	 * The current stack depth, or -1 if the current position is unreachable
+	 * (e.g. immediately following a goto).
+	 */
+	private int depth;
+	private int maxDepth;
+	private int maxLocals;
+	private final ArrayList<Label> targets = new ArrayList<>();
+	private final ArrayList<int[]> fixups = new ArrayList<>();
+
+	public BytecodeWriter(int maxLocals) {
+		this.maxLocals = maxLocals;
+	}
+
+	// =============================================================
+	// Instructions
+	// =============================================================
+
+	public void aconstNull() {
+		op(ACONST_NULL, 1);
+	}
+
+	public void iconst(int value) {
+		if (value >= -1 && value <= 5) {
+			op(ICONST_0 + value, 1);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			op(BIPUSH, 1);
+			u1(value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			op(SIPUSH, 1);
+			u2(value);
+		} else {
+			int index = constant("I:" + value, CONSTANT_Integer, value);
+			op(LDC_W, 1);
+			u2(index);
+		}
+	}
+
+	public void aload(int local) {
+		local(ALOAD, local, 1);
+	}
+
+	public void astore(int local) {
+		local(ASTORE, local, -1);
+	}
+
+	public void aaload() {
+		op(AALOAD, -1);
+	}
+
+	public void aastore() {
+		op(AASTORE, -3);
+	}
+
+	public void pop() {
+		op(POP, -1);
+	}
+
+	public void dup() {
+		op(DUP, 1);
+	}
+
+	public void swap() {
+		op(SWAP, 0);
+	}
+
+	public void anewarray(String type) {
+		op(ANEWARRAY, 0);
+		u2(classRef(type));
+	}
+
+	public void checkcast(String type) {
+		op(CHECKCAST, 0);
+		u2(classRef(type));
+	}
+
+	public void getstatic(String owner, String name, String descriptor) {
+		op(GETSTATIC, 1);
+		u2(memberRef(CONSTANT_Fieldref, owner, name, descriptor));
+	}
+
+	public void getfield(String owner, String name, String descriptor) {
+		op(GETFIELD, 0);
+		u2(memberRef(CONSTANT_Fieldref, owner, name, descriptor));
+	}
+
+	public void invokevirtual(String owner, String name, String descriptor) {
+		invoke(INVOKEVIRTUAL, owner, name, descriptor, 1);
+	}
+
+	public void invokestatic(String owner, String name, String descriptor) {
+		invoke(INVOKESTATIC, owner, name, descriptor, 0);
+	}
+
+	public void athrow() {
+		op(ATHROW, -1);
+		depth = -1;
+	}
+
+	public void vreturn() {
+		op(RETURN, 0);
+		depth = -1;
+	}
+
+	public void ifAcmpeq(Label target) {
+		branch(IF_ACMPEQ, target, -2);
+	}
+
+	public void ifAcmpne(Label target) {
+		branch(IF_ACMPNE, target, -2);
+	}
+
+	public void goTo(Label target) {
+		branch(GOTO, target, 0);
+		depth = -1;
+	}
+
+	/**
+	 * Place a given label at the current position.
+	 *
+	 * @param label
+	 */
+	public void mark(Label label) {
+		label.position = pc;
+		if (depth >= 0) {
+			if (label.depth >= 0 && label.depth != depth) {
+				throw new IllegalStateException("inconsistent stack depth");
+			}
+			label.depth = depth;
+		} else {
+			// NOTE: if nothing branches here then this position remains
+			// unreachable.
+			depth = label.depth;
+		}
+	}
+
+	/**
+	 * Get the current stack depth, or -1 if the current position is
+	 * unreachable.
+	 *
+	 * @return
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Allocate a fresh local variable.
+	 *
+	 * @return
+	 */
+	public int allocate() {
+		return maxLocals++;
+	}
+
+	// =============================================================
+	// Class File
+	// =============================================================
+
+	/**
+	 * Construct a class file containing a single public static method whose
+	 * body is the code written thus far.
+	 *
+	 * @param className
+	 *            Internal name of the class (e.g. "a/b/C")
+	 * @param methodName
+	 * @param methodDescriptor
+	 * @return
+	 */
+	public byte[] toByteArray(String className, String methodName, String methodDescriptor) {
+		if (pc > Short.MAX_VALUE) {
+			// Branch offsets are limited to 16 bits
+			throw new IllegalStateException("method too large");
+		}
+		for (int i = 0; i != fixups.size(); ++i) {
+			int[] fixup = fixups.get(i);
+			Label target = targets.get(i);
+			if (target.position < 0) {
+				throw new IllegalStateException("unplaced label");
+			}
+			int offset = target.position - fixup[0];
+			code[fixup[1]] = (byte) (offset >> 8);
+			code[fixup[1] + 1] = (byte) offset;
+		}
+		int thisClass = classRef(className);
+		int superClass = classRef("java/lang/Object");
+		int name = utf8(methodName);
+		int descriptor = utf8(methodDescriptor);
+		int codeName = utf8("Code");
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(MAJOR_VERSION);
+			out.writeShort(poolCount);
+			poolOut.flush();
+			pool.writeTo(out);
+			out.writeShort(0x0031); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+			out.writeShort(1); // methods
+			out.writeShort(0x0009); // ACC_PUBLIC | ACC_STATIC
+			out.writeShort(name);
+			out.writeShort(descriptor);
+			out.writeShort(1); // attributes
+			out.writeShort(codeName);
+			out.writeInt(12 + pc);
+			out.writeShort(maxDepth);
+			out.writeShort(maxLocals);
+			out.writeInt(pc);
+			out.write(code, 0, pc);
+			out.writeShort(0); // exception table
+			out.writeShort(0); // attributes
+			out.writeShort(0); // class attributes
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// Cannot happen when writing to an array
+			throw new RuntimeException(e);
+		}
+	}
+
+	// =============================================================
+	// Helpers
+	// =============================================================
+
+	private void op(int opcode, int delta) {
+		if (depth < 0) {
+			// NOTE: unreachable code is never written, since its stack depth
+			// is unknown.
+			throw new IllegalStateException("unreachable code");
+		}
+		u1(opcode);
+		depth += delta;
+		if (depth < 0) {
+			throw new IllegalStateException("stack underflow");
+		}
+		maxDepth = Math.max(maxDepth, depth);
+	}
+
+	private void local(int opcode, int local, int delta) {
+		if (local > 0xFFFF) {
+			throw new IllegalStateException("too many locals");
+		} else if (local > 0xFF) {
+			op(WIDE, delta);
+			u1(opcode);
+			u2(local);
+		} else {
+			op(opcode, delta);
+			u1(local);
+		}
+		maxLocals = Math.max(maxLocals, local + 1);
+	}
+
+	private void invoke(int opcode, String owner, String name, String descriptor, int receiver) {
+		int index = memberRef(CONSTANT_Methodref, owner, name, descriptor);
+		int returns = descriptor.endsWith(")V") ? 0 : 1;
+		op(opcode, returns - receiver - countParameters(descriptor));
+		u2(index);
+	}
+
+	private void branch(int opcode, Label target, int delta) {
+		int start = pc;
+		op(opcode, delta);
+		if (target.depth >= 0 && target.depth != depth) {
+			throw new IllegalStateException("inconsistent stack depth");
+		}
+		target.depth = depth;
+		targets.add(target);
+		fixups.add(new int[] { start, pc });
+		u2(0);
+	}
+
+	/**
+	 * Count the number of parameters in a method descriptor. All parameters
+	 * are assumed to occupy a single slot (i.e. neither long nor double).
+	 *
+	 * @param descriptor
+	 * @return
+	 */
+	private static int countParameters(String descriptor) {
+		int count = 0;
+		int i = 1;
+		while (descriptor.charAt(i) != ')') {
+			char c = descriptor.charAt(i);
+			if (c == '[') {
+				i++;
+				continue;
+			} else if (c == 'L') {
+				i = descriptor.indexOf(';', i);
+			}
+			count++;
+			i++;
+		}
+		return count;
+	}
+
+	private void u1(int value) {
+		if (pc == code.length) {
+			byte[] ncode = new byte[code.length * 2];
+			System.arraycopy(code, 0, ncode, 0, pc);
+			code = ncode;
+		}
+		code[pc++] = (byte) value;
+	}
+
+	private void u2(int value) {
+		u1(value >> 8);
+		u1(value);
+	}
+
+	private int utf8(String value) {
+		String key = "U:" + value;
+		Integer index = entries.get(key);
+		if (index == null) {
+			try {
+				poolOut.writeByte(CONSTANT_Utf8);
+				poolOut.writeUTF(value);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			index = poolCount++;
+			entries.put(key, index);
+		}
+		return index;
+	}
+
+	private int classRef(String name) {
+		String key = "C:" + name;
+		Integer index = entries.get(key);
+		if (index == null) {
+			int n = utf8(name);
+			index = constant(key, CONSTANT_Class, n);
+		}
+		return index;
+	}
+
+	private int memberRef(int tag, String owner, String name, String descriptor) {
+		String key = tag + ":" + owner + "." + name + ":" + descriptor;
+		Integer index = entries.get(key);
+		if (index == null) {
+			int c = classRef(owner);
+			int n = utf8(name);
+			int d = utf8(descriptor);
+			int nat = constant("N:" + name + ":" + descriptor, CONSTANT_NameAndType, (n << 16) | d);
+			index = constant(key, tag, (c << 16) | nat);
+		}
+		return index;
+	}
+
+	/**
+	 * Add a constant pool entry whose contents is a single four byte value
+	 * (e.g. an integer, or a pair of two byte indices).
+	 *
+	 * @param key
+	 * @param tag
+	 * @param value
+	 * @return
+	 */
+	private int constant(String key, int tag, int value) {
+		Integer index = entries.get(key);
+		if (index == null) {
+			try {
+				poolOut.writeByte(tag);
+				if (tag == CONSTANT_Class) {
+					poolOut.writeShort(value);
+				} else {
+					poolOut.writeInt(value);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			index = poolCount++;
+			entries.put(key, index);
+		}
+		return index;
+	}
+}
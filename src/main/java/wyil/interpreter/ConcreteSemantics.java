@@ -15,9 +15,10 @@ package wyil.interpreter;
 
 import java.math.BigInteger;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
-import wybs.lang.NameResolver;
 import wybs.lang.NameResolver.ResolutionError;
 import wybs.util.AbstractCompilationUnit.Identifier;
 import wybs.util.AbstractCompilationUnit.Tuple;
@@ -26,6 +27,21 @@ import wyil.interpreter.Interpreter.CallStack;
 import static wyc.lang.WhileyFile.*;
 
 public class ConcreteSemantics implements AbstractSemantics {
+	/**
+	 * Counts the values constructed, or null if not profiling.
+	 */
+	private volatile Profiler profiler;
+
+	void setProfiler(Profiler profiler) {
+		this.profiler = profiler;
+	}
+
+	void allocate(Profiler.Kind kind) {
+		Profiler p = profiler;
+		if (p != null) {
+			p.allocate(kind);
+		}
+	}
 
 	@Override
 	public RValue.Null Null() {
@@ -39,12 +55,26 @@ public class ConcreteSemantics implements AbstractSemantics {
 
 	@Override
 	public RValue.Byte Byte(byte value) {
+		allocate(Profiler.Kind.BYTE);
 		return new RValue.Byte(value);
 	}
 
 	@Override
 	public RValue.Int Int(BigInteger value) {
-		return new RValue.Int(value);
+		RValue.Int r = RValue.Int.valueOf(value);
+		if (!r.isCached()) {
+			allocate(Profiler.Kind.INT);
+		}
+		return r;
+	}
+
+	@Override
+	public RValue.Int Int(long value) {
+		RValue.Int r = RValue.Int.valueOf(value);
+		if (!r.isCached()) {
+			allocate(Profiler.Kind.INT);
+		}
+		return r;
 	}
 
 	@Override
@@ -55,11 +85,13 @@ public class ConcreteSemantics implements AbstractSemantics {
 	@Override
 	public RValue.Reference Reference(AbstractSemantics.RValue.Cell value) {
 		RValue.Cell cell = (RValue.Cell) value;
+		allocate(Profiler.Kind.REFERENCE);
 		return new RValue.Reference(cell);
 	}
 
 	@Override
 	public RValue.Array Array(AbstractSemantics.RValue... elements) {
+		allocate(Profiler.Kind.ARRAY);
 		return new RValue.Array((RValue[]) elements);
 	}
 
@@ -70,11 +102,35 @@ public class ConcreteSemantics implements AbstractSemantics {
 
 	@Override
 	public RValue.Record Record(AbstractSemantics.RValue.Field... fields) {
-		return new RValue.Record((RValue.Field[]) fields);
+		String[] names = new String[fields.length];
+		for (int i = 0; i != fields.length; ++i) {
+			names[i] = fields[i].getName().get();
+		}
+		RValue.Record.Shape shape = RValue.Record.Shape.get(names);
+		RValue[] values = new RValue[fields.length];
+		for (int i = 0; i != fields.length; ++i) {
+			values[shape.indexOf(names[i])] = (RValue) fields[i].getValue();
+		}
+		allocate(Profiler.Kind.RECORD);
+		return new RValue.Record(shape, values);
+	}
+
+	/**
+	 * Create a new record value of a given shape, where values are given in
+	 * slot order.
+	 *
+	 * @param shape
+	 * @param values
+	 * @return
+	 */
+	public RValue.Record Record(RValue.Record.Shape shape, RValue... values) {
+		allocate(Profiler.Kind.RECORD);
+		return new RValue.Record(shape, values);
 	}
 
 	@Override
 	public RValue.Lambda Lambda(Decl.Callable context, Interpreter.CallStack frame, Stmt body) {
+		allocate(Profiler.Kind.LAMBDA);
 		return new RValue.Lambda(context, frame, body);
 	}
 
@@ -84,7 +140,8 @@ public class ConcreteSemantics implements AbstractSemantics {
 		public static final RValue.Bool False = new RValue.Bool(false);
 
 		/**
-		 * Check whether a given value is an instanceof of a given type.
+		 * Check whether a given value is an instanceof of a given type. This
+		 * uses the plan compiled for the type by the given interpreter.
 		 *
 		 * @param type
 		 * @return
@@ -92,30 +149,7 @@ public class ConcreteSemantics implements AbstractSemantics {
 		 */
 		@Override
 		public Bool is(Type type, Interpreter instance) throws ResolutionError {
-			// Handle generic cases here
-			if (type instanceof Type.Void) {
-				return False;
-			} else if (type instanceof Type.Nominal) {
-				Type.Nominal nom = (Type.Nominal) type;
-				NameResolver resolver = instance.getNameResolver();
-				Decl.Type decl = resolver.resolveExactly(nom.getName(), Decl.Type.class);
-				Decl.Variable var = decl.getVariableDeclaration();
-				if(is(var.getType(), instance) == True) {
-					Tuple<Expr> invariant = decl.getInvariant();
-					return checkInvariant(var,invariant,instance);
-				}
-				return False;
-			} else if (type instanceof Type.Union) {
-				Type.Union t = (Type.Union) type;
-				for (int i=0;i!=t.size();++i) {
-					Type element = t.get(i);
-					if (this.is(element, instance) == True) {
-						return True;
-					}
-				}
-			}
-			// Default case.
-			return False;
+			return instance.getTypeTest(type).test(this) ? True : False;
 		}
 
 		@Override
@@ -147,6 +181,30 @@ public class ConcreteSemantics implements AbstractSemantics {
 			return this.equals(rhs) ? False : True;
 		}
 
+		/**
+		 * Determine whether this value is referenced from exactly one location
+		 * (e.g. a variable, array element or record field). In such case, an
+		 * assignment through that location can update this value in place,
+		 * rather than updating a copy of it. Values which cannot be updated in
+		 * place are never unique.
+		 *
+		 * @return
+		 */
+		public boolean isUnique() {
+			return false;
+		}
+
+		/**
+		 * Indicate that this value may now be referenced from more than one
+		 * location. Thereafter, it is no longer unique and any assignment
+		 * through one of those locations must update a copy of it instead.
+		 *
+		 * @return
+		 */
+		public RValue share() {
+			return this;
+		}
+
 		/**
 		 * Check whether the invariant for a given nominal type holds for this value
 		 * or not. This requires physically evaluating the invariant to see whether
@@ -163,7 +221,7 @@ public class ConcreteSemantics implements AbstractSemantics {
 				// to execute the invariant and determine whether or not it
 				// returns true.
 				Interpreter.CallStack frame = instance.new CallStack();
-				frame.putLocal(var.getName(), this);
+				frame.putLocal(var, this);
 				for (int i = 0; i != invariant.size(); ++i) {
 					RValue.Bool b = instance.executeExpression(Bool.class, invariant.get(i), frame);
 					if (b == False) {
@@ -180,14 +238,6 @@ public class ConcreteSemantics implements AbstractSemantics {
 			private Null() {
 			}
 			@Override
-			public Bool is(Type type, Interpreter instance) throws ResolutionError {
-				if(type instanceof Type.Null) {
-					return True;
-				} else {
-					return super.is(type, instance);
-				}
-			}
-			@Override
 			public RValue convert(Type type) {
 				if(type instanceof Type.Null) {
 					return this;
@@ -220,14 +270,6 @@ public class ConcreteSemantics implements AbstractSemantics {
 				return value;
 			}
 			@Override
-			public Bool is(Type type, Interpreter instance) throws ResolutionError {
-				if(type instanceof Type.Bool) {
-					return True;
-				} else {
-					return super.is(type, instance);
-				}
-			}
-			@Override
 			public RValue convert(Type type) {
 				if(type instanceof Type.Bool) {
 					return this;
@@ -270,15 +312,6 @@ public class ConcreteSemantics implements AbstractSemantics {
 				this.value = value;
 			}
 
-			@Override
-			public RValue.Bool is(Type type, Interpreter instance) throws ResolutionError {
-				if (type instanceof Type.Byte) {
-					return True;
-				} else {
-					return super.is(type, instance);
-				}
-			}
-
 			@Override
 			public RValue convert(Type type) {
 				if (type instanceof Type.Byte) {
@@ -339,20 +372,71 @@ public class ConcreteSemantics implements AbstractSemantics {
 			}
 		}
 
+		/**
+		 * An unbounded integer value. Values which fit within a
+		 * <code>long</code> are represented directly, with operations on them
+		 * checked for overflow and promoted to <code>BigInteger</code> when
+		 * necessary. Larger values are represented using
+		 * <code>BigInteger</code>. Every value has exactly one representation
+		 * (i.e. a <code>BigInteger</code> is only used when the value does not
+		 * fit into a <code>long</code>) and, furthermore, small values are
+		 * cached.
+		 *
+		 * @author David J. Pearce
+		 *
+		 */
 		public final static class Int extends RValue implements AbstractSemantics.RValue.Int {
-			private final BigInteger value;
+			private static final int CACHE_MIN = -128;
+			private static final int CACHE_MAX = 1024;
+			private static final Int[] CACHE = new Int[CACHE_MAX - CACHE_MIN + 1];
 
-			private Int(BigInteger value) {
-				this.value = value;
+			static {
+				for (int i = 0; i != CACHE.length; ++i) {
+					CACHE[i] = new Int(i + CACHE_MIN, null);
+				}
 			}
-			@Override
-			public Bool is(Type type, Interpreter instance) throws ResolutionError {
-				if(type instanceof Type.Int) {
-					return True;
+
+			/**
+			 * The value itself, when this fits into a <code>long</code>.
+			 */
+			private final long small;
+			/**
+			 * The value itself, when this does not fit into a
+			 * <code>long</code>; otherwise, <code>null</code>.
+			 */
+			private final BigInteger big;
+
+			private Int(long small, BigInteger big) {
+				this.small = small;
+				this.big = big;
+			}
+
+			public static Int valueOf(long value) {
+				if (value >= CACHE_MIN && value <= CACHE_MAX) {
+					return CACHE[(int) value - CACHE_MIN];
+				} else {
+					return new Int(value, null);
+				}
+			}
+
+			public static Int valueOf(BigInteger value) {
+				if (value.bitLength() < 64) {
+					return valueOf(value.longValue());
 				} else {
-					return super.is(type, instance);
+					return new Int(0, value);
 				}
 			}
+
+			/**
+			 * Check whether this value is shared from the cache of small
+			 * values, rather than having been constructed.
+			 *
+			 * @return
+			 */
+			public boolean isCached() {
+				return big == null && small >= CACHE_MIN && small <= CACHE_MAX;
+			}
+
 			@Override
 			public RValue convert(Type type) {
 				if(type instanceof Type.Int) {
@@ -364,92 +448,142 @@ public class ConcreteSemantics implements AbstractSemantics {
 
 			@Override
 			public Int negate() {
-				return new Int(value.negate());
+				if (big == null && small != Long.MIN_VALUE) {
+					return valueOf(-small);
+				}
+				return valueOf(bigValue().negate());
 			}
 
 			@Override
 			public Int add(AbstractSemantics.RValue.Int _rhs) {
 				RValue.Int rhs = (RValue.Int) _rhs;
-				return new Int(value.add(rhs.value));
+				if (big == null && rhs.big == null) {
+					long r = small + rhs.small;
+					// Overflow iff both operands have opposite sign to result
+					if (((small ^ r) & (rhs.small ^ r)) >= 0) {
+						return valueOf(r);
+					}
+				}
+				return valueOf(bigValue().add(rhs.bigValue()));
 			}
 
 			@Override
 			public Int subtract(AbstractSemantics.RValue.Int _rhs)  {
 				RValue.Int rhs = (RValue.Int) _rhs;
-				return new Int(value.subtract(rhs.value));
+				if (big == null && rhs.big == null) {
+					long r = small - rhs.small;
+					// Overflow iff operands differ in sign, and result differs
+					// in sign from first operand
+					if (((small ^ rhs.small) & (small ^ r)) >= 0) {
+						return valueOf(r);
+					}
+				}
+				return valueOf(bigValue().subtract(rhs.bigValue()));
 			}
 
 			@Override
 			public Int multiply(AbstractSemantics.RValue.Int _rhs) {
 				RValue.Int rhs = (RValue.Int) _rhs;
-				return new Int(value.multiply(rhs.value));
+				if (big == null && rhs.big == null && isInt(small) && isInt(rhs.small)) {
+					// The product of two 32-bit values always fits in 64 bits
+					return valueOf(small * rhs.small);
+				}
+				return valueOf(bigValue().multiply(rhs.bigValue()));
 			}
 
 			@Override
 			public Int divide(AbstractSemantics.RValue.Int _rhs) {
 				RValue.Int rhs = (RValue.Int) _rhs;
-				return new Int(value.divide(rhs.value));
+				// NOTE: division by zero is left to BigInteger, so as to report
+				// the same error.
+				if (big == null && rhs.big == null && rhs.small != 0
+						&& !(small == Long.MIN_VALUE && rhs.small == -1)) {
+					return valueOf(small / rhs.small);
+				}
+				return valueOf(bigValue().divide(rhs.bigValue()));
 			}
 
 			@Override
 			public Int remainder(AbstractSemantics.RValue.Int _rhs) {
 				RValue.Int rhs = (RValue.Int) _rhs;
-				return new Int(value.remainder(rhs.value));
+				if (big == null && rhs.big == null && rhs.small != 0) {
+					return valueOf(small % rhs.small);
+				}
+				return valueOf(bigValue().remainder(rhs.bigValue()));
 			}
 
 			@Override
 			public Bool lessThan(AbstractSemantics.RValue.Int _rhs) {
 				RValue.Int rhs = (RValue.Int) _rhs;
-				return (value.compareTo(rhs.value) < 0) ? True : False;
+				return (compareTo(rhs) < 0) ? True : False;
 			}
 
 			@Override
 			public Bool lessThanOrEqual(AbstractSemantics.RValue.Int _rhs) {
 				RValue.Int rhs = (RValue.Int) _rhs;
-				return (value.compareTo(rhs.value) <= 0) ? True : False;
+				return (compareTo(rhs) <= 0) ? True : False;
 			}
 
 			@Override
 			public int intValue() {
-				return value.intValue();
+				// NOTE: this gives the low-order 32 bits in both cases
+				return big == null ? (int) small : big.intValue();
+			}
+
+			/**
+			 * Get this value as a <code>BigInteger</code>.
+			 *
+			 * @return
+			 */
+			public BigInteger bigValue() {
+				return big == null ? BigInteger.valueOf(small) : big;
+			}
+
+			private int compareTo(Int rhs) {
+				if (big == null && rhs.big == null) {
+					return Long.compare(small, rhs.small);
+				} else {
+					return bigValue().compareTo(rhs.bigValue());
+				}
+			}
+
+			private static boolean isInt(long value) {
+				return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
 			}
 
 			@Override
 			public boolean equals(Object o) {
-				return (o instanceof Int) && value.equals(((Int)o).value);
+				if (o instanceof Int) {
+					Int i = (Int) o;
+					// NOTE: since every value has exactly one representation,
+					// values with different representations are not equal.
+					return big == null ? (i.big == null && small == i.small) : big.equals(i.big);
+				}
+				return false;
 			}
 
 			@Override
 			public int hashCode() {
-				return value.hashCode();
+				return big == null ? Long.hashCode(small) : big.hashCode();
 			}
 
 			@Override
 			public String toString() {
-				return value.toString();
+				return big == null ? Long.toString(small) : big.toString();
 			}
 		}
 
 		public final static class Array extends RValue implements AbstractSemantics.RValue.Array {
 			private final RValue[] elements;
+			/**
+			 * Indicates whether this array may be referenced from more than one
+			 * location and, hence, cannot be updated in place.
+			 */
+			private boolean shared;
 
 			private Array(RValue... elements) {
 				this.elements = elements;
 			}
-			@Override
-			public RValue.Bool is(Type type, Interpreter instance) throws ResolutionError {
-				if(type instanceof Type.Array) {
-					Type.Array t = (Type.Array) type;
-					for (int i = 0; i != elements.length; ++i) {
-						if (elements[i].is(t.getElement(), instance) == False) {
-							return False;
-						}
-					}
-					return True;
-				} else {
-					return super.is(type, instance);
-				}
-			}
 
 			@Override
 			public RValue convert(Type type) {
@@ -457,7 +591,8 @@ public class ConcreteSemantics implements AbstractSemantics {
 					Type.Array t = (Type.Array) type;
 					RValue[] values = new RValue[elements.length];
 					for (int i = 0; i != values.length; ++i) {
-						values[i] = elements[i].convert(t.getElement());
+						// The converted element may be the original itself
+						values[i] = elements[i].convert(t.getElement()).share();
 					}
 					return new RValue.Array(values);
 				} else {
@@ -467,7 +602,7 @@ public class ConcreteSemantics implements AbstractSemantics {
 			@Override
 			public RValue read(AbstractSemantics.RValue.Int _index) {
 				RValue.Int index = (RValue.Int) _index;
-				int idx = index.value.intValue();
+				int idx = index.intValue();
 				if(idx < 0 || idx >= elements.length) {
 					throw new AssertionError("out-of-bounds array access");
 				}
@@ -477,19 +612,45 @@ public class ConcreteSemantics implements AbstractSemantics {
 			@Override
 			public RValue.Array write(AbstractSemantics.RValue.Int _index, AbstractSemantics.RValue value) {
 				RValue.Int index = (RValue.Int)_index;
-				int idx = index.value.intValue();
+				int idx = index.intValue();
 				RValue[] values = Arrays.copyOf(this.elements, this.elements.length);
+				// Elements are now referenced from both arrays
+				for (int i = 0; i != values.length; ++i) {
+					values[i].share();
+				}
 				values[idx] = (RValue) value;
 				return new RValue.Array(values);
 			}
 
+			/**
+			 * Update a given element of this array in place. This is only
+			 * permitted when this array is unique.
+			 *
+			 * @param index
+			 * @param value
+			 */
+			void update(RValue.Int index, RValue value) {
+				elements[index.intValue()] = value;
+			}
+
+			@Override
+			public boolean isUnique() {
+				return !shared;
+			}
+
+			@Override
+			public RValue.Array share() {
+				shared = true;
+				return this;
+			}
+
 			public RValue[] getElements() {
 				return elements;
 			}
 
 			@Override
 			public RValue.Int length() {
-				return new RValue.Int(BigInteger.valueOf(elements.length));
+				return RValue.Int.valueOf(elements.length);
 			}
 
 			@Override
@@ -543,59 +704,37 @@ public class ConcreteSemantics implements AbstractSemantics {
 		}
 
 		public final static class Record extends RValue implements AbstractSemantics.RValue.Record {
-			private final RValue.Field[] fields;
-
-			private Record(RValue.Field... fields) {
-				this.fields = fields;
-				// Sort fields according by name. This avoids any difficulties when
-				// comparing records initialised with different field orders.
-				Arrays.sort(fields, new Comparator<RValue.Field>() {
-					@Override
-					public int compare(RValue.Field f1, RValue.Field f2) {
-						return f1.name.compareTo(f2.name);
-					}
-				});
+			/**
+			 * Determines the slot in which each field of this record is held.
+			 */
+			private final Shape shape;
+			/**
+			 * Values of fields, indexed by slot.
+			 */
+			private final RValue[] values;
+			/**
+			 * Indicates whether this record may be referenced from more than one
+			 * location and, hence, cannot be updated in place.
+			 */
+			private boolean shared;
+
+			private Record(Shape shape, RValue... values) {
+				this.shape = shape;
+				this.values = values;
 			}
 
-			@Override
-			public int size() {
-				return fields.length;
+			public Shape getShape() {
+				return shape;
 			}
 
 			@Override
-			public boolean hasField(Identifier field) {
-				for (int i = 0; i != fields.length; ++i) {
-					RValue.Field f = fields[i];
-					if (f.name.equals(field)) {
-						return true;
-					}
-				}
-				return false;
+			public int size() {
+				return values.length;
 			}
 
 			@Override
-			public RValue.Bool is(Type type, Interpreter instance) throws ResolutionError {
-				if (type instanceof Type.Record) {
-					Type.Record t = (Type.Record) type;
-					Tuple<Type.Field> tFields = t.getFields();
-					for (int i = 0; i != tFields.size(); ++i) {
-						Type.Field f = tFields.get(i);
-						if (hasField(f.getName())) {
-							RValue val = read(f.getName());
-							// Matching field
-							if (val.is(f.getType(), instance) == False) {
-								// Field not member of type
-								return False;
-							}
-						} else {
-							// No matching field
-							return False;
-						}
-					}
-					return (t.isOpen() || fields.length == tFields.size()) ? True : False;
-				} else {
-					return super.is(type, instance);
-				}
+			public boolean hasField(Identifier field) {
+				return shape.indexOf(field.get()) >= 0;
 			}
 
 			@Override
@@ -603,63 +742,214 @@ public class ConcreteSemantics implements AbstractSemantics {
 				if (type instanceof Type.Record) {
 					Type.Record t = (Type.Record) type;
 					Tuple<Type.Field> fields = t.getFields();
-					RValue.Record rec = this;
+					RValue[] nValues = Arrays.copyOf(values, values.length);
+					// Fields are now referenced from both records
+					for (int i = 0; i != nValues.length; ++i) {
+						nValues[i].share();
+					}
 					for (int i = 0; i != fields.size(); ++i) {
 						Type.Field f = fields.get(i);
-						RValue v = this.read(f.getName()).convert(f.getType());
-						rec = rec.write(f.getName(), v);
+						int slot = getSlot(f.getName());
+						nValues[slot] = nValues[slot].convert(f.getType()).share();
 					}
-					return rec;
+					return new RValue.Record(shape, nValues);
 				} else {
 					return super.convert(type);
 				}
 			}
+
 			@Override
 			public RValue read(Identifier field) {
-				for (int i = 0; i != fields.length; ++i) {
-					RValue.Field f = fields[i];
-					if (f.name.equals(field)) {
-						return f.value;
-					}
-				}
-				throw new RuntimeException("Invalid record access");
+				return values[getSlot(field)];
+			}
+
+			/**
+			 * Read the value held in a given slot of this record. The slot
+			 * should be determined from the shape of this record.
+			 *
+			 * @param slot
+			 * @return
+			 */
+			public RValue read(int slot) {
+				return values[slot];
 			}
 
 			@Override
 			public RValue.Record write(Identifier field, AbstractSemantics.RValue value) {
-				RValue.Field[] fields = Arrays.copyOf(this.fields, this.fields.length);
-				for (int i = 0; i != fields.length; ++i) {
-					RValue.Field f = fields[i];
-					if (f.name.equals(field)) {
-						fields[i] = new RValue.Field(f.name, (RValue) value);
-						return new RValue.Record(fields);
-					}
+				int slot = getSlot(field);
+				RValue[] nValues = Arrays.copyOf(values, values.length);
+				// Remaining fields are now referenced from both records
+				for (int i = 0; i != nValues.length; ++i) {
+					nValues[i].share();
+				}
+				nValues[slot] = (RValue) value;
+				return new RValue.Record(shape, nValues);
+			}
+
+			/**
+			 * Update a given field of this record in place. This is only
+			 * permitted when this record is unique.
+			 *
+			 * @param field
+			 * @param value
+			 */
+			void update(Identifier field, RValue value) {
+				values[getSlot(field)] = value;
+			}
+
+			private int getSlot(Identifier field) {
+				int slot = shape.indexOf(field.get());
+				if (slot < 0) {
+					throw new RuntimeException("Invalid record access");
 				}
-				throw new RuntimeException("Invalid record access");
+				return slot;
+			}
+
+			@Override
+			public boolean isUnique() {
+				return !shared;
+			}
+
+			@Override
+			public RValue.Record share() {
+				shared = true;
+				return this;
 			}
 
 			@Override
 			public boolean equals(Object o) {
-				return (o instanceof RValue.Record) && Arrays.equals(fields, ((RValue.Record) o).fields);
+				if (o instanceof RValue.Record) {
+					RValue.Record r = (RValue.Record) o;
+					// Shapes are interned and, hence, can be compared by identity
+					return shape == r.shape && Arrays.equals(values, r.values);
+				}
+				return false;
 			}
 
 			@Override
 			public int hashCode() {
-				return Arrays.hashCode(fields);
+				return shape.hashCode() ^ Arrays.hashCode(values);
 			}
 
 			@Override
 			public String toString() {
 				String r = "{";
-				for(int i=0;i!=fields.length;++i) {
+				for(int i=0;i!=values.length;++i) {
 					if(i != 0) {
 						r = r + ",";
 					}
-					RValue.Field field = fields[i];
-					r += field.name + ":" + field.value;
+					r += shape.getName(i) + ":" + values[i];
 				}
 				return r + "}";
 			}
+
+			/**
+			 * <p>
+			 * Describes the set of fields making up a record, and the slot in
+			 * which each is held. Fields are assigned slots in order of their
+			 * names, so records with the same fields have the same shape
+			 * regardless of the order in which they were written.
+			 * </p>
+			 * <p>
+			 * Shapes are interned and, hence, there is exactly one shape for any
+			 * given set of fields. This means a shape can be compared by identity
+			 * and, for example, an access site can remember the slot of a field
+			 * for records of the shape it last saw. Shapes are immutable and may
+			 * be shared between threads.
+			 * </p>
+			 *
+			 * @author David J. Pearce
+			 *
+			 */
+			public final static class Shape {
+				/**
+				 * Maps field names (in the order given) onto their shape. Thus,
+				 * sorting is only required the first time a particular ordering is
+				 * encountered.
+				 */
+				private static final ConcurrentHashMap<List<String>, Shape> shapes = new ConcurrentHashMap<>();
+
+				/**
+				 * Canonical shapes, keyed by their (sorted) field names.
+				 */
+				private static final ConcurrentHashMap<List<String>, Shape> canonicals = new ConcurrentHashMap<>();
+
+				/**
+				 * Get the shape for a given set of field names, which may be given
+				 * in any order.
+				 *
+				 * @param names
+				 * @return
+				 */
+				public static Shape get(String... names) {
+					List<String> key = Arrays.asList(names);
+					Shape shape = shapes.get(key);
+					if (shape == null) {
+						String[] sorted = names.clone();
+						Arrays.sort(sorted);
+						Shape s = new Shape(sorted);
+						shape = canonicals.putIfAbsent(Arrays.asList(sorted), s);
+						shape = (shape == null) ? s : shape;
+						// NOTE: must copy the key since the caller owns names.
+						shapes.putIfAbsent(Arrays.asList(names.clone()), shape);
+					}
+					return shape;
+				}
+
+				private final String[] names;
+				private final HashMap<String, Integer> slots;
+				private final int hashCode;
+
+				private Shape(String[] names) {
+					this.names = names;
+					this.slots = new HashMap<>();
+					for (int i = 0; i != names.length; ++i) {
+						slots.put(names[i], i);
+					}
+					this.hashCode = Arrays.hashCode(names);
+				}
+
+				/**
+				 * Get the number of fields (hence, slots) in this shape.
+				 *
+				 * @return
+				 */
+				public int size() {
+					return names.length;
+				}
+
+				/**
+				 * Get the name of the field held in a given slot.
+				 *
+				 * @param slot
+				 * @return
+				 */
+				public String getName(int slot) {
+					return names[slot];
+				}
+
+				/**
+				 * Get the slot holding a given field, or -1 if there is no such
+				 * field.
+				 *
+				 * @param name
+				 * @return
+				 */
+				public int indexOf(String name) {
+					Integer slot = slots.get(name);
+					return slot == null ? -1 : slot;
+				}
+
+				@Override
+				public int hashCode() {
+					return hashCode;
+				}
+
+				@Override
+				public String toString() {
+					return Arrays.toString(names);
+				}
+			}
 		}
 
 		public final static class Lambda extends RValue implements AbstractSemantics.RValue.Lambda {
@@ -694,23 +984,6 @@ public class ConcreteSemantics implements AbstractSemantics {
 				return body;
 			}
 
-			@Override
-			public RValue.Bool is(Type type, Interpreter instance) throws ResolutionError {
-				if(type instanceof Type.Callable) {
-					Type.Callable tc = (Type.Callable) type;
-					// FIXME: this is really a hack, since we need to perform a full
-					// subtype test at this point. There remain some interesting
-					// questions as to what should and should not be support here.
-					if(tc.equals(context.getType())) {
-						return True;
-					} else {
-						return False;
-					}
-				} else {
-					return super.is(type, instance);
-				}
-			}
-
 			@Override
 			public boolean equals(Object o) {
 				if(o instanceof RValue.Lambda) {
@@ -738,16 +1011,6 @@ public class ConcreteSemantics implements AbstractSemantics {
 				return referent;
 			}
 
-			@Override
-			public RValue.Bool is(Type type, Interpreter instance) throws ResolutionError {
-				if(type instanceof Type.Reference) {
-					Type.Reference ref = (Type.Reference) type;
-					return referent.value.is(ref.getElement(), instance);
-				} else {
-					return super.is(type, instance);
-				}
-			}
-
 			@Override
 			public boolean equals(Object o) {
 				return (o instanceof RValue.Reference) && (referent == ((RValue.Reference) o).referent);
@@ -782,21 +1045,37 @@ public class ConcreteSemantics implements AbstractSemantics {
 		abstract public RValue read(CallStack frame);
 		abstract public void write(CallStack frame, RValue rhs);
 
+		/**
+		 * Determine whether the value at this location can be updated in place.
+		 * This requires that it is unique and, furthermore, that every value
+		 * enclosing it along this path is also unique (as otherwise it is
+		 * reachable from elsewhere).
+		 *
+		 * @param frame
+		 * @return
+		 */
+		abstract public boolean isUnique(CallStack frame);
+
 		public static final class Variable extends LValue {
-			private final Identifier name;
+			private final Decl.Variable variable;
 
-			public Variable(Identifier name) {
-				this.name = name;
+			public Variable(Decl.Variable variable) {
+				this.variable = variable;
 			}
 
 			@Override
 			public RValue read(CallStack frame) {
-				return frame.getLocal(name);
+				return frame.getLocal(variable);
 			}
 
 			@Override
 			public void write(CallStack frame, RValue rhs) {
-				frame.putLocal(name, rhs);
+				frame.putLocal(variable, rhs);
+			}
+
+			@Override
+			public boolean isUnique(CallStack frame) {
+				return frame.getLocal(variable).isUnique();
 			}
 		}
 
@@ -818,7 +1097,18 @@ public class ConcreteSemantics implements AbstractSemantics {
 			@Override
 			public void write(CallStack frame, RValue value) {
 				RValue.Array arr = Interpreter.checkType(this.src.read(frame), null, RValue.Array.class);
-				src.write(frame, arr.write(index, value));
+				if (src.isUnique(frame)) {
+					// Nothing else refers to this array, so no copy is needed
+					arr.update(index, value);
+				} else {
+					frame.allocate(Profiler.Kind.ARRAY);
+					src.write(frame, arr.write(index, value));
+				}
+			}
+
+			@Override
+			public boolean isUnique(CallStack frame) {
+				return src.isUnique(frame) && read(frame).isUnique();
 			}
 		}
 
@@ -840,7 +1130,18 @@ public class ConcreteSemantics implements AbstractSemantics {
 			@Override
 			public void write(CallStack frame, RValue value) {
 				RValue.Record rec = Interpreter.checkType(this.src.read(frame), null, RValue.Record.class);
-				src.write(frame, rec.write(field, value));
+				if (src.isUnique(frame)) {
+					// Nothing else refers to this record, so no copy is needed
+					rec.update(field, value);
+				} else {
+					frame.allocate(Profiler.Kind.RECORD);
+					src.write(frame, rec.write(field, value));
+				}
+			}
+
+			@Override
+			public boolean isUnique(CallStack frame) {
+				return src.isUnique(frame) && read(frame).isUnique();
 			}
 		}
 
@@ -864,6 +1165,13 @@ public class ConcreteSemantics implements AbstractSemantics {
 				RValue.Cell cell = ref.deref();
 				cell.write(rhs);
 			}
+
+			@Override
+			public boolean isUnique(CallStack frame) {
+				// A cell is the only location from which its value is
+				// referenced, though the cell itself may be aliased.
+				return read(frame).isUnique();
+			}
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,1529 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.interpreter;
+
+import java.io.PrintStream;
+
+import wybs.lang.NameResolver.ResolutionError;
+import wybs.util.AbstractCompilationUnit.Identifier;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wyc.lang.WhileyFile;
+import wyc.lang.WhileyFile.Decl;
+import wyc.lang.WhileyFile.Expr;
+import wyc.lang.WhileyFile.LVal;
+import wyc.lang.WhileyFile.Stmt;
+import wyil.interpreter.ConcreteSemantics.LValue;
+import wyil.interpreter.ConcreteSemantics.RValue;
+import wyil.interpreter.Interpreter.CallStack;
+import wyil.interpreter.Interpreter.Status;
+
+/**
+ * <p>
+ * The body of a function or method, along with its pre- and post-conditions,
+ * compiled into a tree of executable nodes. Each node is specialised to the
+ * construct it implements, with variables already resolved to their slots,
+ * call sites and record shapes cached, and so on. Executing a node therefore
+ * requires no dispatch on the opcode of the underlying bytecode, unlike the
+ * tree-walking interpreter.
+ * </p>
+ * <p>
+ * Constructs which do not benefit from compilation (e.g. casts or lambda
+ * declarations) are executed by delegating back to the tree-walking
+ * interpreter, which remains the reference semantics. An execution tree is
+ * immutable once constructed (except for caches, which are updated
+ * atomically) and may be executed concurrently.
+ * </p>
+ * <p>
+ * An execution tree also counts the number of times its body is executed.
+ * Once this reaches the interpreter's compile threshold, the body is compiled
+ * into JVM bytecode by the <code>BytecodeCompiler</code> and, if this
+ * succeeds, the compiled body is executed from then on.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class ExecutionTree {
+	private final Interpreter interpreter;
+	private final Decl.FunctionOrMethod context;
+	private final Expression[] requires;
+	private final Statement body;
+	private final Expression[] ensures;
+	/**
+	 * The number of times the body has been executed. This is not updated
+	 * atomically, since an occasional lost update only delays compilation.
+	 */
+	private int invocations;
+	private volatile boolean attempted;
+	private volatile BytecodeCompiler.Compiled compiled;
+
+	public ExecutionTree(Interpreter interpreter, Decl.FunctionOrMethod context) {
+		this.interpreter = interpreter;
+		this.context = context;
+		this.requires = compileExpressions(context.getRequires());
+		this.body = compileStatement(context.getBody());
+		this.ensures = compileExpressions(context.getEnsures());
+	}
+
+	public Decl.FunctionOrMethod getContext() {
+		return context;
+	}
+
+	/**
+	 * Check the precondition holds in a given frame.
+	 *
+	 * @param frame
+	 */
+	public void checkRequires(CallStack frame) {
+		checkInvariants(requires, context.getRequires(), frame);
+	}
+
+	/**
+	 * Execute the body in a given frame. Upon returning, the return values are
+	 * held in the frame.
+	 *
+	 * @param frame
+	 */
+	public void execute(CallStack frame) {
+		BytecodeCompiler.Compiled method = compiled;
+		if (method == null && isHot()) {
+			method = compile();
+		}
+		if (method != null) {
+			method.execute(frame);
+		} else {
+			body.execute(frame);
+		}
+	}
+
+	private boolean isHot() {
+		int threshold = interpreter.getCompileThreshold();
+		return threshold > 0 && !attempted && ++invocations >= threshold && interpreter.getProfiler() == null;
+	}
+
+	/**
+	 * Attempt to compile the body into JVM bytecode, which is done at most
+	 * once.
+	 *
+	 * @return The compiled body, or null if it could not be compiled.
+	 */
+	private synchronized BytecodeCompiler.Compiled compile() {
+		if (!attempted) {
+			compiled = BytecodeCompiler.compile(interpreter, context);
+			attempted = true;
+		}
+		return compiled;
+	}
+
+	/**
+	 * Check the postcondition holds in a given frame.
+	 *
+	 * @param frame
+	 */
+	public void checkEnsures(CallStack frame) {
+		checkInvariants(ensures, context.getEnsures(), frame);
+	}
+
+	private static void checkInvariants(Expression[] invariants, Tuple<Expr> conditions, CallStack frame) {
+		for (int i = 0; i != invariants.length; ++i) {
+			if (invariants[i].evaluate(frame) == RValue.False) {
+				throw Interpreter.assertionFailure(conditions.get(i));
+			}
+		}
+	}
+
+	// =============================================================
+	// Statements
+	// =============================================================
+
+	private Statement compileStatement(Stmt stmt) {
+		switch (stmt.getOpcode()) {
+		case WhileyFile.STMT_assert:
+			return compileAssert(((Stmt.Assert) stmt).getCondition());
+		case WhileyFile.STMT_assume:
+			return compileAssert(((Stmt.Assume) stmt).getCondition());
+		case WhileyFile.STMT_assign:
+			return compileAssign((Stmt.Assign) stmt);
+		case WhileyFile.STMT_block:
+			return compileBlock((Stmt.Block) stmt);
+		case WhileyFile.STMT_break:
+			return Jump.BREAK;
+		case WhileyFile.STMT_continue:
+			return Jump.CONTINUE;
+		case WhileyFile.STMT_debug:
+			return new Debug(compileExpression(((Stmt.Debug) stmt).getOperand()));
+		case WhileyFile.STMT_dowhile: {
+			Stmt.DoWhile s = (Stmt.DoWhile) stmt;
+			return new DoWhile(compileExpression(s.getCondition()), compileBlock(s.getBody()), getLoop(s));
+		}
+		case WhileyFile.STMT_fail:
+			return new Fail();
+		case WhileyFile.STMT_if:
+		case WhileyFile.STMT_ifelse: {
+			Stmt.IfElse s = (Stmt.IfElse) stmt;
+			Statement falseBranch = s.hasFalseBranch() ? compileBlock(s.getFalseBranch()) : null;
+			return new IfElse(compileExpression(s.getCondition()), compileBlock(s.getTrueBranch()), falseBranch);
+		}
+		case WhileyFile.EXPR_indirectinvoke:
+		case WhileyFile.EXPR_invoke:
+			return new Evaluate(compileExpression((Expr) stmt));
+		case WhileyFile.STMT_namedblock:
+			return compileBlock(((Stmt.NamedBlock) stmt).getBlock());
+		case WhileyFile.STMT_while: {
+			Stmt.While s = (Stmt.While) stmt;
+			return new While(compileExpression(s.getCondition()), compileBlock(s.getBody()), getLoop(s));
+		}
+		case WhileyFile.STMT_return:
+			return compileReturn((Stmt.Return) stmt);
+		case WhileyFile.STMT_skip:
+			return Jump.NEXT;
+		case WhileyFile.STMT_switch:
+			return compileSwitch((Stmt.Switch) stmt);
+		case WhileyFile.DECL_variableinitialiser:
+		case WhileyFile.DECL_variable: {
+			Decl.Variable s = (Decl.Variable) stmt;
+			if (s.hasInitialiser()) {
+				return new Store(getSlot(s), compileExpression(s.getInitialiser()));
+			} else {
+				return Jump.NEXT;
+			}
+		}
+		default:
+			throw new RuntimeException("internal failure --- dead code reached");
+		}
+	}
+
+	private Block compileBlock(Stmt.Block block) {
+		Statement[] stmts = new Statement[block.size()];
+		for (int i = 0; i != stmts.length; ++i) {
+			stmts[i] = compileStatement(block.get(i));
+		}
+		return new Block(stmts);
+	}
+
+	private Statement compileAssert(Expr condition) {
+		return new Assert(condition, compileExpression(condition));
+	}
+
+	private Statement compileAssign(Stmt.Assign stmt) {
+		Tuple<LVal> lhs = stmt.getLeftHandSide();
+		Expression[] rhs = compileExpressions(stmt.getRightHandSide());
+		if (lhs.size() == 1 && rhs.length == 1 && lhs.get(0) instanceof Expr.VariableAccess) {
+			// Simple assignment to a local variable
+			Decl.Variable var = ((Expr.VariableAccess) lhs.get(0)).getVariableDeclaration();
+			int slot = getSlot(var);
+			if (slot >= 0) {
+				return new Store(slot, rhs[0]);
+			}
+		}
+		Location[] lvals = new Location[lhs.size()];
+		for (int i = 0; i != lvals.length; ++i) {
+			lvals[i] = compileLocation(lhs.get(i));
+		}
+		return new Assign(lvals, rhs);
+	}
+
+	private Statement compileReturn(Stmt.Return stmt) {
+		Tuple<Decl.Variable> returns = context.getReturns();
+		int[] slots = new int[returns.size()];
+		for (int i = 0; i != slots.length; ++i) {
+			slots[i] = getSlot(returns.get(i));
+		}
+		return new Return(slots, compileExpressions(stmt.getReturns()));
+	}
+
+	private Statement compileSwitch(Stmt.Switch stmt) {
+		Tuple<Stmt.Case> cases = stmt.getCases();
+		Expression[][] conditions = new Expression[cases.size()][];
+		Block[] blocks = new Block[cases.size()];
+		for (int i = 0; i != blocks.length; ++i) {
+			Stmt.Case c = cases.get(i);
+			// NOTE: a default case is identified by having no conditions
+			conditions[i] = c.isDefault() ? null : compileExpressions(c.getConditions());
+			blocks[i] = compileBlock(c.getBlock());
+		}
+		return new Switch(compileExpression(stmt.getCondition()), conditions, blocks);
+	}
+
+	/**
+	 * A compiled statement. Executing this produces a status which determines
+	 * how control continues.
+	 */
+	private static abstract class Statement {
+		public abstract Status execute(CallStack frame);
+	}
+
+	private static final class Block extends Statement {
+		private final Statement[] stmts;
+
+		public Block(Statement[] stmts) {
+			this.stmts = stmts;
+		}
+
+		@Override
+		public Status execute(CallStack frame) {
+			for (int i = 0; i != stmts.length; ++i) {
+				Status r = stmts[i].execute(frame);
+				if (r != Status.NEXT) {
+					return r;
+				}
+			}
+			return Status.NEXT;
+		}
+	}
+
+	/**
+	 * A statement which does nothing except transfer control (e.g. break or
+	 * continue).
+	 */
+	private static final class Jump extends Statement {
+		public static final Jump NEXT = new Jump(Status.NEXT);
+		public static final Jump BREAK = new Jump(Status.BREAK);
+		public static final Jump CONTINUE = new Jump(Status.CONTINUE);
+
+		private final Status status;
+
+		private Jump(Status status) {
+			this.status = status;
+		}
+
+		@Override
+		public Status execute(CallStack frame) {
+			return status;
+		}
+	}
+
+	private static final class Assert extends Statement {
+		private final Expr source;
+		private final Expression condition;
+
+		public Assert(Expr source, Expression condition) {
+			this.source = source;
+			this.condition = condition;
+		}
+
+		@Override
+		public Status execute(CallStack frame) {
+			if (condition.evaluate(frame) == RValue.False) {
+				throw Interpreter.assertionFailure(source);
+			}
+			return Status.NEXT;
+		}
+	}
+
+	private static final class Fail extends Statement {
+		@Override
+		public Status execute(CallStack frame) {
+			throw new AssertionError("Runtime fault occurred");
+		}
+	}
+
+	private final class Debug extends Statement {
+		private final Expression operand;
+
+		public Debug(Expression operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public Status execute(CallStack frame) {
+			PrintStream debug = interpreter.getDebugStream();
+			RValue.Array arr = (RValue.Array) operand.evaluate(frame);
+			for (RValue item : arr.getElements()) {
+				RValue.Int i = (RValue.Int) item;
+				debug.print((char) i.intValue());
+			}
+			return Status.NEXT;
+		}
+	}
+
+	/**
+	 * Evaluate an expression for its side-effects only (e.g. a method
+	 * invocation), discarding any values produced.
+	 */
+	private static final class Evaluate extends Statement {
+		private final Expression expr;
+
+		public Evaluate(Expression expr) {
+			this.expr = expr;
+		}
+
+		@Override
+		public Status execute(CallStack frame) {
+			expr.evaluateAll(frame);
+			return Status.NEXT;
+		}
+	}
+
+	private static final class IfElse extends Statement {
+		private final Expression condition;
+		private final Statement trueBranch;
+		private final Statement falseBranch;
+
+		public IfElse(Expression condition, Statement trueBranch, Statement falseBranch) {
+			this.condition = condition;
+			this.trueBranch = trueBranch;
+			this.falseBranch = falseBranch;
+		}
+
+		@Override
+		public Status execute(CallStack frame) {
+			if (condition.evaluate(frame) == RValue.True) {
+				return trueBranch.execute(frame);
+			} else if (falseBranch != null) {
+				return falseBranch.execute(frame);
+			} else {
+				return Status.NEXT;
+			}
+		}
+	}
+
+	private static final class While extends Statement {
+		private final Expression condition;
+		private final Statement body;
+		/**
+		 * Counts iterations of this loop, or null if not profiling.
+		 */
+		private final Profiler.Loop loop;
+
+		public While(Expression condition, Statement body, Profiler.Loop loop) {
+			this.condition = condition;
+			this.body = body;
+			this.loop = loop;
+		}
+
+		@Override
+		public Status execute(CallStack frame) {
+			Status r;
+			do {
+				if (condition.evaluate(frame) == RValue.False) {
+					return Status.NEXT;
+				} else if (loop != null) {
+					loop.iterate();
+				}
+				r = body.execute(frame);
+			} while (r == Status.NEXT || r == Status.CONTINUE);
+			return r == Status.BREAK ? Status.NEXT : r;
+		}
+	}
+
+	private static final class DoWhile extends Statement {
+		private final Expression condition;
+		private final Statement body;
+		/**
+		 * Counts iterations of this loop, or null if not profiling.
+		 */
+		private final Profiler.Loop loop;
+
+		public DoWhile(Expression condition, Statement body, Profiler.Loop loop) {
+			this.condition = condition;
+			this.body = body;
+			this.loop = loop;
+		}
+
+		@Override
+		public Status execute(CallStack frame) {
+			Status r = Status.NEXT;
+			while (r == Status.NEXT || r == Status.CONTINUE) {
+				if (loop != null) {
+					loop.iterate();
+				}
+				r = body.execute(frame);
+				if (r == Status.NEXT && condition.evaluate(frame) == RValue.False) {
+					return Status.NEXT;
+				}
+			}
+			return r == Status.BREAK ? Status.NEXT : r;
+		}
+	}
+
+	private static final class Switch extends Statement {
+		private final Expression condition;
+		private final Expression[][] conditions;
+		private final Block[] blocks;
+
+		public Switch(Expression condition, Expression[][] conditions, Block[] blocks) {
+			this.condition = condition;
+			this.conditions = conditions;
+			this.blocks = blocks;
+		}
+
+		@Override
+		public Status execute(CallStack frame) {
+			RValue value = condition.evaluate(frame);
+			for (int i = 0; i != blocks.length; ++i) {
+				Expression[] cs = conditions[i];
+				if (cs == null) {
+					return blocks[i].execute(frame);
+				}
+				RValue[] values = evaluateAll(cs, frame);
+				for (int j = 0; j != values.length; ++j) {
+					if (values[j].equals(value)) {
+						return blocks[i].execute(frame);
+					}
+				}
+			}
+			return Status.NEXT;
+		}
+	}
+
+	/**
+	 * Assign a single value to a local variable.
+	 */
+	private static final class Store extends Statement {
+		private final int slot;
+		private final Expression rhs;
+
+		public Store(int slot, Expression rhs) {
+			this.slot = slot;
+			this.rhs = rhs;
+		}
+
+		@Override
+		public Status execute(CallStack frame) {
+			frame.putLocal(slot, rhs.evaluate(frame));
+			return Status.NEXT;
+		}
+	}
+
+	private static final class Assign extends Statement {
+		private final Location[] lhs;
+		private final Expression[] rhs;
+
+		public Assign(Location[] lhs, Expression[] rhs) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		@Override
+		public Status execute(CallStack frame) {
+			// NOTE: all right-hand sides are evaluated before any assignment
+			RValue[] values = evaluateAll(rhs, frame);
+			for (int i = 0; i != lhs.length; ++i) {
+				lhs[i].construct(frame).write(frame, values[i]);
+			}
+			return Status.NEXT;
+		}
+	}
+
+	private static final class Return extends Statement {
+		private final int[] slots;
+		private final Expression[] returns;
+
+		public Return(int[] slots, Expression[] returns) {
+			this.slots = slots;
+			this.returns = returns;
+		}
+
+		@Override
+		public Status execute(CallStack frame) {
+			RValue[] values = evaluateAll(returns, frame);
+			for (int i = 0; i != slots.length; ++i) {
+				frame.putLocal(slots[i], values[i]);
+			}
+			return Status.RETURN;
+		}
+	}
+
+	// =============================================================
+	// Locations
+	// =============================================================
+
+	private Location compileLocation(Expr expr) {
+		switch (expr.getOpcode()) {
+		case WhileyFile.EXPR_arrayborrow:
+		case WhileyFile.EXPR_arrayaccess: {
+			Expr.ArrayAccess e = (Expr.ArrayAccess) expr;
+			return new ArrayLocation(compileLocation(e.getFirstOperand()), compileExpression(e.getSecondOperand()));
+		}
+		case WhileyFile.EXPR_dereference: {
+			Expr.Dereference e = (Expr.Dereference) expr;
+			return new DereferenceLocation(compileLocation(e.getOperand()));
+		}
+		case WhileyFile.EXPR_recordaccess:
+		case WhileyFile.EXPR_recordborrow: {
+			Expr.RecordAccess e = (Expr.RecordAccess) expr;
+			return new RecordLocation(compileLocation(e.getOperand()), e.getField());
+		}
+		case WhileyFile.EXPR_variablemove:
+		case WhileyFile.EXPR_variablecopy: {
+			Expr.VariableAccess e = (Expr.VariableAccess) expr;
+			return new VariableLocation(new LValue.Variable(e.getVariableDeclaration()));
+		}
+		default:
+			throw new RuntimeException("internal failure --- dead code reached");
+		}
+	}
+
+	/**
+	 * A compiled left-hand side of an assignment. This constructs the
+	 * corresponding lval, evaluating any index expressions it contains.
+	 */
+	private static abstract class Location {
+		public abstract LValue construct(CallStack frame);
+	}
+
+	private static final class VariableLocation extends Location {
+		private final LValue.Variable lval;
+
+		public VariableLocation(LValue.Variable lval) {
+			this.lval = lval;
+		}
+
+		@Override
+		public LValue construct(CallStack frame) {
+			return lval;
+		}
+	}
+
+	private static final class ArrayLocation extends Location {
+		private final Location src;
+		private final Expression index;
+
+		public ArrayLocation(Location src, Expression index) {
+			this.src = src;
+			this.index = index;
+		}
+
+		@Override
+		public LValue construct(CallStack frame) {
+			LValue lval = src.construct(frame);
+			return new LValue.Array(lval, (RValue.Int) index.evaluate(frame));
+		}
+	}
+
+	private static final class RecordLocation extends Location {
+		private final Location src;
+		private final Identifier field;
+
+		public RecordLocation(Location src, Identifier field) {
+			this.src = src;
+			this.field = field;
+		}
+
+		@Override
+		public LValue construct(CallStack frame) {
+			return new LValue.Record(src.construct(frame), field);
+		}
+	}
+
+	private static final class DereferenceLocation extends Location {
+		private final Location src;
+
+		public DereferenceLocation(Location src) {
+			this.src = src;
+		}
+
+		@Override
+		public LValue construct(CallStack frame) {
+			return new LValue.Dereference(src.construct(frame));
+		}
+	}
+
+	// =============================================================
+	// Expressions
+	// =============================================================
+
+	private Expression[] compileExpressions(Tuple<Expr> exprs) {
+		Expression[] es = new Expression[exprs.size()];
+		for (int i = 0; i != es.length; ++i) {
+			es[i] = compileExpression(exprs.get(i));
+		}
+		return es;
+	}
+
+	private Expression compileExpression(Expr expr) {
+		switch (expr.getOpcode()) {
+		case WhileyFile.EXPR_constant:
+			return new Constant(interpreter.executeConst((Expr.Constant) expr));
+		case WhileyFile.EXPR_variablemove:
+		case WhileyFile.EXPR_variablecopy: {
+			Expr.VariableAccess e = (Expr.VariableAccess) expr;
+			int slot = getSlot(e.getVariableDeclaration());
+			if (slot < 0) {
+				break;
+			} else if (e.getOpcode() == WhileyFile.EXPR_variablecopy) {
+				return new Copy(slot);
+			} else {
+				return new Move(slot);
+			}
+		}
+		case WhileyFile.EXPR_invoke:
+			return new Invoke((Expr.Invoke) expr, compileExpressions(((Expr.Invoke) expr).getOperands()));
+		case WhileyFile.EXPR_logicalnot:
+			return new LogicalNot(compileExpression(((Expr.LogicalNot) expr).getOperand()));
+		case WhileyFile.EXPR_logicaland:
+			return new LogicalAnd(compileExpressions(((Expr.LogicalAnd) expr).getOperands()));
+		case WhileyFile.EXPR_logicalor:
+			return new LogicalOr(compileExpressions(((Expr.LogicalOr) expr).getOperands()));
+		case WhileyFile.EXPR_logiaclimplication: {
+			Expr.LogicalImplication e = (Expr.LogicalImplication) expr;
+			return new LogicalImplication(compileExpression(e.getFirstOperand()),
+					compileExpression(e.getSecondOperand()));
+		}
+		case WhileyFile.EXPR_logicaluniversal:
+		case WhileyFile.EXPR_logicalexistential: {
+			Expression e = compileQuantifier((Expr.Quantifier) expr);
+			if (e != null) {
+				return e;
+			}
+			break;
+		}
+		case WhileyFile.EXPR_is: {
+			Expr.Is e = (Expr.Is) expr;
+			return new Is(e, compileExpression(e.getOperand()), interpreter.getTypeTest(e.getTestType()));
+		}
+		case WhileyFile.EXPR_equal: {
+			Expr.Equal e = (Expr.Equal) expr;
+			return new Equal(compileExpression(e.getFirstOperand()), compileExpression(e.getSecondOperand()), true);
+		}
+		case WhileyFile.EXPR_notequal: {
+			Expr.NotEqual e = (Expr.NotEqual) expr;
+			return new Equal(compileExpression(e.getFirstOperand()), compileExpression(e.getSecondOperand()), false);
+		}
+		case WhileyFile.EXPR_integernegation:
+			return new IntegerNegation(compileExpression(((Expr.IntegerNegation) expr).getOperand()));
+		case WhileyFile.EXPR_integeraddition:
+		case WhileyFile.EXPR_integersubtraction:
+		case WhileyFile.EXPR_integermultiplication:
+		case WhileyFile.EXPR_integerdivision:
+		case WhileyFile.EXPR_integerremainder:
+		case WhileyFile.EXPR_integerlessthan:
+		case WhileyFile.EXPR_integerlessequal:
+		case WhileyFile.EXPR_integergreaterthan:
+		case WhileyFile.EXPR_integergreaterequal:
+			return compileIntegerOperator((Expr.BinaryOperator) expr);
+		case WhileyFile.EXPR_arrayborrow:
+		case WhileyFile.EXPR_arrayaccess: {
+			Expr.ArrayAccess e = (Expr.ArrayAccess) expr;
+			return new ArrayAccess(compileExpression(e.getFirstOperand()), compileExpression(e.getSecondOperand()),
+					e.getOpcode() == WhileyFile.EXPR_arrayaccess);
+		}
+		case WhileyFile.EXPR_arraylength:
+			return new ArrayLength(compileExpression(((Expr.ArrayLength) expr).getOperand()));
+		case WhileyFile.EXPR_arrayinitialiser:
+			return new ArrayInitialiser(compileExpressions(((Expr.ArrayInitialiser) expr).getOperands()));
+		case WhileyFile.EXPR_arraygenerator: {
+			Expr.ArrayGenerator e = (Expr.ArrayGenerator) expr;
+			return new ArrayGenerator(compileExpression(e.getFirstOperand()), compileExpression(e.getSecondOperand()));
+		}
+		case WhileyFile.EXPR_recordaccess:
+		case WhileyFile.EXPR_recordborrow: {
+			Expr.RecordAccess e = (Expr.RecordAccess) expr;
+			return new RecordAccess(compileExpression(e.getOperand()), e.getField().get(),
+					e.getOpcode() == WhileyFile.EXPR_recordaccess);
+		}
+		case WhileyFile.EXPR_recordinitialiser:
+			return compileRecordInitialiser((Expr.RecordInitialiser) expr);
+		}
+		// Everything else is left to the tree-walking interpreter
+		return new Fallback(expr);
+	}
+
+	private Expression compileIntegerOperator(Expr.BinaryOperator expr) {
+		Expression lhs = compileExpression(expr.getFirstOperand());
+		Expression rhs = compileExpression(expr.getSecondOperand());
+		switch (expr.getOpcode()) {
+		case WhileyFile.EXPR_integeraddition:
+			if (lhs instanceof Move && rhs instanceof Move) {
+				return new IntegerAdditionOfLocals(((Move) lhs).slot, ((Move) rhs).slot);
+			}
+			return new IntegerAddition(lhs, rhs);
+		case WhileyFile.EXPR_integersubtraction:
+			return new IntegerSubtraction(lhs, rhs);
+		case WhileyFile.EXPR_integermultiplication:
+			return new IntegerMultiplication(lhs, rhs);
+		case WhileyFile.EXPR_integerdivision:
+			return new IntegerDivision(lhs, rhs);
+		case WhileyFile.EXPR_integerremainder:
+			return new IntegerRemainder(lhs, rhs);
+		case WhileyFile.EXPR_integerlessthan:
+			if (lhs instanceof Move && rhs instanceof Move) {
+				return new IntegerLessThanOfLocals(((Move) lhs).slot, ((Move) rhs).slot);
+			}
+			return new IntegerLessThan(lhs, rhs, false);
+		case WhileyFile.EXPR_integerlessequal:
+			return new IntegerLessThanOrEqual(lhs, rhs, false);
+		case WhileyFile.EXPR_integergreaterthan:
+			return new IntegerLessThan(lhs, rhs, true);
+		default:
+			return new IntegerLessThanOrEqual(lhs, rhs, true);
+		}
+	}
+
+	/**
+	 * Compile a quantifier, or return null if one of its variables has no slot
+	 * (in which case it is left to the tree-walking interpreter).
+	 *
+	 * @param expr
+	 * @return
+	 */
+	private Expression compileQuantifier(Expr.Quantifier expr) {
+		Tuple<Decl.Variable> parameters = expr.getParameters();
+		Range[] ranges = new Range[parameters.size()];
+		for (int i = 0; i != ranges.length; ++i) {
+			Decl.Variable var = parameters.get(i);
+			int slot = getSlot(var);
+			if (slot < 0) {
+				return null;
+			}
+			Expr initialiser = var.getInitialiser();
+			if (initialiser.getOpcode() == WhileyFile.EXPR_arrayrange) {
+				Expr.ArrayRange r = (Expr.ArrayRange) initialiser;
+				ranges[i] = new Range(slot, compileExpression(r.getFirstOperand()),
+						compileExpression(r.getSecondOperand()), null);
+			} else {
+				ranges[i] = new Range(slot, null, null, compileExpression(initialiser));
+			}
+		}
+		boolean universal = expr instanceof Expr.UniversalQuantifier;
+		return new Quantifier(expr, ranges, compileExpression(expr.getOperand()), universal);
+	}
+
+	private Expression compileRecordInitialiser(Expr.RecordInitialiser expr) {
+		Tuple<Identifier> fields = expr.getFields();
+		String[] names = new String[fields.size()];
+		for (int i = 0; i != names.length; ++i) {
+			names[i] = fields.get(i).get();
+		}
+		RValue.Record.Shape shape = RValue.Record.Shape.get(names);
+		int[] slots = new int[names.length];
+		for (int i = 0; i != slots.length; ++i) {
+			slots[i] = shape.indexOf(names[i]);
+		}
+		return new RecordInitialiser(shape, slots, compileExpressions(expr.getOperands()));
+	}
+
+	/**
+	 * A compiled expression. Expressions normally produce exactly one value
+	 * though, for example, an invocation may produce several.
+	 */
+	private static abstract class Expression {
+		/**
+		 * Evaluate this expression, which must produce exactly one value.
+		 *
+		 * @param frame
+		 * @return
+		 */
+		public abstract RValue evaluate(CallStack frame);
+
+		/**
+		 * Evaluate this expression producing zero or more values.
+		 *
+		 * @param frame
+		 * @return
+		 */
+		public RValue[] evaluateAll(CallStack frame) {
+			return new RValue[] { evaluate(frame) };
+		}
+
+		/**
+		 * Determine whether this expression may produce other than exactly one
+		 * value.
+		 *
+		 * @return
+		 */
+		public boolean isMultiValued() {
+			return false;
+		}
+	}
+
+	/**
+	 * Evaluate zero or more expressions, where an expression producing several
+	 * values contributes all of them (in order).
+	 *
+	 * @param exprs
+	 * @param frame
+	 * @return
+	 */
+	private static RValue[] evaluateAll(Expression[] exprs, CallStack frame) {
+		RValue[][] results = null;
+		int count = 0;
+		for (int i = 0; i != exprs.length; ++i) {
+			if (exprs[i].isMultiValued()) {
+				if (results == null) {
+					results = new RValue[exprs.length][];
+				}
+				results[i] = exprs[i].evaluateAll(frame);
+				count += results[i].length;
+			} else {
+				count++;
+			}
+		}
+		// NOTE: the common case is that every expression produces exactly one
+		// value. However, since multi-valued expressions were evaluated above
+		// they cannot be evaluated again here.
+		RValue[] values = new RValue[count];
+		for (int i = 0, j = 0; i != exprs.length; ++i) {
+			if (results != null && results[i] != null) {
+				System.arraycopy(results[i], 0, values, j, results[i].length);
+				j += results[i].length;
+			} else {
+				values[j++] = exprs[i].evaluate(frame);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Delegates evaluation of an expression to the tree-walking interpreter.
+	 */
+	private final class Fallback extends Expression {
+		private final Expr expr;
+
+		public Fallback(Expr expr) {
+			this.expr = expr;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			return interpreter.executeExpression(RValue.class, expr, frame);
+		}
+
+		@Override
+		public RValue[] evaluateAll(CallStack frame) {
+			return interpreter.executeMultiReturnExpression(expr, frame);
+		}
+
+		@Override
+		public boolean isMultiValued() {
+			return expr.getOpcode() == WhileyFile.EXPR_indirectinvoke;
+		}
+	}
+
+	private static final class Constant extends Expression {
+		private final RValue value;
+
+		public Constant(RValue value) {
+			// NOTE: the same value is produced by every evaluation
+			this.value = value.share();
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			return value;
+		}
+	}
+
+	/**
+	 * Read a local variable which is not consumed.
+	 */
+	private static final class Move extends Expression {
+		private final int slot;
+
+		public Move(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			return frame.getLocal(slot);
+		}
+	}
+
+	/**
+	 * Read a local variable which is consumed whilst remaining live.
+	 */
+	private static final class Copy extends Expression {
+		private final int slot;
+
+		public Copy(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue value = frame.getLocal(slot);
+			return value == null ? null : value.share();
+		}
+	}
+
+	private final class Invoke extends Expression {
+		private final Expr.Invoke expr;
+		private final Expression[] operands;
+		private final boolean multiValued;
+		/**
+		 * The function or method invoked, which is resolved on first
+		 * evaluation.
+		 */
+		private volatile Decl.Callable target;
+
+		public Invoke(Expr.Invoke expr, Expression[] operands) {
+			this.expr = expr;
+			this.operands = operands;
+			this.multiValued = expr.getSignature().getReturns().size() != 1;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			return evaluateAll(frame)[0];
+		}
+
+		@Override
+		public RValue[] evaluateAll(CallStack frame) {
+			Decl.Callable decl = target;
+			if (decl == null) {
+				try {
+					decl = interpreter.resolveCallSite(expr);
+				} catch (ResolutionError e) {
+					Interpreter.error(e.getMessage(), expr);
+					return null;
+				}
+				target = decl;
+			}
+			RValue[] arguments = ExecutionTree.evaluateAll(operands, frame);
+			return interpreter.execute(decl, frame, arguments);
+		}
+
+		@Override
+		public boolean isMultiValued() {
+			return multiValued;
+		}
+	}
+
+	private static final class LogicalNot extends Expression {
+		private final Expression operand;
+
+		public LogicalNot(Expression operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			return ((RValue.Bool) operand.evaluate(frame)).not();
+		}
+	}
+
+	private static final class LogicalAnd extends Expression {
+		private final Expression[] operands;
+
+		public LogicalAnd(Expression[] operands) {
+			this.operands = operands;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			for (int i = 0; i != operands.length; ++i) {
+				if (operands[i].evaluate(frame) == RValue.False) {
+					return RValue.False;
+				}
+			}
+			return RValue.True;
+		}
+	}
+
+	private static final class LogicalOr extends Expression {
+		private final Expression[] operands;
+
+		public LogicalOr(Expression[] operands) {
+			this.operands = operands;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			for (int i = 0; i != operands.length; ++i) {
+				if (operands[i].evaluate(frame) == RValue.True) {
+					return RValue.True;
+				}
+			}
+			return RValue.False;
+		}
+	}
+
+	private static final class LogicalImplication extends Expression {
+		private final Expression lhs;
+		private final Expression rhs;
+
+		public LogicalImplication(Expression lhs, Expression rhs) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			if (lhs.evaluate(frame) == RValue.False) {
+				return RValue.True;
+			} else {
+				return rhs.evaluate(frame);
+			}
+		}
+	}
+
+	/**
+	 * A quantifier over one or more ranges, which terminates as soon as its
+	 * outcome is known. A range of the form <code>a..b</code> is iterated
+	 * directly, rather than first constructing it as an array. Large ranges
+	 * of pure quantifiers are evaluated in parallel.
+	 */
+	private final class Quantifier extends Expression {
+		private final Expr.Quantifier expr;
+		private final Range[] ranges;
+		private final Expression body;
+		private final boolean universal;
+
+		public Quantifier(Expr.Quantifier expr, Range[] ranges, Expression body, boolean universal) {
+			this.expr = expr;
+			this.ranges = ranges;
+			this.body = body;
+			this.universal = universal;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			return iterate(0, frame) == universal ? RValue.True : RValue.False;
+		}
+
+		/**
+		 * Iterate a given range, or evaluate the body if none remain. This
+		 * returns false if the quantifier should terminate early.
+		 *
+		 * @param index
+		 * @param frame
+		 * @return
+		 */
+		private boolean iterate(int index, CallStack frame) {
+			if (index == ranges.length) {
+				return (body.evaluate(frame) == RValue.True) == universal;
+			}
+			Range range = ranges[index];
+			if (range.source == null) {
+				int start = ((RValue.Int) range.start.evaluate(frame)).intValue();
+				int end = ((RValue.Int) range.end.evaluate(frame)).intValue();
+				if (end < start) {
+					// Fail exactly as constructing the range would
+					throw new NegativeArraySizeException(Integer.toString(end - start));
+				} else if (interpreter.isParallel(expr, end - start)) {
+					return ParallelQuantifier.evaluate(frame, end - start, (f, i) -> {
+						f.putLocal(range.slot, interpreter.getSemantics().Int(start + i));
+						return iterate(index + 1, f);
+					});
+				}
+				for (int i = start; i < end; ++i) {
+					frame.putLocal(range.slot, interpreter.getSemantics().Int(i));
+					if (!iterate(index + 1, frame)) {
+						return false;
+					}
+				}
+			} else {
+				RValue[] elements = ((RValue.Array) range.source.evaluate(frame)).getElements();
+				if (interpreter.isParallel(expr, elements.length)) {
+					return ParallelQuantifier.evaluate(frame, elements.length, (f, i) -> {
+						f.putLocal(range.slot, elements[i]);
+						return iterate(index + 1, f);
+					});
+				}
+				for (int i = 0; i != elements.length; ++i) {
+					frame.putLocal(range.slot, elements[i]);
+					if (!iterate(index + 1, frame)) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A quantified variable, which ranges either from a start to an end
+	 * integer, or over the elements of a source array.
+	 */
+	private static final class Range {
+		private final int slot;
+		private final Expression start;
+		private final Expression end;
+		private final Expression source;
+
+		public Range(int slot, Expression start, Expression end, Expression source) {
+			this.slot = slot;
+			this.start = start;
+			this.end = end;
+			this.source = source;
+		}
+	}
+
+	private static final class Is extends Expression {
+		private final Expr.Is expr;
+		private final Expression operand;
+		private final TypeTest test;
+
+		public Is(Expr.Is expr, Expression operand, TypeTest test) {
+			this.expr = expr;
+			this.operand = operand;
+			this.test = test;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			try {
+				return test.test(operand.evaluate(frame)) ? RValue.True : RValue.False;
+			} catch (ResolutionError e) {
+				Interpreter.error(e.getMessage(), expr);
+				return null;
+			}
+		}
+	}
+
+	private static final class Equal extends Expression {
+		private final Expression lhs;
+		private final Expression rhs;
+		private final boolean sign;
+
+		public Equal(Expression lhs, Expression rhs, boolean sign) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+			this.sign = sign;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue l = lhs.evaluate(frame);
+			RValue r = rhs.evaluate(frame);
+			return l.equals(r) == sign ? RValue.True : RValue.False;
+		}
+	}
+
+	private static final class IntegerNegation extends Expression {
+		private final Expression operand;
+
+		public IntegerNegation(Expression operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			return ((RValue.Int) operand.evaluate(frame)).negate();
+		}
+	}
+
+	private static final class IntegerAddition extends Expression {
+		private final Expression lhs;
+		private final Expression rhs;
+
+		public IntegerAddition(Expression lhs, Expression rhs) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue.Int l = (RValue.Int) lhs.evaluate(frame);
+			return l.add((RValue.Int) rhs.evaluate(frame));
+		}
+	}
+
+	/**
+	 * Add two local variables, which is common enough to warrant avoiding the
+	 * evaluation of either operand.
+	 */
+	private static final class IntegerAdditionOfLocals extends Expression {
+		private final int lhs;
+		private final int rhs;
+
+		public IntegerAdditionOfLocals(int lhs, int rhs) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue.Int l = (RValue.Int) frame.getLocal(lhs);
+			return l.add((RValue.Int) frame.getLocal(rhs));
+		}
+	}
+
+	private static final class IntegerSubtraction extends Expression {
+		private final Expression lhs;
+		private final Expression rhs;
+
+		public IntegerSubtraction(Expression lhs, Expression rhs) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue.Int l = (RValue.Int) lhs.evaluate(frame);
+			return l.subtract((RValue.Int) rhs.evaluate(frame));
+		}
+	}
+
+	private static final class IntegerMultiplication extends Expression {
+		private final Expression lhs;
+		private final Expression rhs;
+
+		public IntegerMultiplication(Expression lhs, Expression rhs) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue.Int l = (RValue.Int) lhs.evaluate(frame);
+			return l.multiply((RValue.Int) rhs.evaluate(frame));
+		}
+	}
+
+	private static final class IntegerDivision extends Expression {
+		private final Expression lhs;
+		private final Expression rhs;
+
+		public IntegerDivision(Expression lhs, Expression rhs) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue.Int l = (RValue.Int) lhs.evaluate(frame);
+			return l.divide((RValue.Int) rhs.evaluate(frame));
+		}
+	}
+
+	private static final class IntegerRemainder extends Expression {
+		private final Expression lhs;
+		private final Expression rhs;
+
+		public IntegerRemainder(Expression lhs, Expression rhs) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue.Int l = (RValue.Int) lhs.evaluate(frame);
+			return l.remainder((RValue.Int) rhs.evaluate(frame));
+		}
+	}
+
+	/**
+	 * Compare two integers, where the comparison is reversed for a greater than
+	 * operator (though operands are still evaluated from left to right).
+	 */
+	private static final class IntegerLessThan extends Expression {
+		private final Expression lhs;
+		private final Expression rhs;
+		private final boolean reversed;
+
+		public IntegerLessThan(Expression lhs, Expression rhs, boolean reversed) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+			this.reversed = reversed;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue.Int l = (RValue.Int) lhs.evaluate(frame);
+			RValue.Int r = (RValue.Int) rhs.evaluate(frame);
+			return reversed ? r.lessThan(l) : l.lessThan(r);
+		}
+	}
+
+	/**
+	 * Compare two local variables, which is common enough (e.g. in loop
+	 * conditions) to warrant avoiding the evaluation of either operand.
+	 */
+	private static final class IntegerLessThanOfLocals extends Expression {
+		private final int lhs;
+		private final int rhs;
+
+		public IntegerLessThanOfLocals(int lhs, int rhs) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue.Int l = (RValue.Int) frame.getLocal(lhs);
+			return l.lessThan((RValue.Int) frame.getLocal(rhs));
+		}
+	}
+
+	private static final class IntegerLessThanOrEqual extends Expression {
+		private final Expression lhs;
+		private final Expression rhs;
+		private final boolean reversed;
+
+		public IntegerLessThanOrEqual(Expression lhs, Expression rhs, boolean reversed) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+			this.reversed = reversed;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue.Int l = (RValue.Int) lhs.evaluate(frame);
+			RValue.Int r = (RValue.Int) rhs.evaluate(frame);
+			return reversed ? r.lessThanOrEqual(l) : l.lessThanOrEqual(r);
+		}
+	}
+
+	private static final class ArrayAccess extends Expression {
+		private final Expression source;
+		private final Expression index;
+		private final boolean consumed;
+
+		public ArrayAccess(Expression source, Expression index, boolean consumed) {
+			this.source = source;
+			this.index = index;
+			this.consumed = consumed;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue.Array array = (RValue.Array) source.evaluate(frame);
+			RValue value = array.read((RValue.Int) index.evaluate(frame));
+			return consumed ? value.share() : value;
+		}
+	}
+
+	private static final class ArrayLength extends Expression {
+		private final Expression operand;
+
+		public ArrayLength(Expression operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			return ((RValue.Array) operand.evaluate(frame)).length();
+		}
+	}
+
+	private final class ArrayInitialiser extends Expression {
+		private final Expression[] operands;
+
+		public ArrayInitialiser(Expression[] operands) {
+			this.operands = operands;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue[] elements = new RValue[operands.length];
+			for (int i = 0; i != elements.length; ++i) {
+				elements[i] = operands[i].evaluate(frame);
+			}
+			return interpreter.getSemantics().Array(elements);
+		}
+	}
+
+	private final class ArrayGenerator extends Expression {
+		private final Expression element;
+		private final Expression count;
+
+		public ArrayGenerator(Expression element, Expression count) {
+			this.element = element;
+			this.count = count;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue value = element.evaluate(frame);
+			int n = ((RValue.Int) count.evaluate(frame)).intValue();
+			if (n < 0) {
+				throw new AssertionError("negative array length");
+			}
+			RValue[] values = new RValue[n];
+			// Every element of the generated array is the same value
+			value.share();
+			for (int i = 0; i != n; ++i) {
+				values[i] = value;
+			}
+			return interpreter.getSemantics().Array(values);
+		}
+	}
+
+	private static final class RecordAccess extends Expression {
+		private final Expression operand;
+		private final String field;
+		private final boolean consumed;
+		/**
+		 * The slot of this field for the shape of record last accessed here.
+		 * Typically, every record accessed at a given site has the same shape.
+		 */
+		private volatile Slot cache;
+
+		public RecordAccess(Expression operand, String field, boolean consumed) {
+			this.operand = operand;
+			this.field = field;
+			this.consumed = consumed;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue.Record rec = (RValue.Record) operand.evaluate(frame);
+			RValue.Record.Shape shape = rec.getShape();
+			Slot slot = cache;
+			if (slot == null || slot.shape != shape) {
+				int index = shape.indexOf(field);
+				if (index < 0) {
+					throw new RuntimeException("Invalid record access");
+				}
+				slot = new Slot(shape, index);
+				cache = slot;
+			}
+			RValue value = rec.read(slot.index);
+			return consumed ? value.share() : value;
+		}
+
+		private static final class Slot {
+			private final RValue.Record.Shape shape;
+			private final int index;
+
+			public Slot(RValue.Record.Shape shape, int index) {
+				this.shape = shape;
+				this.index = index;
+			}
+		}
+	}
+
+	private final class RecordInitialiser extends Expression {
+		private final RValue.Record.Shape shape;
+		private final int[] slots;
+		private final Expression[] operands;
+
+		public RecordInitialiser(RValue.Record.Shape shape, int[] slots, Expression[] operands) {
+			this.shape = shape;
+			this.slots = slots;
+			this.operands = operands;
+		}
+
+		@Override
+		public RValue evaluate(CallStack frame) {
+			RValue[] values = new RValue[operands.length];
+			for (int i = 0; i != operands.length; ++i) {
+				values[slots[i]] = operands[i].evaluate(frame);
+			}
+			return interpreter.getSemantics().Record(shape, values);
+		}
+	}
+
+	// =============================================================
+	// Helpers
+	// =============================================================
+
+	/**
+	 * Get the iteration counter for a given loop, or null if not profiling.
+	 *
+	 * @param loop
+	 * @return
+	 */
+	private Profiler.Loop getLoop(Stmt loop) {
+		Profiler profiler = interpreter.getProfiler();
+		return profiler == null ? null : profiler.getLoop(loop);
+	}
+
+	private int getSlot(Decl.Variable variable) {
+		return interpreter.getSlot(context, variable);
+	}
+}
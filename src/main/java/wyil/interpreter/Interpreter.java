@@ -15,8 +15,8 @@ package wyil.interpreter;
 
 import java.io.IOException;
 import java.io.PrintStream;
-import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import wybs.lang.Build;
 import wybs.lang.NameID;
@@ -24,6 +24,7 @@ import wybs.lang.NameResolver;
 import wybs.lang.NameResolver.ResolutionError;
 import wybs.lang.SyntacticElement;
 import wyfs.lang.Path;
+import wyc.util.AbstractVisitor;
 import wyc.util.WhileyFileResolver;
 
 import static wyc.lang.WhileyFile.*;
@@ -49,6 +50,18 @@ import wyc.lang.WhileyFile.Decl;
  *
  */
 public class Interpreter {
+	/**
+	 * The number of times a function or method is executed before its body is
+	 * compiled into JVM bytecode, when this is enabled.
+	 */
+	public static final int DEFAULT_COMPILE_THRESHOLD = 1000;
+	/**
+	 * The smallest range of a quantifier which is evaluated in parallel, when
+	 * this is enabled.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+	public static final int DEFAULT_MEMO_CAPACITY = 1024;
+
 	/**
 	 * The build project provides access to compiled WyIL files.
 	 */
@@ -70,14 +83,102 @@ public class Interpreter {
 	 */
 	private final PrintStream debug;
 
+	/**
+	 * Caches the frame layout determined for each function, method or
+	 * property.
+	 */
+	private final IdentityHashMap<Decl.Callable, Layout> layouts = new IdentityHashMap<>();
+
+	/**
+	 * Caches the binary modules loaded by this interpreter.
+	 */
+	private final HashMap<Path.ID, Module> binaries = new HashMap<>();
+
+	/**
+	 * Caches the function or method resolved for each call site.
+	 */
+	private final IdentityHashMap<Expr.Invoke, Decl.Callable> callSites = new IdentityHashMap<>();
+
+	/**
+	 * Holds the value of each constant expression. Since these values are
+	 * shared, the same value can be produced by every evaluation. The constant
+	 * pool of each module is added when the module is loaded. This map is never
+	 * modified once published and, hence, can be read without locking. Instead,
+	 * it is replaced by a larger copy when a module is loaded.
+	 */
+	private volatile IdentityHashMap<Expr.Constant, RValue> constants = new IdentityHashMap<>();
+
+	/**
+	 * Holds the value of each constant expression encountered outside any module
+	 * loaded by this interpreter. Since the value of a constant is determined by
+	 * its structure alone, these are compared structurally.
+	 */
+	private final ConcurrentHashMap<Expr.Constant, RValue> foreignConstants = new ConcurrentHashMap<>();
+
+	/**
+	 * Caches the execution tree compiled for each function or method.
+	 */
+	private final IdentityHashMap<Decl.FunctionOrMethod, ExecutionTree> trees = new IdentityHashMap<>();
+
+	/**
+	 * Caches the plan compiled for each type tested at runtime.
+	 */
+	private final TypeTest.Cache typeTests = new TypeTest.Cache(this);
+
+	/**
+	 * Caches whether or not each quantifier is pure and, hence, can be
+	 * evaluated in parallel.
+	 */
+	private final IdentityHashMap<Expr.Quantifier, Boolean> pureQuantifiers = new IdentityHashMap<>();
+
+	/**
+	 * The smallest range of a quantifier which is evaluated in parallel, or
+	 * zero if this is disabled (the default).
+	 */
+	private volatile int parallelThreshold = 0;
+
+	/**
+	 * Holds the table of values returned by each function for the arguments it
+	 * has been called with.
+	 */
+	private final IdentityHashMap<Decl.Function, MemoTable> memoTables = new IdentityHashMap<>();
+
+	/**
+	 * The maximum number of calls recorded for each function, or zero if
+	 * functions are not memoized.
+	 */
+	private volatile int memoCapacity = 0;
+
+	/**
+	 * Records where time goes during execution, or null if this is disabled.
+	 */
+	private volatile Profiler profiler;
+
+	/**
+	 * Determines whether function and method bodies are compiled into execution
+	 * trees, or executed by walking them directly.
+	 */
+	private volatile boolean compiled = true;
+
+	/**
+	 * The number of times a function or method is executed before its body is
+	 * compiled into JVM bytecode, or zero if this is disabled (the default).
+	 * This only applies when bodies are compiled into execution trees.
+	 */
+	private volatile int compileThreshold = 0;
+
 	public Interpreter(Build.Project project, PrintStream debug) {
+		this(project, new WhileyFileResolver.Cache(), debug);
+	}
+
+	public Interpreter(Build.Project project, WhileyFileResolver.Cache cache, PrintStream debug) {
 		this.project = project;
 		this.debug = debug;
-		this.resolver = new WhileyFileResolver(project);
+		this.resolver = new WhileyFileResolver(project, cache);
 		this.semantics = new ConcreteSemantics();
 	}
 
-	private enum Status {
+	enum Status {
 		RETURN,
 		BREAK,
 		CONTINUE,
@@ -88,6 +189,123 @@ public class Interpreter {
 		return resolver;
 	}
 
+	/**
+	 * Set whether function and method bodies should be compiled into execution
+	 * trees before being executed. Otherwise, they are executed by walking them
+	 * directly, which is slower but serves as the reference implementation.
+	 *
+	 * @param flag
+	 */
+	public void setCompiled(boolean flag) {
+		this.compiled = flag;
+	}
+
+	public boolean isCompiled() {
+		return compiled;
+	}
+
+	/**
+	 * Set the number of times a function or method is executed before its
+	 * body is compiled into JVM bytecode. A threshold of zero (or less)
+	 * disables this altogether.
+	 *
+	 * @param threshold
+	 */
+	public void setCompileThreshold(int threshold) {
+		this.compileThreshold = Math.max(threshold, 0);
+	}
+
+	public int getCompileThreshold() {
+		return compileThreshold;
+	}
+
+	/**
+	 * Set the smallest range of a quantifier which is evaluated in parallel.
+	 * This only applies to quantifiers which are pure (i.e. cannot invoke a
+	 * method or allocate a reference), and uses the common fork/join pool. A
+	 * threshold of zero (or less) disables this altogether.
+	 *
+	 * @param threshold
+	 */
+	public void setParallelThreshold(int threshold) {
+		this.parallelThreshold = Math.max(threshold, 0);
+	}
+
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * Set the maximum number of calls recorded for each function, such that
+	 * calling it again with equal arguments returns the recorded values
+	 * without executing it. A capacity of zero (or less) disables this
+	 * altogether, which is the default.
+	 *
+	 * @param capacity
+	 */
+	public void setMemoCapacity(int capacity) {
+		this.memoCapacity = Math.max(capacity, 0);
+	}
+
+	public int getMemoCapacity() {
+		return memoCapacity;
+	}
+
+	/**
+	 * Get the table of recorded calls for each function which has been
+	 * memoized so far.
+	 *
+	 * @return
+	 */
+	public List<MemoTable> getMemoTables() {
+		synchronized (memoTables) {
+			return new ArrayList<>(memoTables.values());
+		}
+	}
+
+	/**
+	 * Attach a profiler to this interpreter, such that it records subsequent
+	 * execution. Whilst this is attached, function and method bodies are not
+	 * compiled into JVM bytecode and quantifiers are not evaluated in
+	 * parallel. This ensures every loop iteration is counted, and every
+	 * invocation is attributed to the right caller. A null profiler detaches
+	 * it.
+	 *
+	 * @param profiler
+	 */
+	public void setProfiler(Profiler profiler) {
+		this.profiler = profiler;
+		semantics.setProfiler(profiler);
+		// Execution trees count loop iterations only if compiled whilst
+		// profiling, and must be recompiled otherwise.
+		synchronized (trees) {
+			trees.clear();
+		}
+	}
+
+	public Profiler getProfiler() {
+		return profiler;
+	}
+
+	/**
+	 * Get the plan for testing whether values are instances of a given type.
+	 * This is compiled on first use, and cached thereafter.
+	 *
+	 * @param type
+	 * @return
+	 */
+	public TypeTest getTypeTest(Type type) {
+		return typeTests.get(type);
+	}
+
+	ConcreteSemantics getSemantics() {
+		return semantics;
+	}
+
+	PrintStream getDebugStream() {
+		return debug;
+	}
+
 	/**
 	 * Execute a function or method identified by a name and type signature with
 	 * the given arguments, producing a return value or null (if none). If the
@@ -103,56 +321,163 @@ public class Interpreter {
 	 * @return
 	 */
 	public RValue[] execute(NameID nid, Type.Callable sig, CallStack frame, RValue... args) {
-		// First, find the enclosing WyilFile
+		// First, find the given function or method
+		Decl.Callable fmp = getModule(nid.module()).getCallable(nid.name(), sig);
+		if (fmp == null) {
+			throw new IllegalArgumentException("no function or method found: " + nid + ", " + sig);
+		}
+		return execute(fmp, frame, args);
+	}
+
+	/**
+	 * Execute a given function or method declaration with the given arguments.
+	 *
+	 * @param fmp
+	 *            The function or method to execute. This must be a declaration
+	 *            within a (binary) module loaded by this interpreter.
+	 * @param frame
+	 *            The current stack frame
+	 * @param args
+	 *            The supplied arguments
+	 * @return
+	 */
+	public RValue[] execute(Decl.Callable fmp, CallStack frame, RValue... args) {
+		if (fmp.getParameters().size() != args.length) {
+			throw new IllegalArgumentException(
+					"incorrect number of arguments: " + fmp.getQualifiedName() + ", " + fmp.getType());
+		}
+		Profiler profiler = this.profiler;
+		if (profiler == null) {
+			return executeCallable(fmp, frame, args);
+		}
+		profiler.enter(fmp);
 		try {
-			// FIXME: NameID needs to be deprecated
-			Identifier name = new Identifier(nid.name());
-			// NOTE: need to read WyilFile here as, otherwose, it forces a
-			// rereading of the Whiley source file and a loss of all generation
-			// information.
-			Path.Entry<WhileyFile> entry = project.get(nid.module(), WhileyFile.BinaryContentType);
-			if (entry == null) {
-				throw new IllegalArgumentException("no WyIL file found: " + nid.module());
+			return executeCallable(fmp, frame, args);
+		} finally {
+			profiler.exit();
+		}
+	}
+
+	private RValue[] executeCallable(Decl.Callable fmp, CallStack frame, RValue[] args) {
+		if (memoCapacity > 0 && fmp instanceof Decl.Function && ((Decl.Function) fmp).getBody() != null) {
+			return executeMemoized((Decl.Function) fmp, frame, args);
+		}
+		return executeUnmemoized(fmp, frame, args);
+	}
+
+	/**
+	 * Execute a given function, unless it has previously been called with
+	 * equal arguments. In that case, the values it returned are simply
+	 * returned again. Since exceptions are never recorded, a failed
+	 * precondition (for example) is always raised again.
+	 *
+	 * @param fn
+	 * @param frame
+	 * @param args
+	 * @return
+	 */
+	private RValue[] executeMemoized(Decl.Function fn, CallStack frame, RValue[] args) {
+		MemoTable.Key key = MemoTable.toKey(args);
+		if (key == null) {
+			return executeUnmemoized(fn, frame, args);
+		}
+		MemoTable table = getMemoTable(fn);
+		RValue[] returns = table.get(key);
+		if (returns == null) {
+			returns = executeUnmemoized(fn, frame, args);
+			table.put(key, returns);
+		}
+		return returns;
+	}
+
+	private MemoTable getMemoTable(Decl.Function fn) {
+		synchronized (memoTables) {
+			MemoTable table = memoTables.get(fn);
+			if (table == null) {
+				table = new MemoTable(fn, memoCapacity);
+				memoTables.put(fn, table);
 			}
-			// Second, find the given function or method
-			WhileyFile wyilFile = entry.read();
-			Decl.Callable fmp = wyilFile.getDeclaration(name, sig,
-					Decl.Callable.class);
-			if (fmp == null) {
-				throw new IllegalArgumentException("no function or method found: " + nid + ", " + sig);
-			} else if (sig.getParameters().size() != args.length) {
-				throw new IllegalArgumentException("incorrect number of arguments: " + nid + ", " + sig);
+			return table;
+		}
+	}
+
+	private RValue[] executeUnmemoized(Decl.Callable fmp, CallStack frame, RValue[] args) {
+		// Construct the stack frame for execution
+		frame = frame.enter(fmp);
+		extractParameters(frame,args,fmp);
+		// The original arguments are restored before checking the
+		// postcondition and, hence, must not be updated in place.
+		for (int i = 0; i != args.length; ++i) {
+			args[i].share();
+		}
+		// Check the precondition
+		if(fmp instanceof Decl.FunctionOrMethod) {
+			Decl.FunctionOrMethod fm = (Decl.FunctionOrMethod) fmp;
+			// check function or method body exists
+			if (fm.getBody() == null) {
+				// FIXME: Add support for native functions or methods. That is,
+				// allow native functions to be implemented and called from the
+				// interpreter.
+				checkInvariants(frame,fm.getRequires());
+				throw new IllegalArgumentException(
+						"no function or method body found: " + fmp.getQualifiedName() + ", " + fmp.getType());
+			} else if (compiled) {
+				return executeCompiled(getExecutionTree(fm), frame, args);
 			}
-			// Fourth, construct the stack frame for execution
-			frame = frame.enter(fmp);
+			checkInvariants(frame,fm.getRequires());
+			// Execute the method or function body
+			executeBlock(fm.getBody(), frame, new FunctionOrMethodScope(fm));
+			// Extra the return values
+			RValue[] returns = packReturns(frame,fmp);
+			// Restore original parameter values
 			extractParameters(frame,args,fmp);
-			// Check the precondition
-			if(fmp instanceof Decl.FunctionOrMethod) {
-				Decl.FunctionOrMethod fm = (Decl.FunctionOrMethod) fmp;
-				checkInvariants(frame,fm.getRequires());
-				// check function or method body exists
-				if (fm.getBody() == null) {
-					// FIXME: Add support for native functions or methods. That is,
-					// allow native functions to be implemented and called from the
-					// interpreter.
-					throw new IllegalArgumentException("no function or method body found: " + nid + ", " + sig);
-				}
-				// Execute the method or function body
-				executeBlock(fm.getBody(), frame, new FunctionOrMethodScope(fm));
-				// Extra the return values
-				RValue[] returns = packReturns(frame,fmp);
-				// Restore original parameter values
-				extractParameters(frame,args,fmp);
-				// Check the postcondition holds
-				checkInvariants(frame, fm.getEnsures());
-				return returns;
-			} else {
-				// Properties always return true (provided their preconditions hold)
-				return new RValue[]{RValue.True};
+			// Check the postcondition holds
+			checkInvariants(frame, fm.getEnsures());
+			return returns;
+		} else {
+			// Properties always return true (provided their preconditions hold)
+			return new RValue[]{RValue.True};
+		}
+	}
+
+	/**
+	 * Execute the compiled body of a function or method in a frame which has
+	 * already been entered, and into which the arguments have already been
+	 * extracted.
+	 *
+	 * @param tree
+	 * @param frame
+	 * @param args
+	 * @return
+	 */
+	private RValue[] executeCompiled(ExecutionTree tree, CallStack frame, RValue[] args) {
+		Decl.FunctionOrMethod fm = tree.getContext();
+		tree.checkRequires(frame);
+		tree.execute(frame);
+		// Extra the return values
+		RValue[] returns = packReturns(frame, fm);
+		// Restore original parameter values
+		extractParameters(frame, args, fm);
+		// Check the postcondition holds
+		tree.checkEnsures(frame);
+		return returns;
+	}
+
+	/**
+	 * Get the execution tree for a given function or method. This is compiled
+	 * on the first call, and cached thereafter.
+	 *
+	 * @param decl
+	 * @return
+	 */
+	private ExecutionTree getExecutionTree(Decl.FunctionOrMethod decl) {
+		synchronized (trees) {
+			ExecutionTree tree = trees.get(decl);
+			if (tree == null) {
+				tree = new ExecutionTree(this, decl);
+				trees.put(decl, tree);
 			}
-			//
-		} catch (IOException e) {
-			throw new RuntimeException(e.getMessage(), e);
+			return tree;
 		}
 	}
 
@@ -160,7 +485,7 @@ public class Interpreter {
 		Tuple<Decl.Variable> parameters = decl.getParameters();
 		for(int i=0;i!=parameters.size();++i) {
 			Decl.Variable parameter = parameters.get(i);
-			frame.putLocal(parameter.getName(), args[i]);
+			frame.putLocal(parameter, args[i]);
 		}
 	}
 
@@ -180,7 +505,7 @@ public class Interpreter {
 			Tuple<Decl.Variable> returns = decl.getReturns();
 			RValue[] values = new RValue[returns.size()];
 			for (int i = 0; i != values.length; ++i) {
-				values[i] = frame.getLocal(returns.get(i).getName());
+				values[i] = frame.getLocal(returns.get(i));
 			}
 			return values;
 		}
@@ -378,8 +703,12 @@ public class Interpreter {
 	 * @return
 	 */
 	private Status executeDoWhile(Stmt.DoWhile stmt, CallStack frame, EnclosingScope scope) {
+		Profiler.Loop loop = profiler == null ? null : profiler.getLoop(stmt);
 		Status r = Status.NEXT;
 		while (r == Status.NEXT || r == Status.CONTINUE) {
+			if (loop != null) {
+				loop.iterate();
+			}
 			r = executeBlock(stmt.getBody(), frame, scope);
 			if (r == Status.NEXT) {
 				RValue.Bool operand = executeExpression(BOOL_T, stmt.getCondition(), frame);
@@ -459,11 +788,14 @@ public class Interpreter {
 	 * @return
 	 */
 	private Status executeWhile(Stmt.While stmt, CallStack frame, EnclosingScope scope) {
+		Profiler.Loop loop = profiler == null ? null : profiler.getLoop(stmt);
 		Status r;
 		do {
 			RValue.Bool operand = executeExpression(BOOL_T, stmt.getCondition(), frame);
 			if (operand == RValue.False) {
 				return Status.NEXT;
+			} else if (loop != null) {
+				loop.iterate();
 			}
 			// Keep executing the loop body until we exit it somehow.
 			r = executeBlock(stmt.getBody(), frame, scope);
@@ -496,7 +828,7 @@ public class Interpreter {
 		Tuple<Decl.Variable> returns = context.getReturns();
 		RValue[] values = executeExpressions(stmt.getReturns(), frame);
 		for (int i = 0; i != returns.size(); ++i) {
-			frame.putLocal(returns.get(i).getName(), values[i]);
+			frame.putLocal(returns.get(i), values[i]);
 		}
 		return Status.RETURN;
 	}
@@ -563,7 +895,7 @@ public class Interpreter {
 		// We only need to do something if this has an initialiser
 		if(stmt.hasInitialiser()) {
 			RValue value = executeExpression(ANY_T, stmt.getInitialiser(), frame);
-			frame.putLocal(stmt.getName(),value);
+			frame.putLocal(stmt, value);
 		}
 		return Status.NEXT;
 	}
@@ -590,7 +922,7 @@ public class Interpreter {
 			RValue val;
 			switch (expr.getOpcode()) {
 			case WhileyFile.EXPR_constant:
-				val = executeConst((Expr.Constant) expr, frame);
+				val = executeConst((Expr.Constant) expr);
 				break;
 			case WhileyFile.EXPR_cast:
 				val = executeConvert((Expr.Cast) expr, frame);
@@ -732,15 +1064,58 @@ public class Interpreter {
 
 	/**
 	 * Execute a Constant expression at a given point in the function or
-	 * method body
+	 * method body. The value is taken from the constant pool and, hence, is
+	 * not constructed again.
 	 *
 	 * @param expr
 	 *            --- The expression to execute
-	 * @param frame
-	 *            --- The current stack frame
 	 * @return
 	 */
-	private RValue executeConst(Expr.Constant expr, CallStack frame) {
+	RValue executeConst(Expr.Constant expr) {
+		RValue value = constants.get(expr);
+		if (value == null) {
+			// NOTE: this can happen for constants outside any module loaded
+			// by this interpreter (e.g. in a type resolved from elsewhere).
+			value = foreignConstants.get(expr);
+			if (value == null) {
+				value = toRValue(expr).share();
+				RValue existing = foreignConstants.putIfAbsent(expr, value);
+				if (existing != null) {
+					value = existing;
+				}
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Add the value of every constant expression in a given module to the
+	 * constant pool.
+	 *
+	 * @param file
+	 */
+	private void addConstants(WhileyFile file) {
+		IdentityHashMap<Expr.Constant, RValue> pool = new IdentityHashMap<>();
+		new AbstractVisitor() {
+			@Override
+			public void visitConstant(Expr.Constant expr) {
+				pool.put(expr, toRValue(expr).share());
+			}
+		}.visitWhileyFile(file);
+		// Serialise updates, whilst readers see either the old or new pool
+		synchronized (foreignConstants) {
+			pool.putAll(constants);
+			constants = pool;
+		}
+	}
+
+	/**
+	 * Construct the value of a given constant expression.
+	 *
+	 * @param expr
+	 * @return
+	 */
+	private RValue toRValue(Expr.Constant expr) {
 		Value v = expr.getValue();
 		switch (v.getOpcode()) {
 		case ITEM_null:
@@ -768,7 +1143,7 @@ public class Interpreter {
 			for (int i = 0; i != elements.length; ++i) {
 				// FIXME: something tells me this is wrong for signed byte
 				// values?
-				elements[i] = semantics.Int(BigInteger.valueOf(bytes[i]));
+				elements[i] = semantics.Int(bytes[i]);
 			}
 			return semantics.Array(elements);
 		}
@@ -788,25 +1163,34 @@ public class Interpreter {
 	 */
 	private RValue executeConvert(Expr.Cast expr, CallStack frame) {
 		RValue operand = executeExpression(ANY_T, expr.getOperand(), frame);
-		return operand.convert(expr.getType());
+		// The operand is not consumed, yet may be returned as is
+		return operand.convert(expr.getType()).share();
 	}
 
 	private RValue executeRecordAccess(Expr.RecordAccess expr, CallStack frame) {
 		RValue.Record rec = executeExpression(RECORD_T, expr.getOperand(), frame);
-		return rec.read(expr.getField());
+		RValue value = rec.read(expr.getField());
+		if (expr.getOpcode() == WhileyFile.EXPR_recordaccess) {
+			// This field is consumed whilst still held by the record
+			value.share();
+		}
+		return value;
 	}
 
 	private RValue executeRecordInitialiser(Expr.RecordInitialiser expr, CallStack frame) {
 		Tuple<Identifier> fields = expr.getFields();
 		Tuple<Expr> operands = expr.getOperands();
-		RValue.Field[] values = new RValue.Field[operands.size()];
+		String[] names = new String[fields.size()];
+		for (int i = 0; i != names.length; ++i) {
+			names[i] = fields.get(i).get();
+		}
+		RValue.Record.Shape shape = RValue.Record.Shape.get(names);
+		RValue[] values = new RValue[operands.size()];
 		for (int i = 0; i != operands.size(); ++i) {
-			Identifier field = fields.get(i);
 			Expr operand = operands.get(i);
-			RValue value = executeExpression(ANY_T, operand, frame);
-			values[i] = semantics.Field(field, value);
+			values[shape.indexOf(names[i])] = executeExpression(ANY_T, operand, frame);
 		}
-		return semantics.Record(values);
+		return semantics.Record(shape, values);
 	}
 
 	private RValue executeQuantifier(Expr.Quantifier expr, CallStack frame) {
@@ -835,10 +1219,41 @@ public class Interpreter {
 			return r.boolValue() == q;
 		} else {
 			Decl.Variable var = vars.get(index);
-			RValue.Array range = executeExpression(ARRAY_T, var.getInitialiser(), frame);
+			Expr initialiser = var.getInitialiser();
+			if (initialiser.getOpcode() == WhileyFile.EXPR_arrayrange) {
+				// Iterate the range directly, rather than first constructing
+				// it as an array.
+				Expr.ArrayRange range = (Expr.ArrayRange) initialiser;
+				int start = executeExpression(INT_T, range.getFirstOperand(), frame).intValue();
+				int end = executeExpression(INT_T, range.getSecondOperand(), frame).intValue();
+				if (end < start) {
+					// Fail exactly as constructing the range would
+					throw new NegativeArraySizeException(Integer.toString(end - start));
+				} else if (isParallel(expr, end - start)) {
+					return ParallelQuantifier.evaluate(frame, end - start, (f, i) -> {
+						f.putLocal(var, semantics.Int(start + i));
+						return executeQuantifier(index + 1, expr, f);
+					});
+				}
+				for (int i = start; i < end; ++i) {
+					frame.putLocal(var, semantics.Int(i));
+					if (!executeQuantifier(index + 1, expr, frame)) {
+						// early termination
+						return false;
+					}
+				}
+				return true;
+			}
+			RValue.Array range = executeExpression(ARRAY_T, initialiser, frame);
 			RValue[] elements = range.getElements();
+			if (isParallel(expr, elements.length)) {
+				return ParallelQuantifier.evaluate(frame, elements.length, (f, i) -> {
+					f.putLocal(var, elements[i]);
+					return executeQuantifier(index + 1, expr, f);
+				});
+			}
 			for (int i = 0; i != elements.length; ++i) {
-				frame.putLocal(var.getName(), elements[i]);
+				frame.putLocal(var, elements[i]);
 				boolean r = executeQuantifier(index + 1, expr, frame);
 				if (!r) {
 					// early termination
@@ -849,6 +1264,64 @@ public class Interpreter {
 		}
 	}
 
+	/**
+	 * Determine whether a range of a given size in a given quantifier should
+	 * be evaluated in parallel. This requires that the range is large enough,
+	 * and that the quantifier is pure.
+	 *
+	 * @param expr
+	 * @param size
+	 * @return
+	 */
+	boolean isParallel(Expr.Quantifier expr, int size) {
+		int threshold = parallelThreshold;
+		if (threshold == 0 || size < threshold || profiler != null) {
+			return false;
+		}
+		synchronized (pureQuantifiers) {
+			Boolean pure = pureQuantifiers.get(expr);
+			if (pure == null) {
+				pure = isPure(expr);
+				pureQuantifiers.put(expr, pure);
+			}
+			return pure;
+		}
+	}
+
+	/**
+	 * Determine whether a given expression is pure. Since functions are
+	 * checked to be pure, this only requires that the expression itself
+	 * cannot invoke a method (either directly or indirectly) or allocate a
+	 * reference.
+	 *
+	 * @param expr
+	 * @return
+	 */
+	private static boolean isPure(Expr expr) {
+		boolean[] pure = { true };
+		new AbstractVisitor() {
+			@Override
+			public void visitInvoke(Expr.Invoke expr) {
+				if (expr.getSignature() instanceof Type.Method) {
+					pure[0] = false;
+				}
+				super.visitInvoke(expr);
+			}
+
+			@Override
+			public void visitIndirectInvoke(Expr.IndirectInvoke expr) {
+				// NOTE: the lambda invoked may be a method
+				pure[0] = false;
+			}
+
+			@Override
+			public void visitNew(Expr.New expr) {
+				pure[0] = false;
+			}
+		}.visitExpression(expr);
+		return pure[0];
+	}
+
 	/**
 	 * Execute a variable access expression at a given point in the function or
 	 * method body. This simply loads the value of the given variable from the
@@ -862,18 +1335,25 @@ public class Interpreter {
 	 */
 	private RValue executeVariableAccess(Expr.VariableAccess expr, CallStack frame) {
 		Decl.Variable decl = expr.getVariableDeclaration();
-		return frame.getLocal(decl.getName());
+		RValue value = frame.getLocal(decl);
+		if (value != null && expr.getOpcode() == WhileyFile.EXPR_variablecopy) {
+			// This variable is consumed whilst remaining live (e.g. it is
+			// assigned to another variable) and, hence, its value can no
+			// longer be updated in place. Otherwise, it is just borrowed.
+			value.share();
+		}
+		return value;
 	}
 
 	private RValue executeStaticVariableAccess(Expr.StaticVariableAccess expr, CallStack frame) throws ResolutionError {
 		Decl.StaticVariable decl = resolver.resolveExactly(expr.getName(), Decl.StaticVariable.class);
 		NameID nid = decl.getQualifiedName().toNameID();
-		return frame.getStatic(nid);
+		return frame.getStatic(nid).share();
 	}
 
 	private RValue executeIs(Expr.Is expr, CallStack frame) throws ResolutionError {
 		RValue lhs = executeExpression(ANY_T, expr.getOperand(), frame);
-		return lhs.is(expr.getTestType(), this);
+		return getTypeTest(expr.getTestType()).test(lhs) ? RValue.True : RValue.False;
 	}
 
 	public RValue executeIntegerNegation(Expr.IntegerNegation expr, CallStack frame) {
@@ -1045,7 +1525,12 @@ public class Interpreter {
 	public RValue executeArrayAccess(Expr.ArrayAccess expr, CallStack frame) {
 		RValue.Array array = executeExpression(ARRAY_T, expr.getFirstOperand(), frame);
 		RValue.Int index = executeExpression(INT_T, expr.getSecondOperand(), frame);
-		return array.read(index);
+		RValue value = array.read(index);
+		if (expr.getOpcode() == WhileyFile.EXPR_arrayaccess) {
+			// This element is consumed whilst still held by the array
+			value.share();
+		}
+		return value;
 	}
 
 	public RValue executeArrayGenerator(Expr.ArrayGenerator expr, CallStack frame) {
@@ -1056,6 +1541,8 @@ public class Interpreter {
 			throw new AssertionError("negative array length");
 		}
 		RValue[] values = new RValue[n];
+		// Every element of the generated array is the same value
+		element.share();
 		for (int i = 0; i != n; ++i) {
 			values[i] = element;
 		}
@@ -1076,7 +1563,7 @@ public class Interpreter {
 		int end = executeExpression(INT_T, expr.getSecondOperand(), frame).intValue();
 		RValue[] elements = new RValue[end - start];
 		for (int i = start; i < end; ++i) {
-			elements[i - start] = semantics.Int(BigInteger.valueOf(i));
+			elements[i - start] = semantics.Int(i);
 		}
 		return semantics.Array(elements);
 	}
@@ -1089,16 +1576,17 @@ public class Interpreter {
 
 	public RValue executeDereference(Expr.Dereference expr, CallStack frame) {
 		RValue.Reference ref = executeExpression(REF_T, expr.getOperand(), frame);
-		return ref.deref().read();
+		return ref.deref().read().share();
 	}
 
 	public RValue executeLambdaAccess(Expr.LambdaAccess expr, CallStack frame) throws ResolutionError {
 		// Locate the function or method body in order to execute it
 		// FIXME: This is horrendous. Should be able to use descriptor here!!
-		Decl.FunctionOrMethod decl = resolveExactly(expr.getName(), expr.getSignature(),
-				Decl.FunctionOrMethod.class);
-		// Clone frame to ensure it executes in this exact environment.
-		return semantics.Lambda(decl, frame.clone(), decl.getBody());
+		Decl.FunctionOrMethod decl = (Decl.FunctionOrMethod) getBinaryCallable(
+				resolveExactly(expr.getName(), expr.getSignature(), Decl.FunctionOrMethod.class));
+		// A named function or method captures no variables from this
+		// environment and, hence, executes in a fresh frame of its own.
+		return semantics.Lambda(decl, frame.enter(decl), decl.getBody());
 	}
 
 	private RValue executeLambdaDeclaration(Decl.Lambda decl, CallStack frame) {
@@ -1147,7 +1635,7 @@ public class Interpreter {
 	 * @param frame
 	 * @return
 	 */
-	private RValue[] executeMultiReturnExpression(Expr expr, CallStack frame) {
+	RValue[] executeMultiReturnExpression(Expr expr, CallStack frame) {
 		try {
 			switch (expr.getOpcode()) {
 			case WhileyFile.EXPR_indirectinvoke:
@@ -1221,12 +1709,52 @@ public class Interpreter {
 	 */
 	private RValue[] executeInvoke(Expr.Invoke expr, CallStack frame) throws ResolutionError {
 		// Resolve function or method being invoked to a concrete declaration
-		Decl.Callable decl = resolveExactly(expr.getName(), expr.getSignature(),
-				Decl.Callable.class);
+		Decl.Callable decl = resolveCallSite(expr);
 		// Evaluate argument expressions
 		RValue[] arguments = executeExpressions(expr.getOperands(), frame);
 		// Invoke the function or method in question
-		return execute(decl.getQualifiedName().toNameID(), decl.getType(), frame, arguments);
+		return execute(decl, frame, arguments);
+	}
+
+	/**
+	 * Determine the function or method invoked at a given call site. This is
+	 * resolved on the first execution of the call site, and cached thereafter.
+	 *
+	 * @param expr
+	 * @return
+	 * @throws ResolutionError
+	 */
+	Decl.Callable resolveCallSite(Expr.Invoke expr) throws ResolutionError {
+		synchronized (callSites) {
+			Decl.Callable decl = callSites.get(expr);
+			if (decl != null) {
+				return decl;
+			}
+		}
+		Decl.Callable target = getBinaryCallable(
+				resolveExactly(expr.getName(), expr.getSignature(), Decl.Callable.class));
+		synchronized (callSites) {
+			callSites.put(expr, target);
+		}
+		return target;
+	}
+
+	/**
+	 * Map a resolved function or method to its declaration in the binary
+	 * module. This must be executed since, otherwise, the resolved declaration
+	 * may be that of the Whiley source file or that of an interface summary
+	 * (whose body is empty).
+	 *
+	 * @param decl
+	 * @return
+	 */
+	private Decl.Callable getBinaryCallable(Decl.Callable decl) {
+		NameID nid = decl.getQualifiedName().toNameID();
+		Decl.Callable target = getModule(nid.module()).getCallable(nid.name(), decl.getType());
+		if (target == null) {
+			throw new IllegalArgumentException("no function or method found: " + nid + ", " + decl.getType());
+		}
+		return target;
 	}
 
 	// =============================================================
@@ -1267,7 +1795,7 @@ public class Interpreter {
 		case EXPR_variablecopy: {
 			Expr.VariableAccess e = (Expr.VariableAccess) expr;
 			Decl.Variable decl = e.getVariableDeclaration();
-			return new LValue.Variable(decl.getName());
+			return new LValue.Variable(decl);
 		}
 		}
 		deadCode(expr);
@@ -1286,8 +1814,7 @@ public class Interpreter {
 		for (int i = 0; i != invariants.size(); ++i) {
 			RValue.Bool b = executeExpression(BOOL_T, invariants.get(i), frame);
 			if (b == RValue.False) {
-				// FIXME: need to do more here
-				throw new AssertionError();
+				throw assertionFailure(invariants.get(i));
 			}
 		}
 	}
@@ -1304,12 +1831,33 @@ public class Interpreter {
 		for (int i = 0; i != invariants.length; ++i) {
 			RValue.Bool b = executeExpression(BOOL_T, invariants[i], frame);
 			if (b == RValue.False) {
-				// FIXME: need to do more here
-				throw new AssertionError();
+				throw assertionFailure(invariants[i]);
 			}
 		}
 	}
 
+	/**
+	 * Construct the error raised when a condition (e.g. an assertion or
+	 * precondition) is found not to hold. This identifies the condition by its
+	 * position in the source file, where this is known.
+	 *
+	 * @param condition
+	 *            --- The condition which did not hold.
+	 * @return
+	 */
+	public static AssertionError assertionFailure(Expr condition) {
+		WhileyFile.Attribute.Span span = null;
+		if (condition.getHeap() != null) {
+			span = condition.getParent(WhileyFile.Attribute.Span.class);
+		}
+		if (span == null) {
+			return new AssertionError("assertion failed");
+		} else {
+			return new AssertionError("assertion failed at characters " + span.getStart().get() + "--"
+					+ span.getEnd().get());
+		}
+	}
+
 	/**
 	 * Check that a given operand value matches an expected type.
 	 *
@@ -1377,29 +1925,93 @@ public class Interpreter {
 	public final class CallStack {
 		private final Set<Path.ID> modules;
 		private final Decl.Callable context;
-		private final Map<Identifier, RValue> locals;
+		/**
+		 * Determines the slot in which each local variable of the enclosing
+		 * context is stored.
+		 */
+		private final Layout layout;
+		/**
+		 * Values of local variables, indexed by slot.
+		 */
+		private final RValue[] locals;
+		/**
+		 * Values of any variables which have no slot in this frame (e.g. those
+		 * declared in the initialiser of a static variable). This is only
+		 * created when needed.
+		 */
+		private IdentityHashMap<Decl.Variable, RValue> others;
 		private final Map<NameID, RValue> globals;
 
 		public CallStack() {
-			this.locals = new HashMap<>();
+			this.layout = Layout.EMPTY;
+			this.locals = layout.allocate();
 			this.globals = new HashMap<>();
 			this.modules = new HashSet<>();
 			this.context = null;
 		}
 
-		private CallStack(CallStack parent, Decl.Callable context) {
+		private CallStack(CallStack parent, Decl.Callable context, Layout layout, RValue[] locals) {
 			this.context = context;
-			this.locals = new HashMap<>();
+			this.layout = layout;
+			this.locals = locals;
 			this.globals = parent.globals;
 			this.modules = parent.modules;
 		}
 
-		public RValue getLocal(Identifier name) {
-			return locals.get(name);
+		private CallStack(CallStack parent, Map<NameID, RValue> globals, Set<Path.ID> modules) {
+			this.context = parent.context;
+			this.layout = parent.layout;
+			this.locals = parent.locals.clone();
+			this.globals = globals;
+			this.modules = modules;
+		}
+
+		public RValue getLocal(Decl.Variable variable) {
+			int slot = layout.getSlot(variable);
+			if (slot >= 0) {
+				return locals[slot];
+			} else if (others != null) {
+				return others.get(variable);
+			} else {
+				return null;
+			}
+		}
+
+		/**
+		 * Get the value of the local variable held in a given slot. Slots are
+		 * determined by the layout of the enclosing context.
+		 *
+		 * @param slot
+		 * @return
+		 */
+		RValue getLocal(int slot) {
+			return locals[slot];
+		}
+
+		void putLocal(int slot, RValue value) {
+			locals[slot] = value;
+		}
+
+		/**
+		 * Get the array of locals, indexed by slot. This is updated directly
+		 * by compiled code.
+		 *
+		 * @return
+		 */
+		RValue[] getLocals() {
+			return locals;
 		}
 
-		public void putLocal(Identifier name, RValue value) {
-			locals.put(name, value);
+		public void putLocal(Decl.Variable variable, RValue value) {
+			int slot = layout.getSlot(variable);
+			if (slot >= 0) {
+				locals[slot] = value;
+			} else {
+				if (others == null) {
+					others = new IdentityHashMap<>();
+				}
+				others.put(variable, value);
+			}
 		}
 
 		public RValue getStatic(NameID name) {
@@ -1418,16 +2030,69 @@ public class Interpreter {
 
 		public CallStack enter(Decl.Callable context) {
 			load(context.getQualifiedName().toNameID().module());
-			return new CallStack(this, context);
+			Layout layout = getLayout(context);
+			return new CallStack(this, context, layout, layout.allocate());
 		}
 
 		@Override
 		public CallStack clone() {
-			CallStack frame = new CallStack(this, this.context);
-			frame.locals.putAll(locals);
+			CallStack frame = new CallStack(this, context, layout, locals.clone());
+			if (others != null) {
+				frame.others = new IdentityHashMap<>(others);
+				for (RValue value : others.values()) {
+					if (value != null) {
+						value.share();
+					}
+				}
+			}
+			// Values are now referenced from both frames
+			for (int i = 0; i != locals.length; ++i) {
+				if (locals[i] != null) {
+					locals[i].share();
+				}
+			}
+			return frame;
+		}
+
+		/**
+		 * Create a copy of this frame which is confined to a single thread.
+		 * Unlike a clone, this has its own copy of the static variables and
+		 * loaded modules (which are otherwise shared between all frames), such
+		 * that any modules it loads do not affect other frames. This is only
+		 * safe for use by pure code, which cannot assign static variables.
+		 *
+		 * @return
+		 */
+		CallStack fork() {
+			CallStack frame = new CallStack(this, new HashMap<>(globals), new HashSet<>(modules));
+			if (others != null) {
+				frame.others = new IdentityHashMap<>(others);
+				for (RValue value : others.values()) {
+					if (value != null) {
+						value.share();
+					}
+				}
+			}
+			// Values are now referenced from both frames
+			for (int i = 0; i != locals.length; ++i) {
+				if (locals[i] != null) {
+					locals[i].share();
+				}
+			}
 			return frame;
 		}
 
+		/**
+		 * Record that a value of a given kind has been constructed whilst
+		 * executing in this frame (e.g. when copying a value which is not
+		 * unique), if profiling.
+		 *
+		 * @param kind
+		 */
+		void allocate(Profiler.Kind kind) {
+			semantics.allocate(kind);
+		}
+
 		/**
 		 * Load a given module and make sure that all static variables are
 		 * properly initialised.
@@ -1441,20 +2106,212 @@ public class Interpreter {
 				// Otherwise, static initialisers it contains will force itself
 				// to be loaded.
 				modules.add(mid);
+				WhileyFile module = getModule(mid).getWhileyFile();
+				for (WhileyFile.Decl d : module.getDeclarations()) {
+					if (d instanceof Decl.StaticVariable) {
+						Decl.StaticVariable decl = (Decl.StaticVariable) d;
+						RValue value = executeExpression(ANY_T, decl.getInitialiser(), this);
+						globals.put(new NameID(mid, decl.getName().toString()), value);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the binary module with a given identifier. Each module is read only
+	 * once, and its callable declarations indexed by name.
+	 *
+	 * @param mid
+	 * @return
+	 */
+	private Module getModule(Path.ID mid) {
+		synchronized (binaries) {
+			Module module = binaries.get(mid);
+			if (module == null) {
+				// NOTE: need to read WyilFile here as, otherwise, it forces a
+				// rereading of the Whiley source file and a loss of all
+				// generation information.
+				Path.Entry<WhileyFile> entry;
 				try {
-					WhileyFile module = project.get(mid, WhileyFile.BinaryContentType).read();
-					for (WhileyFile.Decl d : module.getDeclarations()) {
-						if (d instanceof Decl.StaticVariable) {
-							Decl.StaticVariable decl = (Decl.StaticVariable) d;
-							RValue value = executeExpression(ANY_T, decl.getInitialiser(), this);
-							globals.put(new NameID(mid, decl.getName().toString()), value);
-						}
+					entry = project.get(mid, WhileyFile.BinaryContentType);
+					if (entry == null) {
+						throw new IllegalArgumentException("no WyIL file found: " + mid);
 					}
-					//
+					module = new Module(entry.read());
 				} catch (IOException e) {
 					throw new RuntimeException(e.getMessage(), e);
 				}
+				addConstants(module.getWhileyFile());
+				binaries.put(mid, module);
 			}
+			return module;
+		}
+	}
+
+	/**
+	 * A binary module loaded by the interpreter, along with a table of the
+	 * functions, methods and properties it declares.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Module {
+		private final WhileyFile file;
+		private final HashMap<String, List<Decl.Callable>> callables = new HashMap<>();
+
+		public Module(WhileyFile file) {
+			this.file = file;
+			for (Decl d : file.getDeclarations()) {
+				if (d instanceof Decl.Callable) {
+					Decl.Callable c = (Decl.Callable) d;
+					String name = c.getName().toString();
+					List<Decl.Callable> cs = callables.get(name);
+					if (cs == null) {
+						cs = new ArrayList<>();
+						callables.put(name, cs);
+					}
+					cs.add(c);
+				}
+			}
+		}
+
+		public WhileyFile getWhileyFile() {
+			return file;
+		}
+
+		/**
+		 * Get the callable declaration with a given name and signature, or
+		 * <code>null</code> if none exists.
+		 *
+		 * @param name
+		 * @param signature
+		 * @return
+		 */
+		public Decl.Callable getCallable(String name, Type.Callable signature) {
+			List<Decl.Callable> cs = callables.get(name);
+			if (cs != null) {
+				for (int i = 0; i != cs.size(); ++i) {
+					Decl.Callable c = cs.get(i);
+					if (signature.equals(c.getType())) {
+						return c;
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Get the slot assigned to a given variable within frames for a given
+	 * function, method or property, or -1 if it has none.
+	 *
+	 * @param context
+	 * @param variable
+	 * @return
+	 */
+	int getSlot(Decl.Callable context, Decl.Variable variable) {
+		return getLayout(context).getSlot(variable);
+	}
+
+	/**
+	 * Get the number of slots within frames for a given function, method or
+	 * property.
+	 *
+	 * @param context
+	 * @return
+	 */
+	int getFrameSize(Decl.Callable context) {
+		return getLayout(context).size();
+	}
+
+	/**
+	 * Get the layout for a given function, method or property. This is
+	 * determined once per declaration.
+	 *
+	 * @param context
+	 * @return
+	 */
+	private Layout getLayout(Decl.Callable context) {
+		synchronized (layouts) {
+			Layout layout = layouts.get(context);
+			if (layout == null) {
+				layout = new Layout(context);
+				layouts.put(context, layout);
+			}
+			return layout;
+		}
+	}
+
+	/**
+	 * A layout assigns every variable declared within a given function, method
+	 * or property (including parameters, returns, and those declared in nested
+	 * lambdas or quantifiers) a distinct slot within its frames. This allows
+	 * locals to be stored in an array, rather than a map keyed on their names.
+	 * Layouts are immutable once constructed.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Layout {
+		public static final Layout EMPTY = new Layout();
+		private static final RValue[] NO_LOCALS = new RValue[0];
+
+		private final IdentityHashMap<Decl.Variable, Integer> slots;
+
+		private Layout() {
+			this.slots = new IdentityHashMap<>();
+		}
+
+		public Layout(Decl.Callable context) {
+			final IdentityHashMap<Decl.Variable, Integer> slots = new IdentityHashMap<>();
+			new AbstractVisitor() {
+				@Override
+				public void visitVariable(Decl.Variable decl) {
+					if (!slots.containsKey(decl)) {
+						slots.put(decl, slots.size());
+					}
+					super.visitVariable(decl);
+				}
+
+				@Override
+				public void visitStatement(Stmt stmt) {
+					// NOTE: native functions or methods have no body
+					if (stmt != null) {
+						super.visitStatement(stmt);
+					}
+				}
+			}.visitDeclaration(context);
+			this.slots = slots;
+		}
+
+		/**
+		 * Get the slot for a given variable, or -1 if it has none.
+		 *
+		 * @param variable
+		 * @return
+		 */
+		public int getSlot(Decl.Variable variable) {
+			Integer slot = slots.get(variable);
+			return slot == null ? -1 : slot;
+		}
+
+		/**
+		 * Get the number of slots in this layout.
+		 *
+		 * @return
+		 */
+		public int size() {
+			return slots.size();
+		}
+
+		/**
+		 * Allocate an empty array of locals for a frame with this layout.
+		 *
+		 * @return
+		 */
+		public RValue[] allocate() {
+			return slots.isEmpty() ? NO_LOCALS : new RValue[slots.size()];
 		}
 	}
 
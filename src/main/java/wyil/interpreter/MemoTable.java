@@ -0,0 +1,204 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.interpreter;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import wyc.lang.WhileyFile.Decl;
+import wyil.interpreter.ConcreteSemantics.RValue;
+
+/**
+ * <p>
+ * Records the values returned by a function for the arguments it has been
+ * called with. Since functions cannot have side effects, calling a function
+ * again with equal arguments must return equal values. Thus, the body (and
+ * contract) need not be executed again.
+ * </p>
+ * <p>
+ * The table holds at most a given number of entries, evicting the least
+ * recently used entry when full. Only calls whose arguments can be compared
+ * structurally are recorded. In particular, arguments containing a reference,
+ * or a lambda which captures its enclosing frame, are never recorded. This is
+ * because two such values may be equal and yet refer to different state.
+ * </p>
+ * <p>
+ * Both arguments and return values held in the table are shared and, hence,
+ * are never subsequently updated in place.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class MemoTable {
+	private final Decl.Function function;
+	private final LinkedHashMap<Key, RValue[]> entries;
+	private long hits;
+	private long misses;
+
+	public MemoTable(Decl.Function function, int capacity) {
+		this.function = function;
+		// Use access order, such that the eldest entry is that least recently
+		// used.
+		this.entries = new LinkedHashMap<Key, RValue[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, RValue[]> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	public Decl.Function getFunction() {
+		return function;
+	}
+
+	/**
+	 * Get the number of calls answered from this table.
+	 *
+	 * @return
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get the number of calls which could have been answered from this table,
+	 * but were not.
+	 *
+	 * @return
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Get the values previously returned for the given arguments, or null if
+	 * none are recorded.
+	 *
+	 * @param key
+	 * @return
+	 */
+	synchronized RValue[] get(Key key) {
+		RValue[] returns = entries.get(key);
+		if (returns == null) {
+			misses++;
+			return null;
+		} else {
+			hits++;
+			return returns.clone();
+		}
+	}
+
+	/**
+	 * Record the values returned for the given arguments.
+	 *
+	 * @param key
+	 * @param returns
+	 */
+	synchronized void put(Key key, RValue[] returns) {
+		RValue[] values = returns.clone();
+		for (int i = 0; i != values.length; ++i) {
+			values[i].share();
+		}
+		entries.put(key, values);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return function.getQualifiedName() + ": " + hits + " hits, " + misses + " misses, " + entries.size()
+				+ " entries";
+	}
+
+	/**
+	 * Construct the key for a given set of arguments, or null if they cannot be
+	 * compared structurally.
+	 *
+	 * @param args
+	 * @return
+	 */
+	static Key toKey(RValue[] args) {
+		for (int i = 0; i != args.length; ++i) {
+			if (!isComparable(args[i])) {
+				return null;
+			}
+		}
+		return new Key(args.clone());
+	}
+
+	/**
+	 * Check whether a given value is determined entirely by its structure.
+	 *
+	 * @param value
+	 * @return
+	 */
+	private static boolean isComparable(RValue value) {
+		if (value instanceof RValue.Reference) {
+			return false;
+		} else if (value instanceof RValue.Lambda) {
+			// A lambda declaration captures its enclosing frame, which is
+			// ignored when comparing lambdas.
+			return !(((RValue.Lambda) value).getContext() instanceof Decl.Lambda);
+		} else if (value instanceof RValue.Array) {
+			RValue[] elements = ((RValue.Array) value).getElements();
+			for (int i = 0; i != elements.length; ++i) {
+				if (!isComparable(elements[i])) {
+					return false;
+				}
+			}
+		} else if (value instanceof RValue.Record) {
+			RValue.Record record = (RValue.Record) value;
+			for (int i = 0; i != record.size(); ++i) {
+				if (!isComparable(record.read(i))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The arguments of a call. The (structural) hash code of these is computed
+	 * once, rather than on every comparison.
+	 */
+	static final class Key {
+		private final RValue[] args;
+		private final int hashCode;
+
+		private Key(RValue[] args) {
+			this.args = args;
+			this.hashCode = Arrays.hashCode(args);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Key) {
+				Key k = (Key) o;
+				return hashCode == k.hashCode && Arrays.equals(args, k.args);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.interpreter;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import wyil.interpreter.Interpreter.CallStack;
+
+/**
+ * <p>
+ * Evaluates one range of a quantifier in parallel. The range is split into
+ * contiguous chunks, each of which is evaluated in order by a separate task
+ * using its own copy of the frame. This is only safe when the body of the
+ * quantifier is pure, such that evaluating it for one element cannot affect
+ * any other.
+ * </p>
+ * <p>
+ * The outcome is exactly that of evaluating the range sequentially. That is,
+ * the first element (in order) for which evaluation either terminates early
+ * (e.g. a counterexample) or throws an exception determines the outcome. Once
+ * a chunk has stopped, chunks following it are cancelled. However, those
+ * preceding it must still complete, since they may stop at an earlier
+ * element.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+final class ParallelQuantifier {
+	/**
+	 * The number of chunks created per thread, which allows for some load
+	 * balancing when elements differ in cost.
+	 */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	/**
+	 * Evaluates the quantifier for a given element of the range, having bound
+	 * it in the given frame.
+	 */
+	interface Step {
+		/**
+		 * Evaluate the quantifier for a given element, returning false if it
+		 * should terminate early.
+		 *
+		 * @param frame
+		 * @param index
+		 * @return
+		 */
+		boolean apply(CallStack frame, int index);
+	}
+
+	/**
+	 * Evaluate a given step for every index in a range of a given size,
+	 * returning false if this terminated early.
+	 *
+	 * @param frame
+	 * @param size
+	 * @param step
+	 * @return
+	 */
+	public static boolean evaluate(CallStack frame, int size, Step step) {
+		int threads = ForkJoinPool.getCommonPoolParallelism();
+		int n = Math.max(1, Math.min(size, threads * CHUNKS_PER_THREAD));
+		AtomicInteger stopped = new AtomicInteger(n);
+		Chunk[] chunks = new Chunk[n];
+		for (int i = 0, start = 0; i != n; ++i) {
+			int end = (int) (((long) size * (i + 1)) / n);
+			// NOTE: every chunk has its own copy of the frame, created here
+			// such that the original is never accessed concurrently.
+			chunks[i] = new Chunk(i, frame.fork(), start, end, step, stopped);
+			start = end;
+		}
+		ForkJoinTask.invokeAll(chunks);
+		for (int i = 0; i != n; ++i) {
+			Chunk chunk = chunks[i];
+			if (chunk.error instanceof RuntimeException) {
+				throw (RuntimeException) chunk.error;
+			} else if (chunk.error != null) {
+				throw (Error) chunk.error;
+			} else if (!chunk.result) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static final class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int id;
+		private final CallStack frame;
+		private final int start;
+		private final int end;
+		private final Step step;
+		/**
+		 * The lowest identifier of any chunk which has stopped.
+		 */
+		private final AtomicInteger stopped;
+		private boolean result = true;
+		private Throwable error;
+
+		public Chunk(int id, CallStack frame, int start, int end, Step step, AtomicInteger stopped) {
+			this.id = id;
+			this.frame = frame;
+			this.start = start;
+			this.end = end;
+			this.step = step;
+			this.stopped = stopped;
+		}
+
+		@Override
+		protected void compute() {
+			for (int i = start; i < end; ++i) {
+				if (stopped.get() < id) {
+					// An earlier chunk has stopped, so the outcome no longer
+					// depends on this one.
+					return;
+				}
+				try {
+					if (!step.apply(frame, i)) {
+						result = false;
+						stop();
+						return;
+					}
+				} catch (RuntimeException | Error e) {
+					error = e;
+					stop();
+					return;
+				}
+			}
+		}
+
+		private void stop() {
+			int current = stopped.get();
+			while (id < current && !stopped.compareAndSet(current, id)) {
+				current = stopped.get();
+			}
+		}
+	}
+}
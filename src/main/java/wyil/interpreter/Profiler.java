@@ -0,0 +1,279 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.interpreter;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import wyc.lang.WhileyFile.Decl;
+import wyc.lang.WhileyFile.Stmt;
+
+/**
+ * <p>
+ * Records where time goes when executing functions and methods. In
+ * particular, this records the number of times each function, method or
+ * property is invoked, along with the time spent executing it both
+ * inclusively (i.e. including the functions and methods it calls) and
+ * exclusively. It also records the number of iterations of each loop, and the
+ * number of values of each kind constructed.
+ * </p>
+ * <p>
+ * A profiler is attached to an interpreter using
+ * <code>Interpreter.setProfiler()</code>. When none is attached, execution
+ * incurs (almost) no overhead. The results can then be printed either as a
+ * report, or as collapsed stacks from which a flame graph can be drawn.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class Profiler {
+	/**
+	 * The kinds of value whose construction is counted.
+	 */
+	public enum Kind {
+		BYTE, INT, ARRAY, RECORD, LAMBDA, REFERENCE
+	}
+
+	private final IdentityHashMap<Decl.Callable, Callable> callables = new IdentityHashMap<>();
+	private final IdentityHashMap<Stmt, Loop> loops = new IdentityHashMap<>();
+	private final LongAdder[] allocations = new LongAdder[Kind.values().length];
+	/**
+	 * The root of the call tree, from which each path to an invoked function
+	 * or method can be reconstructed.
+	 */
+	private final Node root = new Node(null);
+	/**
+	 * The innermost invocation currently being executed on each thread.
+	 */
+	private final ThreadLocal<Activation> current = new ThreadLocal<>();
+
+	public Profiler() {
+		for (int i = 0; i != allocations.length; ++i) {
+			allocations[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record that a given function, method or property is being entered.
+	 * This must be matched by a subsequent call to <code>exit()</code>.
+	 *
+	 * @param decl
+	 */
+	void enter(Decl.Callable decl) {
+		Activation caller = current.get();
+		Node node;
+		synchronized (this) {
+			node = (caller == null ? root : caller.node).getChild(decl);
+			getCallable(decl).active++;
+		}
+		current.set(new Activation(caller, node, System.nanoTime()));
+	}
+
+	/**
+	 * Record that the innermost function, method or property being executed
+	 * has exited (either normally or by an exception).
+	 */
+	void exit() {
+		long end = System.nanoTime();
+		Activation activation = current.get();
+		long total = end - activation.start;
+		long self = total - activation.children;
+		Activation caller = activation.caller;
+		if (caller != null) {
+			caller.children += total;
+		}
+		current.set(caller);
+		synchronized (this) {
+			Node node = activation.node;
+			Callable callable = getCallable(node.callable);
+			callable.invocations++;
+			callable.exclusive += self;
+			// For a recursive callable, time is only included once by the
+			// outermost invocation.
+			if (--callable.active == 0) {
+				callable.inclusive += total;
+			}
+			node.self += self;
+		}
+	}
+
+	/**
+	 * Get the iteration counter for a given loop.
+	 *
+	 * @param loop
+	 *            Either a while or do-while statement.
+	 * @return
+	 */
+	synchronized Loop getLoop(Stmt loop) {
+		Loop l = loops.get(loop);
+		if (l == null) {
+			l = new Loop(loop);
+			loops.put(loop, l);
+		}
+		return l;
+	}
+
+	/**
+	 * Record that a value of a given kind has been constructed.
+	 *
+	 * @param kind
+	 */
+	void allocate(Kind kind) {
+		allocations[kind.ordinal()].increment();
+	}
+
+	private Callable getCallable(Decl.Callable decl) {
+		Callable c = callables.get(decl);
+		if (c == null) {
+			c = new Callable(decl);
+			callables.put(decl, c);
+		}
+		return c;
+	}
+
+	/**
+	 * Print a report of the results, with functions and methods sorted by the
+	 * time spent exclusively in them, and loops sorted by their number of
+	 * iterations.
+	 *
+	 * @param out
+	 */
+	public synchronized void printReport(PrintStream out) {
+		ArrayList<Callable> cs = new ArrayList<>(callables.values());
+		cs.sort((c1, c2) -> Long.compare(c2.exclusive, c1.exclusive));
+		out.println(String.format("%12s %14s %14s  %s", "CALLS", "INCLUSIVE(ms)", "EXCLUSIVE(ms)", "NAME"));
+		for (Callable c : cs) {
+			out.println(String.format("%12d %14.3f %14.3f  %s", c.invocations, c.inclusive / 1e6, c.exclusive / 1e6,
+					c.decl.getQualifiedName()));
+		}
+		ArrayList<Loop> ls = new ArrayList<>(loops.values());
+		ls.sort((l1, l2) -> Long.compare(l2.iterations.sum(), l1.iterations.sum()));
+		out.println();
+		out.println(String.format("%12s  %s", "ITERATIONS", "LOOP"));
+		for (Loop l : ls) {
+			out.println(String.format("%12d  %s", l.iterations.sum(), l));
+		}
+		out.println();
+		out.println(String.format("%12s  %s", "VALUES", "KIND"));
+		for (Kind kind : Kind.values()) {
+			out.println(String.format("%12d  %s", allocations[kind.ordinal()].sum(), kind.name().toLowerCase()));
+		}
+	}
+
+	/**
+	 * Print the time spent exclusively in each function or method for each
+	 * path through which it was invoked. Each line gives the path, with names
+	 * separated by semi-colons, followed by the time in microseconds. This is
+	 * the "collapsed stack" format accepted by flame graph tools.
+	 *
+	 * @param out
+	 */
+	public synchronized void printCollapsedStacks(PrintStream out) {
+		for (Node child : root.children.values()) {
+			printCollapsedStacks(child, child.callable.getQualifiedName().toString(), out);
+		}
+	}
+
+	private static void printCollapsedStacks(Node node, String path, PrintStream out) {
+		long micros = node.self / 1000;
+		if (micros > 0) {
+			out.println(path + " " + micros);
+		}
+		for (Node child : node.children.values()) {
+			printCollapsedStacks(child, path + ";" + child.callable.getQualifiedName(), out);
+		}
+	}
+
+	/**
+	 * Counts the iterations of a given loop. This is incremented without
+	 * holding the profiler's lock, since it can be done very frequently.
+	 */
+	static final class Loop {
+		private final Stmt loop;
+		private final LongAdder iterations = new LongAdder();
+
+		private Loop(Stmt loop) {
+			this.loop = loop;
+		}
+
+		public void iterate() {
+			iterations.increment();
+		}
+
+		@Override
+		public String toString() {
+			String kind = loop instanceof Stmt.While ? "while" : "do-while";
+			Decl.Callable context = loop.getAncestor(Decl.Callable.class);
+			String name = context == null ? "?" : context.getQualifiedName().toString();
+			return name + ": " + kind + " #" + loop.getIndex();
+		}
+	}
+
+	private static final class Callable {
+		private final Decl.Callable decl;
+		private long invocations;
+		private long inclusive;
+		private long exclusive;
+		/**
+		 * The number of invocations currently being executed.
+		 */
+		private int active;
+
+		public Callable(Decl.Callable decl) {
+			this.decl = decl;
+		}
+	}
+
+	/**
+	 * A node in the call tree, which identifies the path through which a
+	 * given function or method was invoked.
+	 */
+	private static final class Node {
+		private final Decl.Callable callable;
+		private final IdentityHashMap<Decl.Callable, Node> children = new IdentityHashMap<>();
+		private long self;
+
+		public Node(Decl.Callable callable) {
+			this.callable = callable;
+		}
+
+		public Node getChild(Decl.Callable callable) {
+			Node child = children.get(callable);
+			if (child == null) {
+				child = new Node(callable);
+				children.put(callable, child);
+			}
+			return child;
+		}
+	}
+
+	private static final class Activation {
+		private final Activation caller;
+		private final Node node;
+		private final long start;
+		/**
+		 * The total time spent in invocations made from this one.
+		 */
+		private long children;
+
+		public Activation(Activation caller, Node node, long start) {
+			this.caller = caller;
+			this.node = node;
+			this.start = start;
+		}
+	}
+}
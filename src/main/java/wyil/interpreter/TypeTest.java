@@ -0,0 +1,448 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.interpreter;
+
+import java.util.IdentityHashMap;
+
+import wybs.lang.NameResolver.ResolutionError;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wyc.lang.WhileyFile.Decl;
+import wyc.lang.WhileyFile.Expr;
+import wyc.lang.WhileyFile.Type;
+import wyil.interpreter.ConcreteSemantics.RValue;
+
+/**
+ * <p>
+ * A plan for testing whether a value is an instance of a given type at
+ * runtime. A plan is compiled once for each type, with any nominal types
+ * already resolved to their declarations. Furthermore, every plan knows which
+ * kinds of value (e.g. integers or records) it could possibly accept. This
+ * allows values of the wrong kind to be rejected by a single bit test before
+ * any further work is done (e.g. walking the elements of a union, or checking
+ * the invariant of a nominal type).
+ * </p>
+ * <p>
+ * Plans are immutable once constructed (except for caches, which are updated
+ * atomically) and may be used concurrently. They are obtained from a
+ * <code>Cache</code>, of which there is one per interpreter.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public abstract class TypeTest {
+	// Kinds of value
+	public static final int NULL = 1;
+	public static final int BOOL = 2;
+	public static final int BYTE = 4;
+	public static final int INT = 8;
+	public static final int ARRAY = 16;
+	public static final int RECORD = 32;
+	public static final int LAMBDA = 64;
+	public static final int REFERENCE = 128;
+	public static final int ANY = 255;
+
+	/**
+	 * The kinds of value which this plan could possibly accept.
+	 */
+	protected int kinds;
+
+	protected TypeTest(int kinds) {
+		this.kinds = kinds;
+	}
+
+	/**
+	 * Test whether a given value is an instance of the type from which this
+	 * plan was compiled.
+	 *
+	 * @param value
+	 * @return
+	 * @throws ResolutionError
+	 */
+	public boolean test(RValue value) throws ResolutionError {
+		int kind = kindOf(value);
+		return (kinds & kind) != 0 && test(value, kind);
+	}
+
+	/**
+	 * Test whether a given value of a given kind is an instance of the type
+	 * from which this plan was compiled. The kind must be one which this plan
+	 * could accept.
+	 *
+	 * @param value
+	 * @param kind
+	 * @return
+	 * @throws ResolutionError
+	 */
+	protected abstract boolean test(RValue value, int kind) throws ResolutionError;
+
+	/**
+	 * Determine the kind of a given value, or zero if it has none (e.g. a
+	 * cell).
+	 *
+	 * @param value
+	 * @return
+	 */
+	public static int kindOf(RValue value) {
+		if (value instanceof RValue.Int) {
+			return INT;
+		} else if (value instanceof RValue.Bool) {
+			return BOOL;
+		} else if (value instanceof RValue.Array) {
+			return ARRAY;
+		} else if (value instanceof RValue.Record) {
+			return RECORD;
+		} else if (value instanceof RValue.Null) {
+			return NULL;
+		} else if (value instanceof RValue.Byte) {
+			return BYTE;
+		} else if (value instanceof RValue.Reference) {
+			return REFERENCE;
+		} else if (value instanceof RValue.Lambda) {
+			return LAMBDA;
+		} else {
+			return 0;
+		}
+	}
+
+	// =============================================================
+	// Cache
+	// =============================================================
+
+	/**
+	 * Compiles and caches the plan for each type tested by a given
+	 * interpreter. Types are identified by identity, since the same type
+	 * objects are tested over and over again at the same points in a program.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Cache {
+		private final Interpreter interpreter;
+		private final IdentityHashMap<Type, TypeTest> types = new IdentityHashMap<>();
+		/**
+		 * The plan for each nominal type. This is registered before the
+		 * underlying type is compiled, such that recursive types give cyclic
+		 * plans.
+		 */
+		private final IdentityHashMap<Decl.Type, Nominal> nominals = new IdentityHashMap<>();
+
+		public Cache(Interpreter interpreter) {
+			this.interpreter = interpreter;
+		}
+
+		/**
+		 * Get the plan for a given type, compiling it if this is the first
+		 * time it has been seen.
+		 *
+		 * @param type
+		 * @return
+		 */
+		public synchronized TypeTest get(Type type) {
+			TypeTest plan = types.get(type);
+			if (plan == null) {
+				plan = compile(type);
+				types.put(type, plan);
+			}
+			return plan;
+		}
+
+		private TypeTest compile(Type type) {
+			if (type instanceof Type.Null) {
+				return new Tag(NULL);
+			} else if (type instanceof Type.Bool) {
+				return new Tag(BOOL);
+			} else if (type instanceof Type.Byte) {
+				return new Tag(BYTE);
+			} else if (type instanceof Type.Int) {
+				return new Tag(INT);
+			} else if (type instanceof Type.Array) {
+				return new Array(get(((Type.Array) type).getElement()));
+			} else if (type instanceof Type.Record) {
+				return compileRecord((Type.Record) type);
+			} else if (type instanceof Type.Reference) {
+				return new Reference(get(((Type.Reference) type).getElement()));
+			} else if (type instanceof Type.Callable) {
+				return new Lambda((Type.Callable) type);
+			} else if (type instanceof Type.Nominal) {
+				return compileNominal((Type.Nominal) type);
+			} else if (type instanceof Type.Union) {
+				Type.Union t = (Type.Union) type;
+				TypeTest[] elements = new TypeTest[t.size()];
+				for (int i = 0; i != elements.length; ++i) {
+					elements[i] = get(t.get(i));
+				}
+				return new Union(elements);
+			} else {
+				// NOTE: no value is considered an instance of any other type
+				// (e.g. void).
+				return NEVER;
+			}
+		}
+
+		private TypeTest compileRecord(Type.Record type) {
+			Tuple<Type.Field> fields = type.getFields();
+			String[] names = new String[fields.size()];
+			TypeTest[] plans = new TypeTest[fields.size()];
+			for (int i = 0; i != names.length; ++i) {
+				Type.Field f = fields.get(i);
+				names[i] = f.getName().get();
+				plans[i] = get(f.getType());
+			}
+			return new Record(names, plans, type.isOpen());
+		}
+
+		private TypeTest compileNominal(Type.Nominal type) {
+			Decl.Type decl;
+			try {
+				decl = interpreter.getNameResolver().resolveExactly(type.getName(), Decl.Type.class);
+			} catch (ResolutionError e) {
+				// NOTE: the error is only reported if this type is actually
+				// tested, as would otherwise be the case.
+				return new Unresolved(e);
+			}
+			Nominal plan = nominals.get(decl);
+			if (plan == null) {
+				plan = new Nominal(interpreter, decl);
+				nominals.put(decl, plan);
+				plan.setUnderlying(get(decl.getVariableDeclaration().getType()));
+			}
+			return plan;
+		}
+	}
+
+	// =============================================================
+	// Plans
+	// =============================================================
+
+	private static final TypeTest NEVER = new TypeTest(0) {
+		@Override
+		protected boolean test(RValue value, int kind) {
+			return false;
+		}
+	};
+
+	/**
+	 * Accepts every value of a given kind (e.g. <code>int</code>).
+	 */
+	private static final class Tag extends TypeTest {
+		public Tag(int kind) {
+			super(kind);
+		}
+
+		@Override
+		protected boolean test(RValue value, int kind) {
+			return true;
+		}
+	}
+
+	private static final class Array extends TypeTest {
+		private final TypeTest element;
+
+		public Array(TypeTest element) {
+			super(ARRAY);
+			this.element = element;
+		}
+
+		@Override
+		protected boolean test(RValue value, int kind) throws ResolutionError {
+			RValue.Array arr = (RValue.Array) value;
+			RValue[] elements = arr.getElements();
+			for (int i = 0; i != elements.length; ++i) {
+				if (!element.test(elements[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final class Record extends TypeTest {
+		private final String[] names;
+		private final TypeTest[] fields;
+		private final boolean open;
+		/**
+		 * The slot of each field for the shape of record last tested here,
+		 * where no slots indicates a shape lacking one or more fields.
+		 * Typically, every record tested against a given type has the same
+		 * shape.
+		 */
+		private volatile Slots cache;
+
+		public Record(String[] names, TypeTest[] fields, boolean open) {
+			super(RECORD);
+			this.names = names;
+			this.fields = fields;
+			this.open = open;
+		}
+
+		@Override
+		protected boolean test(RValue value, int kind) throws ResolutionError {
+			RValue.Record rec = (RValue.Record) value;
+			RValue.Record.Shape shape = rec.getShape();
+			if (!open && shape.size() != names.length) {
+				return false;
+			}
+			Slots slots = cache;
+			if (slots == null || slots.shape != shape) {
+				slots = new Slots(shape, getSlots(shape));
+				cache = slots;
+			}
+			if (slots.slots == null) {
+				// One or more fields missing
+				return false;
+			}
+			for (int i = 0; i != fields.length; ++i) {
+				if (!fields[i].test(rec.read(slots.slots[i]))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private int[] getSlots(RValue.Record.Shape shape) {
+			int[] slots = new int[names.length];
+			for (int i = 0; i != slots.length; ++i) {
+				slots[i] = shape.indexOf(names[i]);
+				if (slots[i] < 0) {
+					return null;
+				}
+			}
+			return slots;
+		}
+
+		private static final class Slots {
+			private final RValue.Record.Shape shape;
+			private final int[] slots;
+
+			public Slots(RValue.Record.Shape shape, int[] slots) {
+				this.shape = shape;
+				this.slots = slots;
+			}
+		}
+	}
+
+	private static final class Reference extends TypeTest {
+		private final TypeTest element;
+
+		public Reference(TypeTest element) {
+			super(REFERENCE);
+			this.element = element;
+		}
+
+		@Override
+		protected boolean test(RValue value, int kind) throws ResolutionError {
+			return element.test(((RValue.Reference) value).deref().read());
+		}
+	}
+
+	private static final class Lambda extends TypeTest {
+		private final Type.Callable type;
+
+		public Lambda(Type.Callable type) {
+			super(LAMBDA);
+			this.type = type;
+		}
+
+		@Override
+		protected boolean test(RValue value, int kind) {
+			// FIXME: this is really a hack, since we need to perform a full
+			// subtype test at this point.
+			return type.equals(((RValue.Lambda) value).getContext().getType());
+		}
+	}
+
+	/**
+	 * Accepts values accepted by the underlying type of a nominal type, and
+	 * which satisfy its invariant (if any).
+	 */
+	private static final class Nominal extends TypeTest {
+		private final Interpreter interpreter;
+		private final Decl.Variable variable;
+		private final Tuple<Expr> invariant;
+		private TypeTest underlying;
+
+		public Nominal(Interpreter interpreter, Decl.Type decl) {
+			// NOTE: whilst the underlying type is being compiled, this may
+			// accept any kind of value.
+			super(ANY);
+			this.interpreter = interpreter;
+			this.variable = decl.getVariableDeclaration();
+			this.invariant = decl.getInvariant();
+		}
+
+		private void setUnderlying(TypeTest underlying) {
+			this.underlying = underlying;
+			this.kinds = underlying.kinds;
+		}
+
+		@Override
+		protected boolean test(RValue value, int kind) throws ResolutionError {
+			if ((underlying.kinds & kind) == 0 || !underlying.test(value, kind)) {
+				return false;
+			}
+			return invariant.size() == 0 || value.checkInvariant(variable, invariant, interpreter) == RValue.True;
+		}
+	}
+
+	/**
+	 * Accepts values accepted by any of its elements. Elements which cannot
+	 * accept the kind of value being tested are skipped.
+	 */
+	private static final class Union extends TypeTest {
+		private final TypeTest[] elements;
+
+		public Union(TypeTest[] elements) {
+			super(union(elements));
+			this.elements = elements;
+		}
+
+		@Override
+		protected boolean test(RValue value, int kind) throws ResolutionError {
+			for (int i = 0; i != elements.length; ++i) {
+				TypeTest element = elements[i];
+				if ((element.kinds & kind) != 0 && element.test(value, kind)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static int union(TypeTest[] elements) {
+			int kinds = 0;
+			for (int i = 0; i != elements.length; ++i) {
+				kinds |= elements[i].kinds;
+			}
+			return kinds;
+		}
+	}
+
+	/**
+	 * A nominal type which could not be resolved. The error is reported when
+	 * a value is actually tested against it.
+	 */
+	private static final class Unresolved extends TypeTest {
+		private final ResolutionError error;
+
+		public Unresolved(ResolutionError error) {
+			super(ANY);
+			this.error = error;
+		}
+
+		@Override
+		protected boolean test(RValue value, int kind) throws ResolutionError {
+			throw error;
+		}
+	}
+}
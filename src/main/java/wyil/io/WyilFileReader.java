@@ -13,7 +13,14 @@
 // limitations under the License.
 package wyil.io;
 
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
 
 import wybs.io.SyntacticHeapReader;
 import wybs.lang.SyntacticHeap;
@@ -24,7 +31,8 @@ import wyc.lang.WhileyFile;
 
 /**
  * Read a binary WYIL file from a byte stream and convert into the corresponding
- * WhileyFile object.
+ * WhileyFile object. Where the file is held on disk, it is memory mapped rather
+ * than read through a stream.
  *
  * @author David J. Pearce
  *
@@ -32,10 +40,21 @@ import wyc.lang.WhileyFile;
 public final class WyilFileReader extends SyntacticHeapReader {
 	private static final char[] magic = { 'W', 'Y', 'I', 'L', 'F', 'I', 'L', 'E' };
 
+	/**
+	 * The first version whose header includes the table of declared names.
+	 */
+	private static final int DECLARED_NAMES_VERSION = 2;
+
 	private Path.Entry<WhileyFile> entry;
 
+	/**
+	 * The names declared in the file, or null if its header does not include
+	 * them.
+	 */
+	private Set<String> declaredNames;
+
 	public WyilFileReader(Path.Entry<WhileyFile> entry) throws IOException {
-		super(entry.inputStream(), WhileyFile.getSchema());
+		super(open(entry), WhileyFile.getSchema());
 		this.entry = entry;
 	}
 
@@ -45,6 +64,20 @@ public final class WyilFileReader extends SyntacticHeapReader {
 		return new WhileyFile(entry,items);
 	}
 
+	/**
+	 * Read only the header of the file, returning the set of names declared
+	 * in it. None of the items in the file are decoded. This returns null if
+	 * the file predates the table of declared names, in which case it must be
+	 * read in full.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public Set<String> readDeclaredNames() throws IOException {
+		checkHeader();
+		return declaredNames;
+	}
+
 	@Override
 	protected void checkHeader() throws IOException {
 		// Check magic number
@@ -57,7 +90,77 @@ public final class WyilFileReader extends SyntacticHeapReader {
 		// Check version number
 		int major = in.read_uv();
 		int minor = in.read_uv();
+		if (major > 0 || minor >= DECLARED_NAMES_VERSION) {
+			declaredNames = readNames();
+		}
 		// Pad to next byte boundary
 		in.pad_u8();
 	}
+
+	private Set<String> readNames() throws IOException {
+		int size = in.read_uv();
+		HashSet<String> names = new HashSet<>();
+		for (int i = 0; i != size; ++i) {
+			byte[] bytes = new byte[in.read_uv()];
+			for (int j = 0; j != bytes.length; ++j) {
+				bytes[j] = (byte) in.read_u8();
+			}
+			names.add(new String(bytes, StandardCharsets.UTF_8));
+		}
+		return names;
+	}
+
+	/**
+	 * Open the given entry for reading. When this is a file on disk, it is
+	 * memory mapped. This avoids copying the file through intermediate
+	 * buffers, and means only those pages actually read (e.g. the header) are
+	 * loaded.
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	private static InputStream open(Path.Entry<WhileyFile> entry) throws IOException {
+		InputStream input = entry.inputStream();
+		if (input instanceof FileInputStream) {
+			// NOTE: the mapping remains valid after the channel is closed
+			try (FileChannel channel = ((FileInputStream) input).getChannel()) {
+				return new MappedInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			}
+		}
+		return input;
+	}
+
+	/**
+	 * An input stream which reads from a (memory mapped) buffer.
+	 */
+	private static final class MappedInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		public MappedInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			} else if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
 }
@@ -14,8 +14,12 @@
 package wyil.io;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
 
 import wybs.io.SyntacticHeapWriter;
+import wybs.lang.SyntacticHeap;
+import wybs.lang.SyntacticItem;
 import wyc.lang.WhileyFile;
 
 
@@ -25,22 +29,39 @@ import wyc.lang.WhileyFile;
  * binary format is structured to given maximum flexibility and to avoid
  * built-in limitations in terms of e.g. maximum sizes, etc.
  * </p>
+ * <p>
+ * The header includes a table of the names declared in the file. This allows
+ * a reader to determine whether a file declares a given name without decoding
+ * its items (see <code>WyilFileReader.readDeclaredNames()</code>).
+ * </p>
  *
  * @author David J. Pearce
  *
  */
 public final class WyilFileWriter extends SyntacticHeapWriter {
 	private static final int MAJOR_VERSION = 0;
-	private static final int MINOR_VERSION = 1;
+	private static final int MINOR_VERSION = 2;
+
+	/**
+	 * The heap currently being written.
+	 */
+	private SyntacticHeap heap;
 
 	public WyilFileWriter(OutputStream output) {
 		super(output, WhileyFile.getSchema());
 	}
 
+	@Override
+	public void write(SyntacticHeap heap) throws IOException {
+		this.heap = heap;
+		super.write(heap);
+	}
+
 	@Override
 	public void writeHeader() throws IOException {
 		writeMagicNumber();
 		writeVersionNumber();
+		writeDeclaredNames();
 		// Pad to next byte boundary
 		out.pad_u8();
 	}
@@ -60,4 +81,28 @@ public final class WyilFileWriter extends SyntacticHeapWriter {
 		out.write_uv(MAJOR_VERSION);
 		out.write_uv(MINOR_VERSION);
 	}
+
+	/**
+	 * Write the distinct names of all named declarations in the heap, each as
+	 * a length followed by its UTF-8 encoding.
+	 *
+	 * @throws IOException
+	 */
+	public void writeDeclaredNames() throws IOException {
+		LinkedHashSet<String> names = new LinkedHashSet<>();
+		for (int i = 0; i != heap.size(); ++i) {
+			SyntacticItem item = heap.getSyntacticItem(i);
+			if (item instanceof WhileyFile.Decl.Named) {
+				names.add(((WhileyFile.Decl.Named) item).getName().get());
+			}
+		}
+		out.write_uv(names.size());
+		for (String name : names) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			out.write_uv(bytes.length);
+			for (int i = 0; i != bytes.length; ++i) {
+				out.write_u8(bytes[i] & 0xFF);
+			}
+		}
+	}
 }
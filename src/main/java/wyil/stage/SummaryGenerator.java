@@ -0,0 +1,136 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.stage;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import wybs.lang.SyntacticItem;
+import wyc.lang.WhileyFile;
+import wyfs.lang.Path;
+
+import static wyc.lang.WhileyFile.*;
+
+/**
+ * <p>
+ * Generates the interface summary of a compiled Whiley file. This contains
+ * everything needed to resolve names against the file, and to type check
+ * other files which use it. That is, its imports, type declarations (with
+ * their invariants), static variables and the signatures of its functions,
+ * methods and properties (with their preconditions and postconditions).
+ * However, the bodies of functions and methods are omitted, as are all
+ * attributes (e.g. source spans).
+ * </p>
+ * <p>
+ * A summary is itself a Whiley file, albeit one in which every function and
+ * method body is empty. It is stored in the same binary format as a WyIL file,
+ * but with its own content type.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class SummaryGenerator {
+	/**
+	 * Maps each item in the file being summarised to its copy in the summary.
+	 */
+	private final IdentityHashMap<SyntacticItem, SyntacticItem> copies = new IdentityHashMap<>();
+	/**
+	 * The items of the summary, in the order they were created.
+	 */
+	private final ArrayList<SyntacticItem> items = new ArrayList<>();
+
+	/**
+	 * Generate the summary of a given Whiley file.
+	 *
+	 * @param wf
+	 *            The (fully checked) file being summarised.
+	 * @param target
+	 *            The entry which will hold the summary.
+	 * @return
+	 */
+	public WhileyFile generate(WhileyFile wf, Path.Entry<WhileyFile> target) {
+		Decl.Module module = wf.getSyntacticItems(Decl.Module.class).get(0);
+		Tuple<Decl> declarations = module.getDeclarations();
+		ArrayList<Decl> summaries = new ArrayList<>();
+		for (int i = 0; i != declarations.size(); ++i) {
+			Decl decl = declarations.get(i);
+			if (decl instanceof Decl.FunctionOrMethod) {
+				summaries.add(summarise((Decl.FunctionOrMethod) decl));
+			} else if (decl instanceof Decl.Import || decl instanceof Decl.Type
+					|| decl instanceof Decl.StaticVariable || decl instanceof Decl.Property) {
+				summaries.add(copy(decl));
+			}
+		}
+		Tuple<Decl> tuple = add(new Tuple<>(summaries.toArray(new Decl[summaries.size()])));
+		add(new Decl.Module(copy(module.getName()), tuple));
+		return new WhileyFile(target, items.toArray(new SyntacticItem[items.size()]));
+	}
+
+	/**
+	 * Summarise a function or method by copying everything except its body,
+	 * which is replaced with an empty block.
+	 *
+	 * @param decl
+	 * @return
+	 */
+	private Decl.FunctionOrMethod summarise(Decl.FunctionOrMethod decl) {
+		SyntacticItem[] operands = new SyntacticItem[decl.size()];
+		for (int i = 0; i != operands.length; ++i) {
+			SyntacticItem operand = decl.get(i);
+			if (operand == decl.getBody()) {
+				operands[i] = add(new Stmt.Block());
+			} else {
+				operands[i] = copy(operand);
+			}
+		}
+		return add((Decl.FunctionOrMethod) decl.clone(operands));
+	}
+
+	/**
+	 * Copy a given item (and all items reachable from it) into the summary.
+	 * Items reachable along more than one path are copied only once.
+	 *
+	 * @param item
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private <T extends SyntacticItem> T copy(T item) {
+		if (item == null) {
+			return null;
+		}
+		SyntacticItem result = copies.get(item);
+		if (result == null) {
+			SyntacticItem[] operands = new SyntacticItem[item.size()];
+			for (int i = 0; i != operands.length; ++i) {
+				operands[i] = copy(item.get(i));
+			}
+			result = item.clone(operands);
+			// NOTE: the following are encoded in the opcode of an item, which
+			// is not preserved by cloning it.
+			if (item instanceof Decl.Type && ((Decl.Type) item).isRecursive()) {
+				((Decl.Type) result).setRecursive();
+			} else if (item instanceof Expr.VariableAccess && ((Expr.VariableAccess) item).isMove()) {
+				((Expr.VariableAccess) result).setMove();
+			}
+			copies.put(item, add(result));
+		}
+		return (T) result;
+	}
+
+	private <T extends SyntacticItem> T add(T item) {
+		items.add(item);
+		return item;
+	}
+}
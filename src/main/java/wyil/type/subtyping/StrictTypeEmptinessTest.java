@@ -20,7 +20,7 @@ import java.util.HashSet;
 
 import wycc.util.Pair;
 import wyil.type.util.BinaryRelation;
-import wyil.type.util.HashSetBinaryRelation;
+import wyil.type.util.InternedBinaryRelation;
 import wybs.lang.NameID;
 import wybs.lang.NameResolver;
 import wybs.lang.NameResolver.ResolutionError;
@@ -192,7 +192,7 @@ public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
 		// FIXME: this is really temporary for now.
 		Term<?> lhsTerm = new Term<>(lhsState.sign, lhs, lhsState.maximise);
 		Term<?> rhsTerm = new Term<>(rhsState.sign, rhs, rhsState.maximise);
-		HashSetBinaryRelation<Term<?>> assumptions = new HashSetBinaryRelation<>();
+		InternedBinaryRelation<Term<?>> assumptions = new InternedBinaryRelation<>();
 		return isVoidTerm(lhsTerm, rhsTerm, assumptions, lifetimes);
 	}
 
@@ -207,28 +207,33 @@ public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
 			return true;
 		} else {
 			assumptions.set(lhs, rhs, true);
-			ArrayList<Atom<?>> truths = new ArrayList<>();
-			Worklist worklist = new Worklist();
-			worklist.push(lhs);
-			worklist.push(rhs);
-			boolean r = isVoid(truths, worklist, assumptions, lifetimes);
+			Worklist worklist = Worklist.push(null, lhs.sign, lhs.type, lhs.maximise);
+			worklist = Worklist.push(worklist, rhs.sign, rhs.type, rhs.maximise);
+			boolean r = isVoid(worklist, assumptions, lifetimes);
 			assumptions.set(lhs, rhs, false);
 			return r;
 		}
 	}
 
 	/**
+	 * <p>
 	 * Determine whether or not the intersection of a given list of types (the
-	 * worklist) reduces to void or not. This is performed in the context of a
-	 * number of ground "atoms" which are known to hold. In essence, this algorithm
-	 * exhaustively expands all items on the worklist to form atoms. The expanded
-	 * atoms are then checked for consistency.
-	 *
-	 * is type is equivalent to void. This is a relatively complex operation which
-	 * builds up a list of clauses known to hold.
+	 * worklist) reduces to void or not. In essence, this algorithm exhaustively
+	 * expands all items on the worklist to form ground "atoms" which are known to
+	 * hold. The expanded atoms are then checked for consistency.
+	 * </p>
+	 * <p>
+	 * Expanding a disjunction (e.g. a positive union) splits the search, since the
+	 * intersection is void only if it is void for every operand. Rather than
+	 * recursing, the search is performed iteratively using an explicit stack of
+	 * <i>choice points</i>. Each choice point records the worklist and the number
+	 * of atoms established at the point of the split. Since worklists are
+	 * immutable linked lists, and atoms are only ever appended along a given path,
+	 * backtracking to a choice point requires neither copying the worklist nor
+	 * the atoms. The search explores operands in the same order as a recursive
+	 * search would and, hence, gives the same results.
+	 * </p>
 	 *
-	 * @param truths
-	 *            The set of truths which have been established.
 	 * @param worklist
 	 *            The set of types currently being expanded
 	 * @param assumptions
@@ -236,8 +241,8 @@ public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
 	 * @return
 	 * @throws ResolutionError
 	 */
-	protected boolean isVoid(ArrayList<Atom<?>> truths, Worklist worklist, BinaryRelation<Term<?>> assumptions,
-			LifetimeRelation lifetimes) throws ResolutionError {
+	protected boolean isVoid(Worklist worklist, BinaryRelation<Term<?>> assumptions, LifetimeRelation lifetimes)
+			throws ResolutionError {
 		// FIXME: there is a bug in the following case which needs to be
 		// addressed:
 		//
@@ -251,92 +256,121 @@ public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
 		// ({int f} & !{int f} & !{null f}) || ({null f} & !{int f} & !{null f})
 		//
 		// This will now produce the correct result.
-
-		if (worklist.size() == 0) {
-			// At this point, we have run out of terms to expand further.
-			// Therefore, we have accumulated the complete list of "truths" and
-			// we must now attempt to establish whether or not this is
-			// consistent. For example, "int & !bool & !int" is not consistent
-			// because "int & !int" is not consistent.
-			//
-			// Therefore, we consider each possible pair of truths looking for
-			// consistency.
+		ArrayList<Atom<?>> truths = new ArrayList<>();
+		ArrayList<Choice> choices = new ArrayList<>();
+		//
+		while (true) {
+			// Indicates the current path has been found to be void.
+			boolean isVoid = false;
 			//
-			for (int i = 0; i != truths.size(); ++i) {
-				Atom<?> ith = truths.get(i);
-				for (int j = i + 1; j != truths.size(); ++j) {
-					Atom<?> jth = truths.get(j);
-					if (isVoidAtom(ith, jth, assumptions, lifetimes)) {
-						return true;
+			if (worklist == null) {
+				// At this point, we have run out of terms to expand further.
+				// Therefore, we have accumulated the complete list of "truths"
+				// and we must now attempt to establish whether or not this is
+				// consistent. If it is, then we have found a path which is not
+				// void and, hence, the whole thing is not void.
+				if (!isVoid(truths, assumptions, lifetimes)) {
+					return false;
+				}
+				isVoid = true;
+			} else {
+				// In this case, we still have items on the worklist which need
+				// to be processed. That is, broken down into "atomic" terms.
+				boolean sign = worklist.sign;
+				boolean maximise = worklist.maximise;
+				SemanticType t = worklist.type;
+				worklist = worklist.next;
+				//
+				boolean conjunct = sign;
+				switch (t.getOpcode()) {
+				case SEMTYPE_union:
+				case TYPE_union:
+					conjunct = !conjunct;
+				case SEMTYPE_intersection: {
+					Type.Combinator ut = (Type.Combinator) t;
+					if (conjunct) {
+						worklist = Worklist.push(worklist, sign, ut.getAll(), maximise);
+					} else {
+						// Split the search. The first operand is selected below.
+						choices.add(new Choice(worklist, sign, ut.getAll(), maximise, truths.size()));
+						isVoid = true;
 					}
+					break;
+				}
+				case SEMTYPE_difference: {
+					SemanticType.Difference nt = (SemanticType.Difference) t;
+					worklist = Worklist.push(worklist, sign, nt.getLeftHandSide(), maximise);
+					worklist = Worklist.push(worklist, !sign, nt.getRightHandSide(), !maximise);
+					break;
+				}
+				case TYPE_nominal: {
+					Type.Nominal nom = (Type.Nominal) t;
+					Decl.Type decl = resolver.resolveExactly(nom.getName(), Decl.Type.class);
+					if (maximise || decl.getInvariant().size() == 0) {
+						worklist = Worklist.push(worklist, sign, decl.getType(), maximise);
+					} else if (sign) {
+						// Corresponds to void, so we're done on this path.
+						isVoid = true;
+					}
+					break;
+				}
+				case TYPE_recursive: {
+					Type.Recursive rec = (Type.Recursive) t;
+					worklist = Worklist.push(worklist, sign, rec.getHead(), maximise);
+					break;
+				}
+				default:
+					truths.add(new Atom(sign, (SemanticType.Atom) t, maximise));
 				}
 			}
-			return false;
-		} else {
-			// In this case, we still have items on the worklist which need to
-			// be processed. That is, broken down into "atomic" terms.
-			Term<SemanticType> item = worklist.pop();
-			SemanticType t = item.type;
 			//
-			boolean conjunct = item.sign;
-			switch (t.getOpcode()) {
-			case SEMTYPE_union:
-			case TYPE_union:
-				conjunct = !conjunct;
-			case SEMTYPE_intersection: {
-				Type.Combinator ut = (Type.Combinator) t;
-				if (conjunct) {
-					worklist.push(item.sign, ut.getAll(), item.maximise);
-				} else {
-					return isVoidDisjunction(ut, item.sign, item.maximise, truths, worklist, assumptions,
-							lifetimes);
+			if (isVoid) {
+				// Backtrack to the most recent choice point which has operands
+				// remaining. If there are none, then every path was void.
+				Choice choice = null;
+				while (!choices.isEmpty()) {
+					Choice c = choices.get(choices.size() - 1);
+					if (c.next < c.operands.length) {
+						choice = c;
+						break;
+					}
+					choices.remove(choices.size() - 1);
 				}
-				break;
-			}
-			case SEMTYPE_difference: {
-				SemanticType.Difference nt = (SemanticType.Difference) t;
-				worklist.push(item.sign, nt.getLeftHandSide(), item.maximise);
-				worklist.push(!item.sign, nt.getRightHandSide(), !item.maximise);
-				break;
-			}
-			case TYPE_nominal: {
-				Type.Nominal nom = (Type.Nominal) t;
-				Decl.Type decl = resolver.resolveExactly(nom.getName(), Decl.Type.class);
-				if (item.maximise || decl.getInvariant().size() == 0) {
-					worklist.push(item.sign, decl.getType(), item.maximise);
-				} else if (item.sign) {
-					// Corresponds to void, so we're done on this path.
+				if (choice == null) {
 					return true;
 				}
-				break;
-			}
-			case TYPE_recursive: {
-				Type.Recursive rec = (Type.Recursive) t;
-				worklist.push(item.sign, rec.getHead(), item.maximise);
-				break;
-			}
-			default:
-				truths.add(new Atom(item.sign, (SemanticType.Atom) item.type, item.maximise));
+				truths.subList(choice.truths, truths.size()).clear();
+				worklist = Worklist.push(choice.worklist, choice.sign, choice.operands[choice.next++], choice.maximise);
 			}
-			return isVoid(truths, worklist, assumptions, lifetimes);
 		}
 	}
 
-	protected boolean isVoidDisjunction(Type.Combinator combinator, boolean sign, boolean maximise, ArrayList<Atom<?>> truths,
-			Worklist worklist, BinaryRelation<Term<?>> assumptions, LifetimeRelation lifetimes) throws ResolutionError {
-		SemanticType[] operands = combinator.getAll();
-		for (int i = 0; i != operands.length; ++i) {
-			Worklist tmp = worklist.clone();
-			tmp.push(sign, operands[i], maximise);
-			if (!isVoid((ArrayList<Atom<?>>) truths.clone(), tmp, assumptions, lifetimes)) {
-				// If a single clause of the disjunct is definitely
-				// not void, then the whole thing is not void.
-				return false;
+	/**
+	 * Determine whether a complete list of "truths" is inconsistent. For example,
+	 * "int & !bool & !int" is not consistent because "int & !int" is not
+	 * consistent. Therefore, we consider each possible pair of truths looking for
+	 * consistency.
+	 *
+	 * @param truths
+	 *            The set of truths which have been established.
+	 * @param assumptions
+	 *            The set of assumed subtype relationships
+	 * @return
+	 * @throws ResolutionError
+	 */
+	protected boolean isVoid(ArrayList<Atom<?>> truths, BinaryRelation<Term<?>> assumptions,
+			LifetimeRelation lifetimes) throws ResolutionError {
+		for (int i = 0; i != truths.size(); ++i) {
+			Atom<?> ith = truths.get(i);
+			for (int j = i + 1; j != truths.size(); ++j) {
+				Atom<?> jth = truths.get(j);
+				if (isVoidAtom(ith, jth, assumptions, lifetimes)) {
+					return true;
+				}
 			}
 		}
-		return true;
+		return false;
 	}
-
 	protected Name[] append(Name[] lhs, Name rhs) {
 		if (rhs == null) {
 			return lhs;
@@ -854,41 +888,68 @@ public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
 	// Helpers
 	// ========================================================================
 
-	private final static class Worklist extends ArrayList<Term<SemanticType>> {
-		/**
-		 *
-		 */
-		private static final long serialVersionUID = 1L;
-
-		public Term<SemanticType> top() {
-			return get(size() - 1);
-		}
+	/**
+	 * An immutable list of terms waiting to be expanded, where the top of the
+	 * worklist is the head of the list. Since worklists are immutable, they can be
+	 * shared freely between the different paths explored by the search.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	protected final static class Worklist {
+		public final boolean sign;
+		public final SemanticType type;
+		public final boolean maximise;
+		public final Worklist next;
 
-		public void push(Term item) {
-			add(item);
+		private Worklist(boolean sign, SemanticType type, boolean maximise, Worklist next) {
+			this.sign = sign;
+			this.type = type;
+			this.maximise = maximise;
+			this.next = next;
 		}
 
-		public void push(boolean sign, SemanticType type, boolean maximise) {
-			add(new Term(sign, type, maximise));
+		public static Worklist push(Worklist worklist, boolean sign, SemanticType type, boolean maximise) {
+			return new Worklist(sign, type, maximise, worklist);
 		}
 
-		public void push(boolean sign, SemanticType[] types, boolean maximise) {
+		public static Worklist push(Worklist worklist, boolean sign, SemanticType[] types, boolean maximise) {
 			for (int i = 0; i != types.length; ++i) {
-				add(new Term(sign, types[i], maximise));
+				worklist = new Worklist(sign, types[i], maximise, worklist);
 			}
+			return worklist;
 		}
+	}
 
-		public Term<SemanticType> pop() {
-			Term<SemanticType> i = get(size() - 1);
-			remove(size() - 1);
-			return i;
-		}
+	/**
+	 * A point at which the search was split over the operands of a disjunction.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private final static class Choice {
+		/**
+		 * The worklist at the point of the split
+		 */
+		public final Worklist worklist;
+		public final boolean sign;
+		public final SemanticType[] operands;
+		public final boolean maximise;
+		/**
+		 * The number of truths established at the point of the split.
+		 */
+		public final int truths;
+		/**
+		 * The next operand to explore.
+		 */
+		public int next;
 
-		@Override
-		public Worklist clone() {
-			Worklist wl = new Worklist();
-			wl.addAll(this);
-			return wl;
+		public Choice(Worklist worklist, boolean sign, SemanticType[] operands, boolean maximise, int truths) {
+			this.worklist = worklist;
+			this.sign = sign;
+			this.operands = operands;
+			this.maximise = maximise;
+			this.truths = truths;
 		}
 	}
 
@@ -896,6 +957,11 @@ public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
 		public final boolean sign;
 		public final T type;
 		public final boolean maximise;
+		/**
+		 * Cached hash code, since computing this requires traversing the type.
+		 * Zero indicates it has not yet been computed.
+		 */
+		private int hashCode;
 
 		public Term(boolean sign, T type, boolean maximise) {
 			this.type = type;
@@ -912,14 +978,18 @@ public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
 		public boolean equals(Object o) {
 			if (o instanceof Term) {
 				Term t = (Term) o;
-				return sign == t.sign && maximise == t.maximise && type.equals(t.type);
+				return sign == t.sign && maximise == t.maximise && hashCode() == t.hashCode() && type.equals(t.type);
 			}
 			return false;
 		}
 
 		@Override
 		public int hashCode() {
-			return type.hashCode();
+			int h = hashCode;
+			if (h == 0) {
+				h = hashCode = type.hashCode();
+			}
+			return h;
 		}
 	}
 
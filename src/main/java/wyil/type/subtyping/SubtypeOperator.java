@@ -15,7 +15,11 @@ package wyil.type.subtyping;
 
 import static wyc.lang.WhileyFile.*;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import wybs.lang.NameID;
 import wybs.lang.NameResolver;
@@ -23,6 +27,8 @@ import wybs.lang.NameResolver.ResolutionError;
 import wyc.lang.WhileyFile.Decl;
 import wyc.lang.WhileyFile.Type;
 import wyil.type.subtyping.EmptinessTest.LifetimeRelation;
+import wyil.type.subtyping.EmptinessTest.State;
+import wyil.type.util.TypeIdCache;
 
 /**
  * <p>
@@ -33,6 +39,31 @@ import wyil.type.subtyping.EmptinessTest.LifetimeRelation;
  * possible integer values. Then, one type is a subtype another if the set it
  * corresponds to is a subset of the other's corresponding set.
  * </p>
+ * <p>
+ * Optionally, a subtype operator can <i>memoise</i> the results of emptiness
+ * tests. This is useful because the same queries are repeated many times when
+ * type checking a given module. The memo is bounded in size, and discards its
+ * least recently used entries once full. Entries are keyed on the cached
+ * identifiers of the types involved (see <code>TypeIdCache</code>), which
+ * account for the heap containing each nominal type since a nominal type is
+ * resolved relative to it. Tests involving types which cannot be identified in
+ * this way are not memoised. Likewise, since the lifetime relation cannot be
+ * enumerated, each entry records those <code>isWithin()</code> queries made when
+ * it was computed. An entry is only reused when the given lifetime relation
+ * answers these in the same way. Finally, results of queries which begin whilst
+ * another is in progress (on the same thread) are never recorded, since they may
+ * depend on assumptions made by the outer query.
+ * </p>
+ * <p>
+ * A subtype operator may be shared between threads checking different files
+ * concurrently. Without memoisation, it holds no state between queries. With
+ * memoisation, the memo and type identifier cache are shared by all threads.
+ * The memo is synchronised, whilst the cache is a concurrent map. The nesting
+ * depth of queries is tracked separately for each thread, and the memo's hit
+ * and miss counters are atomic.
+ * Since an emptiness test computed by one thread gives the same answer on any
+ * other, it does not matter which thread records an entry.
+ * </p>
  *
  * @author David J. Pearce
  *
@@ -41,13 +72,105 @@ public class SubtypeOperator {
 	private final NameResolver resolver;
 	private final EmptinessTest<SemanticType> emptinessTest;
 
+	/**
+	 * The default number of entries retained by a memoising subtype operator.
+	 */
+	public static final int DEFAULT_MEMO_CAPACITY = 4096;
+
+	/**
+	 * Memo of previously computed emptiness tests, or <code>null</code> if
+	 * memoisation is disabled.
+	 */
+	private final Memo memo;
+
+	/**
+	 * Cache used to identify the types in memoised tests, or
+	 * <code>null</code> if memoisation is disabled.
+	 */
+	private final TypeIdCache types;
+
 	enum Result {
 		True, False, Unknown
 	}
 
 	public SubtypeOperator(NameResolver resolver, EmptinessTest<SemanticType> emptinessTest) {
+		this(resolver, emptinessTest, 0);
+	}
+
+	/**
+	 * Construct a subtype operator which memoises (up to) a given number of
+	 * emptiness tests.
+	 *
+	 * @param resolver
+	 * @param emptinessTest
+	 * @param memoCapacity
+	 *            The maximum number of entries to retain. If this is zero, then
+	 *            memoisation is disabled.
+	 */
+	public SubtypeOperator(NameResolver resolver, EmptinessTest<SemanticType> emptinessTest, int memoCapacity) {
+		this(resolver, emptinessTest, memoCapacity, new TypeIdCache());
+	}
+
+	/**
+	 * Construct a subtype operator which memoises (up to) a given number of
+	 * emptiness tests, and identifies types using a given cache. This allows the
+	 * cache to be shared between operators.
+	 *
+	 * @param resolver
+	 * @param emptinessTest
+	 * @param memoCapacity
+	 *            The maximum number of entries to retain. If this is zero, then
+	 *            memoisation is disabled.
+	 * @param types
+	 *            The cache used to identify types.
+	 */
+	public SubtypeOperator(NameResolver resolver, EmptinessTest<SemanticType> emptinessTest, int memoCapacity,
+			TypeIdCache types) {
+		if (memoCapacity < 0) {
+			throw new IllegalArgumentException("invalid memo capacity: " + memoCapacity);
+		}
 		this.resolver = resolver;
 		this.emptinessTest = emptinessTest;
+		this.memo = memoCapacity == 0 ? null : new Memo(memoCapacity);
+		this.types = memoCapacity == 0 ? null : types;
+	}
+
+	/**
+	 * Determine whether or not this operator memoises emptiness tests.
+	 *
+	 * @return
+	 */
+	public boolean isMemoised() {
+		return memo != null;
+	}
+
+	/**
+	 * Get the cache used to identify types in memoised tests, or
+	 * <code>null</code> if memoisation is disabled.
+	 *
+	 * @return
+	 */
+	public TypeIdCache getTypeIdCache() {
+		return types;
+	}
+
+	/**
+	 * Get the number of emptiness tests answered from the memo.
+	 *
+	 * @return
+	 */
+	public long getMemoHits() {
+		return memo == null ? 0 : memo.hits.get();
+	}
+
+	/**
+	 * Get the number of emptiness tests which could not be answered from the memo
+	 * and, hence, were computed.
+	 *
+	 * @return
+	 */
+	public long getMemoMisses() {
+		return memo == null ? 0 : memo.misses.get();
 	}
 
 	/**
@@ -96,14 +219,13 @@ public class SubtypeOperator {
 	 *             corresponding type declaration.
 	 */
 	public boolean isSubtype(SemanticType lhs, SemanticType rhs, LifetimeRelation lifetimes) throws ResolutionError {
-		boolean max = emptinessTest.isVoid(lhs, EmptinessTest.NegativeMax, rhs, EmptinessTest.PositiveMax, lifetimes);
+		boolean max = isVoid(lhs, EmptinessTest.NegativeMax, rhs, EmptinessTest.PositiveMax, lifetimes);
 		//
 		// FIXME: I don't think this logic is correct yet for some reason.
 		if (!max) {
 			return false;
 		} else {
-			boolean min = emptinessTest.isVoid(lhs, EmptinessTest.NegativeMin, rhs, EmptinessTest.PositiveMin,
-					lifetimes);
+			boolean min = isVoid(lhs, EmptinessTest.NegativeMin, rhs, EmptinessTest.PositiveMin, lifetimes);
 			if (min) {
 				return true;
 			} else {
@@ -145,7 +267,55 @@ public class SubtypeOperator {
 	 * @throws ResolutionError
 	 */
 	public boolean isVoid(SemanticType type, LifetimeRelation lifetimes) throws ResolutionError {
-		return emptinessTest.isVoid(type, EmptinessTest.PositiveMax, type, EmptinessTest.PositiveMax, lifetimes);
+		return isVoid(type, EmptinessTest.PositiveMax, type, EmptinessTest.PositiveMax, lifetimes);
+	}
+
+	/**
+	 * Apply the underlying emptiness test, consulting the memo (if enabled).
+	 *
+	 * @param lhs
+	 * @param lhsState
+	 * @param rhs
+	 * @param rhsState
+	 * @param lifetimes
+	 * @return
+	 * @throws ResolutionError
+	 */
+	private boolean isVoid(SemanticType lhs, State lhsState, SemanticType rhs, State rhsState,
+			LifetimeRelation lifetimes) throws ResolutionError {
+		if (memo == null) {
+			return emptinessTest.isVoid(lhs, lhsState, rhs, rhsState, lifetimes);
+		}
+		int[] depth = memo.depth.get();
+		if (depth[0] > 0) {
+			// A nested query may depend upon assumptions made by the enclosing
+			// query and, hence, is neither looked up nor recorded.
+			return emptinessTest.isVoid(lhs, lhsState, rhs, rhsState, lifetimes);
+		}
+		long lhsId = types.getId(lhs);
+		long rhsId = types.getId(rhs);
+		if (lhsId < 0 || rhsId < 0) {
+			// One of the types cannot be identified and, hence, this test cannot
+			// be safely memoised.
+			return emptinessTest.isVoid(lhs, lhsState, rhs, rhsState, lifetimes);
+		}
+		Key key = new Key(lhsId, lhsState, rhsId, rhsState);
+		Entry entry = memo.get(key);
+		if (entry != null && entry.matches(lifetimes)) {
+			memo.hits.incrementAndGet();
+			return entry.result;
+		}
+		memo.misses.incrementAndGet();
+		RecordingLifetimeRelation recorder = new RecordingLifetimeRelation(lifetimes);
+		boolean result;
+		depth[0]++;
+		try {
+			result = emptinessTest.isVoid(lhs, lhsState, rhs, rhsState, recorder);
+		} finally {
+			depth[0]--;
+		}
+		memo.put(key, new Entry(result, recorder));
+		return result;
 	}
 
 	/**
@@ -222,4 +392,155 @@ public class SubtypeOperator {
 		}
 		}
 	}
+
+	// =========================================================================
+	// Memoisation
+	// =========================================================================
+
+	/**
+	 * A bounded table of emptiness tests, evicting its least recently used
+	 * entries. This may be accessed by several threads at once.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Memo {
+		private final LinkedHashMap<Key, Entry> entries;
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+		/**
+		 * Number of emptiness tests currently in progress on each thread.
+		 */
+		private final ThreadLocal<int[]> depth = new ThreadLocal<int[]>() {
+			@Override
+			protected int[] initialValue() {
+				return new int[1];
+			}
+		};
+
+		public Memo(final int capacity) {
+			this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+					return size() > capacity;
+				}
+			};
+		}
+
+		public synchronized Entry get(Key key) {
+			return entries.get(key);
+		}
+
+		public synchronized void put(Key key, Entry entry) {
+			entries.put(key, entry);
+		}
+	}
+
+	/**
+	 * Identifies an emptiness test. Types are identified by their cached
+	 * identifiers, which distinguish otherwise identical types whose nominal
+	 * types belong to different heaps (since the meaning of a nominal type
+	 * depends upon its enclosing module). Tests involving a type without an
+	 * identifier are never memoised.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Key {
+		private final long lhs;
+		private final State lhsState;
+		private final long rhs;
+		private final State rhsState;
+
+		public Key(long lhs, State lhsState, long rhs, State rhsState) {
+			this.lhs = lhs;
+			this.lhsState = lhsState;
+			this.rhs = rhs;
+			this.rhsState = rhsState;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Key) {
+				Key k = (Key) o;
+				return lhs == k.lhs && rhs == k.rhs && lhsState == k.lhsState && rhsState == k.rhsState;
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(lhs * 31 + rhs);
+		}
+	}
+
+	/**
+	 * The outcome of an emptiness test, along with the lifetime queries it
+	 * depended upon.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Entry {
+		private final boolean result;
+		private final String[] inners;
+		private final String[] outers;
+		private final boolean[] answers;
+
+		public Entry(boolean result, RecordingLifetimeRelation recorder) {
+			int n = recorder.answers.size();
+			this.result = result;
+			this.inners = recorder.inners.toArray(new String[n]);
+			this.outers = recorder.outers.toArray(new String[n]);
+			this.answers = new boolean[n];
+			for (int i = 0; i != n; ++i) {
+				answers[i] = recorder.answers.get(i);
+			}
+		}
+
+		/**
+		 * Check whether a given lifetime relation agrees with that used to compute
+		 * this entry on all queries made.
+		 *
+		 * @param lifetimes
+		 * @return
+		 */
+		public boolean matches(LifetimeRelation lifetimes) {
+			if (answers.length > 0 && lifetimes == null) {
+				return false;
+			}
+			for (int i = 0; i != answers.length; ++i) {
+				if (lifetimes.isWithin(inners[i], outers[i]) != answers[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A lifetime relation which records every query made of it.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class RecordingLifetimeRelation implements LifetimeRelation {
+		private final LifetimeRelation lifetimes;
+		private final ArrayList<String> inners = new ArrayList<>();
+		private final ArrayList<String> outers = new ArrayList<>();
+		private final ArrayList<Boolean> answers = new ArrayList<>();
+
+		public RecordingLifetimeRelation(LifetimeRelation lifetimes) {
+			this.lifetimes = lifetimes;
+		}
+
+		@Override
+		public boolean isWithin(String inner, String outer) {
+			boolean answer = lifetimes.isWithin(inner, outer);
+			inners.add(inner);
+			outers.add(outer);
+			answers.add(answer);
+			return answer;
+		}
+	}
 }
@@ -67,9 +67,12 @@ public class ConcreteTypeExtractor implements BiFunction<SemanticType, LifetimeR
 	private final TypeSubtractor subtractor;
 
 	public ConcreteTypeExtractor(NameResolver resolver, EmptinessTest<SemanticType> emptiness) {
-		SubtypeOperator op = new SubtypeOperator(resolver, emptiness);
-		this.intersector = new TypeIntersector(resolver, op);
-		this.subtractor = new TypeSubtractor(resolver, op);
+		this(resolver, new SubtypeOperator(resolver, emptiness));
+	}
+
+	public ConcreteTypeExtractor(NameResolver resolver, SubtypeOperator subtyping) {
+		this.intersector = new TypeIntersector(resolver, subtyping);
+		this.subtractor = new TypeSubtractor(resolver, subtyping);
 	}
 
 	/**
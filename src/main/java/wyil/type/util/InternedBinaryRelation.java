@@ -0,0 +1,176 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.type.util;
+
+import java.util.HashMap;
+
+/**
+ * An implementation of BinaryRelation which assigns each distinct value an
+ * integer identifier, and records relationships between identifiers in an
+ * open-addressing hash set of <code>long</code> keys. Unlike
+ * <code>HashSetBinaryRelation</code>, checking or setting a relationship does
+ * not allocate (except when a value is encountered for the first time, or the
+ * table grows). Values are compared using <code>equals()</code> and, hence,
+ * should cache their hash codes where these are expensive to compute.
+ *
+ * @author David J. Pearce
+ *
+ * @param <T>
+ */
+public class InternedBinaryRelation<T> implements BinaryRelation<T> {
+	/**
+	 * Maps each value encountered to its identifier. Identifiers start from one
+	 * so that no key formed from them is zero.
+	 */
+	private final HashMap<T, Integer> ids = new HashMap<>();
+
+	/**
+	 * Open-addressing table of keys (with linear probing), where zero indicates
+	 * an empty slot. The length of this table is always a power of two.
+	 */
+	private long[] keys = new long[16];
+
+	/**
+	 * Number of keys currently in the table.
+	 */
+	private int size;
+
+	@Override
+	public boolean get(T lhs, T rhs) {
+		Integer l = ids.get(lhs);
+		Integer r = ids.get(rhs);
+		if (l == null || r == null) {
+			// Neither value has been seen before, so no relationship can exist.
+			return false;
+		}
+		return indexOf(toKey(l, r)) >= 0;
+	}
+
+	@Override
+	public void set(T lhs, T rhs, boolean value) {
+		if (value) {
+			add(toKey(intern(lhs), intern(rhs)));
+		} else {
+			Integer l = ids.get(lhs);
+			Integer r = ids.get(rhs);
+			if (l != null && r != null) {
+				remove(toKey(l, r));
+			}
+		}
+	}
+
+	/**
+	 * Get the number of relationships which currently hold.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	private int intern(T value) {
+		Integer id = ids.get(value);
+		if (id == null) {
+			id = ids.size() + 1;
+			ids.put(value, id);
+		}
+		return id;
+	}
+
+	private static long toKey(int lhs, int rhs) {
+		return ((long) lhs << 32) | (rhs & 0xFFFFFFFFL);
+	}
+
+	private static int hash(long key, int mask) {
+		// Spread the bits of both identifiers across the table
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * Determine the slot occupied by a given key, or -1 if it is not present.
+	 *
+	 * @param key
+	 * @return
+	 */
+	private int indexOf(long key) {
+		int mask = keys.length - 1;
+		for (int i = hash(key, mask);; i = (i + 1) & mask) {
+			long k = keys[i];
+			if (k == key) {
+				return i;
+			} else if (k == 0) {
+				return -1;
+			}
+		}
+	}
+
+	private void add(long key) {
+		if (indexOf(key) >= 0) {
+			return;
+		} else if ((size + 1) * 4 > keys.length * 3) {
+			// Maintain a load factor of at most 75%
+			resize(keys.length * 2);
+		}
+		insert(keys, key);
+		size = size + 1;
+	}
+
+	private void remove(long key) {
+		int i = indexOf(key);
+		if (i < 0) {
+			return;
+		}
+		// Shift back any subsequent keys in the same probe sequence, as
+		// otherwise they would become unreachable.
+		int mask = keys.length - 1;
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			long k = keys[j];
+			if (k == 0) {
+				break;
+			}
+			int h = hash(k, mask);
+			// Check whether slot i lies cyclically in [h,j), in which case k can
+			// be moved there.
+			if (i <= j ? (i < h && h <= j) : (i < h || h <= j)) {
+				continue;
+			}
+			keys[i] = k;
+			i = j;
+		}
+		keys[i] = 0;
+		size = size - 1;
+	}
+
+	private void resize(int capacity) {
+		long[] nkeys = new long[capacity];
+		for (int i = 0; i != keys.length; ++i) {
+			if (keys[i] != 0) {
+				insert(nkeys, keys[i]);
+			}
+		}
+		keys = nkeys;
+	}
+
+	private static void insert(long[] table, long key) {
+		int mask = table.length - 1;
+		int i = hash(key, mask);
+		while (table[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		table[i] = key;
+	}
+}
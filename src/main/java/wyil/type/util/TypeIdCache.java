@@ -0,0 +1,265 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.type.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import wybs.lang.SyntacticHeap;
+import wybs.lang.SyntacticItem;
+import wyc.lang.WhileyFile.SemanticType;
+import wyc.lang.WhileyFile.Type;
+
+/**
+ * <p>
+ * Caches an identifier for each structurally distinct semantic type. Any two
+ * types which are structurally identical are given the same identifier, such
+ * that (for example) the results of queries over types can be keyed on their
+ * identifiers. Note that types themselves are not shared, hence identifiers
+ * must be used in place of reference equality.
+ * </p>
+ * <p>
+ * Since a nominal type is resolved relative to the heap containing its name,
+ * types are only considered identical when each of their nominal types is
+ * contained in the same heap. This holds irrespective of whether the types
+ * themselves are allocated within a heap, or are detached (e.g. those
+ * constructed when intersecting or subtracting types). A type containing a
+ * nominal type which belongs to no heap cannot be resolved consistently and,
+ * hence, is not given an identifier. Types allocated within a heap are
+ * additionally remembered by identity, such that subsequent lookups need not
+ * traverse them.
+ * </p>
+ * <p>
+ * A cache holds (up to) a given number of types. Once full, types not already
+ * held are simply not given an identifier, rather than evicting those already
+ * held. A cache may be shared between threads, and lookups proceed
+ * concurrently.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class TypeIdCache {
+	/**
+	 * The default number of types held by a cache.
+	 */
+	public static final int DEFAULT_CAPACITY = 65536;
+
+	/**
+	 * The maximum number of types held.
+	 */
+	private final int capacity;
+
+	/**
+	 * Maps types allocated within a heap to their identifier, using identity.
+	 */
+	private final ConcurrentHashMap<Identity, Long> allocated = new ConcurrentHashMap<>();
+
+	/**
+	 * Maps each structurally distinct type to its identifier.
+	 */
+	private final ConcurrentHashMap<Entry, Long> structural = new ConcurrentHashMap<>();
+
+	/**
+	 * The next identifier to be allocated.
+	 */
+	private final AtomicLong next = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public TypeIdCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Construct a cache which holds (up to) a given number of types.
+	 *
+	 * @param capacity
+	 */
+	public TypeIdCache(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("invalid capacity: " + capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Get the identifier for a given type, allocating one if this type has not
+	 * been seen before. If the type contains a nominal type which belongs to no
+	 * heap, or the cache is full, then <code>-1</code> is returned instead.
+	 *
+	 * @param type
+	 * @return
+	 */
+	public long getId(SemanticType type) {
+		Identity identity = type.getHeap() == null ? null : new Identity(type);
+		if (identity != null) {
+			Long id = allocated.get(identity);
+			if (id != null) {
+				hits.incrementAndGet();
+				return id;
+			}
+		}
+		ArrayList<SyntacticHeap> heaps = new ArrayList<>();
+		if (!getNominalHeaps(type, heaps)) {
+			return -1;
+		}
+		Entry entry = new Entry(type, heaps.toArray(new SyntacticHeap[heaps.size()]));
+		Long id = structural.get(entry);
+		if (id != null) {
+			hits.incrementAndGet();
+		} else if (structural.size() >= capacity) {
+			return -1;
+		} else {
+			misses.incrementAndGet();
+			Long fresh = next.getAndIncrement();
+			id = structural.putIfAbsent(entry, fresh);
+			if (id == null) {
+				id = fresh;
+			}
+		}
+		if (identity != null && allocated.size() < capacity) {
+			allocated.put(identity, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Get the number of distinct types currently held in this cache.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return structural.size();
+	}
+
+	/**
+	 * Get the number of lookups which located an existing type.
+	 *
+	 * @return
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of lookups which allocated a new identifier.
+	 *
+	 * @return
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public String toString() {
+		return structural.size() + " type(s), " + hits + " hit(s), " + misses + " miss(es)";
+	}
+
+	/**
+	 * Determine the heap containing the name of each nominal type within a
+	 * given item, in the order they are encountered.
+	 *
+	 * @param item
+	 * @param heaps
+	 * @return False if some nominal type belongs to no heap.
+	 */
+	private static boolean getNominalHeaps(SyntacticItem item, ArrayList<SyntacticHeap> heaps) {
+		if (item instanceof Type.Nominal) {
+			SyntacticHeap heap = ((Type.Nominal) item).getName().getHeap();
+			if (heap == null) {
+				return false;
+			}
+			heaps.add(heap);
+		}
+		for (int i = 0; i != item.size(); ++i) {
+			SyntacticItem operand = item.get(i);
+			if (operand != null && !getNominalHeaps(operand, heaps)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A type compared by identity.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Identity {
+		private final SemanticType type;
+
+		public Identity(SemanticType type) {
+			this.type = type;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Identity && ((Identity) o).type == type;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(type);
+		}
+	}
+
+	/**
+	 * A type along with the heaps containing its nominal types, where the
+	 * former is compared structurally and the latter by identity.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Entry {
+		private final SemanticType type;
+		private final SyntacticHeap[] heaps;
+		private final int hashCode;
+
+		public Entry(SemanticType type, SyntacticHeap[] heaps) {
+			this.type = type;
+			this.heaps = heaps;
+			this.hashCode = type.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Entry) {
+				Entry e = (Entry) o;
+				return hashCode == e.hashCode && sameHeaps(heaps, e.heaps) && type.equals(e.type);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		private static boolean sameHeaps(SyntacticHeap[] lhs, SyntacticHeap[] rhs) {
+			if (lhs.length != rhs.length) {
+				return false;
+			}
+			for (int i = 0; i != lhs.length; ++i) {
+				if (lhs[i] != rhs[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
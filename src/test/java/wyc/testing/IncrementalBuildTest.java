@@ -0,0 +1,184 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import wyc.command.Compile;
+import wycc.util.Logger;
+import wyfs.lang.Content;
+
+/**
+ * Checks which modules are recompiled by successive builds of the same source
+ * directory, as its files are changed. Only those modules whose source file
+ * has changed, or which depend upon a module whose interface has changed,
+ * should be recompiled.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class IncrementalBuildTest {
+	/**
+	 * The modification time given to every binary file before a build, such
+	 * that those written by the build can be identified.
+	 */
+	private static final long STALE = 1000000000000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * The output of the most recent build.
+	 */
+	private String output;
+
+	// ======================================================================
+	// Test Harness
+	// ======================================================================
+
+	/**
+	 * Write a given Whiley module into the source directory.
+	 *
+	 * @param name
+	 *            Name of the module.
+	 * @param lines
+	 *            Lines of the module's source.
+	 */
+	protected void write(String name, String... lines) throws IOException {
+		try (Writer writer = new FileWriter(new File(folder.getRoot(), name + ".whiley"))) {
+			for (String line : lines) {
+				writer.write(line);
+				writer.write("\n");
+			}
+		}
+	}
+
+	/**
+	 * Build those source files which must be recompiled, as determined by the
+	 * compiler itself.
+	 *
+	 * @param expected
+	 *            The expected result of the build.
+	 * @return The names of those modules recompiled.
+	 */
+	protected Set<String> build(Compile.Result expected) throws IOException {
+		File root = folder.getRoot();
+		for (File f : root.listFiles()) {
+			if (f.getName().endsWith(".wyil")) {
+				assertTrue(f.setLastModified(STALE));
+			}
+		}
+		ByteArrayOutputStream syserr = new ByteArrayOutputStream();
+		ByteArrayOutputStream sysout = new ByteArrayOutputStream();
+		Content.Registry registry = new wyc.Activator.Registry();
+		Compile cmd = new Compile(registry, Logger.NULL, sysout, syserr);
+		cmd.setWhileydir(root);
+		cmd.setWyaldir(root);
+		Compile.Result result = cmd.execute(cmd.getModifiedSourceFiles());
+		output = new String(syserr.toByteArray()) + new String(sysout.toByteArray());
+		System.out.print(output);
+		assertEquals(expected, result);
+		HashSet<String> rebuilt = new HashSet<>();
+		for (File f : root.listFiles()) {
+			String name = f.getName();
+			if (name.endsWith(".wyil") && f.lastModified() != STALE) {
+				rebuilt.add(name.substring(0, name.length() - 5));
+			}
+		}
+		return rebuilt;
+	}
+
+	private static Set<String> modules(String... names) {
+		return new HashSet<>(Arrays.asList(names));
+	}
+
+	// ======================================================================
+	// Tests
+	// ======================================================================
+
+	@Test
+	public void touchWithoutChange() throws IOException {
+		write("a", "public function f(int x) -> int:", "    return x");
+		write("b", "import f from a", "", "public function g(int x) -> int:", "    return f(x)");
+		assertEquals(modules("a", "b"), build(Compile.Result.SUCCESS));
+		File a = new File(folder.getRoot(), "a.whiley");
+		assertTrue(a.setLastModified(System.currentTimeMillis() + 10000));
+		assertEquals(modules(), build(Compile.Result.SUCCESS));
+	}
+
+	/**
+	 * Changing the body of a function leaves the interface of its module
+	 * unchanged, so those modules depending upon it are not recompiled.
+	 */
+	@Test
+	public void earlyCutoff() throws IOException {
+		write("a", "public function f(int x) -> int:", "    return x");
+		write("b", "import f from a", "", "public function g(int x) -> int:", "    return f(x)");
+		assertEquals(modules("a", "b"), build(Compile.Result.SUCCESS));
+		write("a", "public function f(int x) -> int:", "    return x + 0");
+		assertEquals(modules("a"), build(Compile.Result.SUCCESS));
+	}
+
+	@Test
+	public void interfaceChange() throws IOException {
+		write("a", "public function f(int x) -> int:", "    return x");
+		write("b", "import f from a", "", "public function g(int x) -> int:", "    return f(x)");
+		write("c", "public function h(int x) -> int:", "    return x");
+		assertEquals(modules("a", "b", "c"), build(Compile.Result.SUCCESS));
+		write("a", "public function f(int x) -> int:", "    return x", "",
+				"public function f2(int x) -> int:", "    return x");
+		assertEquals(modules("a", "b"), build(Compile.Result.SUCCESS));
+	}
+
+	/**
+	 * A module which depends upon another only through the interface of a
+	 * third is recompiled when the former changes, even though the interface
+	 * of the third does not.
+	 */
+	@Test
+	public void transitiveInterfaceChange() throws IOException {
+		write("a", "public type U is int");
+		write("b", "import U from a", "", "public type T is U");
+		write("c", "import T from b", "", "public function f(T x) -> int:", "    return x");
+		assertEquals(modules("a", "b", "c"), build(Compile.Result.SUCCESS));
+		write("a", "public type U is bool");
+		build(Compile.Result.ERRORS);
+		assertTrue(output.contains("c.whiley"));
+	}
+
+	@Test
+	public void deletedDependency() throws IOException {
+		write("a", "public function f(int x) -> int:", "    return x");
+		write("b", "import f from a", "", "public function g(int x) -> int:", "    return f(x)");
+		assertEquals(modules("a", "b"), build(Compile.Result.SUCCESS));
+		for (String name : new String[] { "a.whiley", "a.wyil", "a.wyis" }) {
+			assertTrue(new File(folder.getRoot(), name).delete());
+		}
+		build(Compile.Result.ERRORS);
+		assertTrue(output.contains("b.whiley"));
+	}
+}
@@ -0,0 +1,115 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import wyc.command.Compile;
+import wyc.util.TestUtils;
+import wycc.util.Pair;
+import wyfs.util.Trie;
+import wyil.interpreter.Interpreter;
+
+/**
+ * Checks that executing the valid tests with compiled function and method
+ * bodies gives exactly the same outcome as executing them with the reference
+ * (tree-walking) interpreter. Bodies are compiled either into execution trees
+ * only (with every pure quantifier evaluated in parallel, or with every
+ * function memoized), or immediately into JVM bytecode (where possible). The
+ * outcome is either normal termination, or the kind of exception raised.
+ *
+ * @author David J. Pearce
+ *
+ */
+@RunWith(Parameterized.class)
+public class InterpreterDifferentialTest {
+
+	public final static String WHILEY_SRC_DIR = AllValidTest.WHILEY_SRC_DIR;
+
+	// ======================================================================
+	// Test Harness
+	// ======================================================================
+
+	protected void runTest(String testName) throws IOException {
+		File whileySrcDir = new File(WHILEY_SRC_DIR);
+		String whileyFilename = WHILEY_SRC_DIR + File.separatorChar + testName
+				+ ".whiley";
+
+		Pair<Compile.Result,String> p = TestUtils.compile(
+				whileySrcDir,      // location of source directory
+				false,               // no verification
+				whileyFilename);     // name of test to compile
+
+		if (p.first() != Compile.Result.SUCCESS) {
+			fail("Test failed to compile!");
+		}
+
+		Object expected = execute(whileySrcDir, testName, false, 0, 0, 0);
+		assertEquals(expected, execute(whileySrcDir, testName, true, 0, 1, 0));
+		assertEquals(expected, execute(whileySrcDir, testName, true, 0, 0, Interpreter.DEFAULT_MEMO_CAPACITY));
+		assertEquals(expected, execute(whileySrcDir, testName, true, 1, 0, 0));
+	}
+
+	/**
+	 * Execute a given test, returning either null (if it terminated normally)
+	 * or the kind of exception it raised.
+	 */
+	private static Object execute(File whileySrcDir, String testName, boolean compiled, int threshold,
+			int parallelThreshold, int memoCapacity) throws IOException {
+		try {
+			TestUtils.execWyil(whileySrcDir, Trie.fromString(testName), compiled, threshold, parallelThreshold,
+					memoCapacity);
+			return null;
+		} catch (RuntimeException | Error e) {
+			return e.getClass();
+		}
+	}
+
+	// ======================================================================
+	// Tests
+	// ======================================================================
+
+	private final String testName;
+
+	public InterpreterDifferentialTest(String testName) {
+		this.testName = testName;
+	}
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> data() {
+		return TestUtils.findTestNames(WHILEY_SRC_DIR);
+	}
+
+	// Skip tests which are ignored as valid tests
+	@Before
+	public void beforeMethod() {
+		String ignored = AllValidTest.IGNORED.get(this.testName);
+		Assume.assumeTrue("Test " + this.testName + " skipped: " + ignored, ignored == null);
+	}
+
+	@Test
+	public void valid() throws IOException {
+		runTest(this.testName);
+	}
+}
@@ -0,0 +1,94 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.testing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import wyc.command.Compile;
+import wyc.util.TestUtils;
+import wycc.util.Pair;
+import wyfs.lang.Path;
+import wyfs.util.Trie;
+
+/**
+ * Reports the time taken to execute a program dominated by a hot loop using
+ * the reference interpreter, execution trees and, finally, execution trees
+ * whose bodies are compiled into JVM bytecode.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class InterpreterTimingTest {
+	/**
+	 * The number of times each configuration is executed, of which the
+	 * fastest is reported.
+	 */
+	private static final int RUNS = 5;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void hotLoop() throws IOException {
+		File file = new File(folder.getRoot(), "loop.whiley");
+		try (Writer writer = new FileWriter(file)) {
+			writer.write("function sum(int n) -> int:\n"
+					+ "    int r = 0\n"
+					+ "    int i = 0\n"
+					+ "    while i < n:\n"
+					+ "        r = r + (i % 7)\n"
+					+ "        i = i + 1\n"
+					+ "    return r\n"
+					+ "\n"
+					+ "public export method test():\n"
+					+ "    int total = 0\n"
+					+ "    int i = 0\n"
+					+ "    while i < 2000:\n"
+					+ "        total = total + sum(1000)\n"
+					+ "        i = i + 1\n"
+					+ "    assume total == 5994000\n");
+		}
+		Pair<Compile.Result, String> p = TestUtils.compile(folder.getRoot(), false, file.getPath());
+		assertEquals(Compile.Result.SUCCESS, p.first());
+		Path.ID id = Trie.fromString("loop");
+		long reference = time(id, false, 0);
+		long trees = time(id, true, 0);
+		long bytecode = time(id, true, 1);
+		System.out.println("Interpreter: reference " + reference + "ms, execution trees " + trees
+				+ "ms, bytecode " + bytecode + "ms (" + String.format("%.1f", (double) trees / Math.max(bytecode, 1))
+				+ "x over execution trees)");
+	}
+
+	/**
+	 * Execute a given program several times, returning the fastest time taken
+	 * in milliseconds.
+	 */
+	private long time(Path.ID id, boolean compiled, int threshold) throws IOException {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i != RUNS; ++i) {
+			long start = System.nanoTime();
+			TestUtils.execWyil(folder.getRoot(), id, compiled, threshold, 0);
+			best = Math.min(best, (System.nanoTime() - start) / 1000000);
+		}
+		return best;
+	}
+}
@@ -0,0 +1,93 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.testing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import wyc.command.Compile;
+import wyc.util.TestUtils;
+import wycc.util.Pair;
+import wyfs.lang.Path;
+import wyfs.util.Trie;
+import wyil.interpreter.Interpreter;
+
+/**
+ * Checks that functions called with lambda or reference arguments give the
+ * same results when memoized. Such arguments may be equal and yet refer to
+ * different state, so calls with them must never be answered from a memo
+ * table.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class MemoizationTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void lambdaAndReferenceArguments() throws IOException {
+		File file = new File(folder.getRoot(), "memo.whiley");
+		try (Writer writer = new FileWriter(file)) {
+			writer.write("type fun is function(int)->int\n"
+					+ "\n"
+					+ "function apply(fun f, int x) -> int:\n"
+					+ "    return f(x)\n"
+					+ "\n"
+					+ "function inc(int x) -> int:\n"
+					+ "    return x + 1\n"
+					+ "\n"
+					+ "function dec(int x) -> int:\n"
+					+ "    return x - 1\n"
+					+ "\n"
+					+ "function adder(int k) -> fun:\n"
+					+ "    return &(int y -> y + k)\n"
+					+ "\n"
+					+ "function wrap(&int r) -> {&int ptr}:\n"
+					+ "    return {ptr: r}\n"
+					+ "\n"
+					+ "public export method test():\n"
+					// Lambdas of named functions are compared by declaration
+					+ "    assume apply(&inc, 1) == 2\n"
+					+ "    assume apply(&dec, 1) == 0\n"
+					+ "    assume apply(&inc, 1) == 2\n"
+					// Lambda declarations which capture different values
+					+ "    assume apply(adder(1), 1) == 2\n"
+					+ "    assume apply(adder(2), 1) == 3\n"
+					+ "    assume apply(adder(1), 1) == 2\n"
+					// References to distinct cells with the same contents
+					+ "    &int p = new 1\n"
+					+ "    &int q = new 1\n"
+					+ "    &int r = wrap(p).ptr\n"
+					+ "    &int s = wrap(q).ptr\n"
+					+ "    *s = 5\n"
+					+ "    assume *p == 1\n"
+					+ "    assume *q == 5\n");
+		}
+		Pair<Compile.Result, String> p = TestUtils.compile(folder.getRoot(), false, file.getPath());
+		assertEquals(Compile.Result.SUCCESS, p.first());
+		Path.ID id = Trie.fromString("memo");
+		TestUtils.execWyil(folder.getRoot(), id, false, 0, 0, Interpreter.DEFAULT_MEMO_CAPACITY);
+		TestUtils.execWyil(folder.getRoot(), id, true, 0, 0, Interpreter.DEFAULT_MEMO_CAPACITY);
+		TestUtils.execWyil(folder.getRoot(), id, true, 1, 0, Interpreter.DEFAULT_MEMO_CAPACITY);
+	}
+}
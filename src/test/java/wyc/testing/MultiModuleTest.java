@@ -0,0 +1,140 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import wyc.command.Compile;
+import wyc.util.TestUtils;
+import wycc.util.Pair;
+import wyfs.util.Trie;
+
+/**
+ * Checks programs made up from several modules, which are compiled together in
+ * a single build.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class MultiModuleTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// ======================================================================
+	// Test Harness
+	// ======================================================================
+
+	/**
+	 * Write a given Whiley module into the source directory.
+	 *
+	 * @param name
+	 *            Name of the module.
+	 * @param lines
+	 *            Lines of the module's source.
+	 * @return The name of the source file.
+	 */
+	protected String write(String name, String... lines) throws IOException {
+		File file = new File(folder.getRoot(), name + ".whiley");
+		try (Writer writer = new FileWriter(file)) {
+			for (String line : lines) {
+				writer.write(line);
+				writer.write("\n");
+			}
+		}
+		return file.getPath();
+	}
+
+	protected Pair<Compile.Result, String> compile(String... filenames) throws IOException {
+		Pair<Compile.Result, String> p = TestUtils.compile(folder.getRoot(), false, filenames);
+		System.out.print(p.second());
+		return p;
+	}
+
+	// ======================================================================
+	// Tests
+	// ======================================================================
+
+	/**
+	 * The same nominal type is declared differently in two modules. Type tests
+	 * which are structurally identical across the modules must still be
+	 * checked against the appropriate declaration, irrespective of which
+	 * module is checked first.
+	 */
+	@Test
+	public void sameNominalNameDifferentDefinitions() throws IOException {
+		String a = write("a",
+				"type T is int",
+				"",
+				"function f(T|bool x) -> int:",
+				"    if x is bool:",
+				"        return 0",
+				"    else:",
+				"        return x");
+		String b = write("b",
+				"type T is bool",
+				"",
+				"function f(T|bool x) -> int:",
+				"    if x is bool:",
+				"        return 0",
+				"    else:",
+				"        return 1");
+		// The false branch in b is never taken, since T is bool there
+		Pair<Compile.Result, String> p = compile(a, b);
+		assertEquals(Compile.Result.ERRORS, p.first());
+		assertTrue(p.second().contains("b.whiley"));
+		assertFalse(p.second().contains("a.whiley"));
+		// Likewise, when the modules are given the other way around
+		p = compile(b, a);
+		assertEquals(Compile.Result.ERRORS, p.first());
+		assertTrue(p.second().contains("b.whiley"));
+		assertFalse(p.second().contains("a.whiley"));
+	}
+
+	/**
+	 * A function declared in one module is called directly, and through a
+	 * lambda, from another. When executing, the function must be taken from
+	 * the binary module rather than from its interface summary (whose body is
+	 * empty).
+	 */
+	@Test
+	public void lambdaAccessAcrossModules() throws IOException {
+		String a = write("a",
+				"public function inc(int i) -> int:",
+				"    return i + 1");
+		String b = write("b",
+				"import inc from a",
+				"",
+				"type fun is function(int)->int",
+				"",
+				"public export method test():",
+				"    assume inc(1) == 2",
+				"    fun f = &inc",
+				"    assume f(41) == 42");
+		Pair<Compile.Result, String> p = compile(a, b);
+		assertEquals(Compile.Result.SUCCESS, p.first());
+		TestUtils.execWyil(folder.getRoot(), Trie.fromString("b"), false);
+		TestUtils.execWyil(folder.getRoot(), Trie.fromString("b"), true);
+	}
+}
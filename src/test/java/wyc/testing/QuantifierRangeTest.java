@@ -0,0 +1,91 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import wyc.command.Compile;
+import wyc.util.TestUtils;
+import wycc.util.Pair;
+import wyfs.lang.Path;
+import wyfs.util.Trie;
+
+/**
+ * Checks that quantifiers over ranges, which are iterated without first being
+ * constructed as arrays, behave exactly as though they were. In particular, a
+ * range whose end precedes its start must fail.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class QuantifierRangeTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Write and compile a module which tests a quantifier over the range from
+	 * start to end.
+	 */
+	protected Path.ID compile(int start, int end) throws IOException {
+		File file = new File(folder.getRoot(), "range.whiley");
+		try (Writer writer = new FileWriter(file)) {
+			writer.write("function check(int s, int e) -> bool:\n"
+					+ "    return all { i in s..e | i >= s }\n"
+					+ "\n"
+					+ "public export method test():\n"
+					+ "    assume check(" + start + ", " + end + ")\n");
+		}
+		Pair<Compile.Result, String> p = TestUtils.compile(folder.getRoot(), false, file.getPath());
+		assertEquals(Compile.Result.SUCCESS, p.first());
+		return Trie.fromString("range");
+	}
+
+	@Test
+	public void emptyRange() throws IOException {
+		Path.ID id = compile(3, 3);
+		TestUtils.execWyil(folder.getRoot(), id, false, 0, 0);
+		TestUtils.execWyil(folder.getRoot(), id, true, 0, 0);
+		TestUtils.execWyil(folder.getRoot(), id, true, 0, 1);
+		TestUtils.execWyil(folder.getRoot(), id, true, 1, 0);
+	}
+
+	@Test
+	public void reversedRange() throws IOException {
+		Path.ID id = compile(5, 3);
+		assertNegativeArraySize(id, false, 0, 0);
+		assertNegativeArraySize(id, true, 0, 0);
+		assertNegativeArraySize(id, true, 0, 1);
+		assertNegativeArraySize(id, true, 1, 0);
+	}
+
+	private void assertNegativeArraySize(Path.ID id, boolean compiled, int threshold, int parallelThreshold)
+			throws IOException {
+		try {
+			TestUtils.execWyil(folder.getRoot(), id, compiled, threshold, parallelThreshold);
+			fail("reversed range did not fail");
+		} catch (NegativeArraySizeException e) {
+			// expected
+		}
+	}
+}
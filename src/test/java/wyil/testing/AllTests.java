@@ -17,6 +17,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses({ ArraySubtypeTest.class, RecordSubtypeTest.class, RecursiveSubtypeTests.class })
+@Suite.SuiteClasses({ ArraySubtypeTest.class, RecordSubtypeTest.class, RecursiveSubtypeTests.class,
+		EmptinessDifferentialTest.class, TypeIdCacheTest.class })
 public class AllTests {
 }
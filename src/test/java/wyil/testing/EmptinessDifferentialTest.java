@@ -0,0 +1,119 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.testing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import wybs.lang.NameResolver;
+import wyc.lang.WhileyFile.Type;
+import wyc.util.TestUtils;
+import wyil.type.subtyping.EmptinessTest;
+import wyil.type.subtyping.EmptinessTest.State;
+import wyil.type.subtyping.RelaxedTypeEmptinessTest;
+import wyil.type.subtyping.StrictTypeEmptinessTest;
+
+/**
+ * Checks the emptiness tests give exactly the same answers as a reference
+ * implementation which expands types recursively. The types considered cover
+ * primitives, arrays, records and unions, including nested
+ * combinations of these. For each pair of types, every combination of
+ * emptiness states is tested under both the strict and relaxed
+ * interpretations.
+ *
+ * @author David J. Pearce
+ *
+ */
+@RunWith(Parameterized.class)
+public class EmptinessDifferentialTest {
+
+	/**
+	 * The types from which pairs are formed.
+	 */
+	private final static String[] TYPES = {
+			// Primitives
+			"void", "null", "int", "bool",
+			// Arrays
+			"null[]", "int[]", "bool[]", "int[][]", "(int|null)[]", "{int f}[]",
+			// Records
+			"{null f}", "{int f}", "{int|null f}", "{int[] f}", "{{int f} f}", "{int f, int g}",
+			"{int f, bool g}", "{int f, ...}",
+			// Unions
+			"int|null", "int|bool", "null|int[]", "int|{int f}", "{int f}|{null f}", "int[]|bool[]",
+			"{int f}|{int f, int g}", "int|null|bool" };
+
+	private final static State[] STATES = { EmptinessTest.PositiveMax, EmptinessTest.PositiveMin,
+			EmptinessTest.NegativeMax, EmptinessTest.NegativeMin };
+
+	@Parameters(name = "{0} :> {1}")
+	public static Collection<Object[]> data() {
+		ArrayList<Object[]> pairs = new ArrayList<>();
+		for (String lhs : TYPES) {
+			for (String rhs : TYPES) {
+				pairs.add(new Object[] { lhs, rhs });
+			}
+		}
+		return pairs;
+	}
+
+	private final String lhs;
+	private final String rhs;
+
+	public EmptinessDifferentialTest(String lhs, String rhs) {
+		this.lhs = lhs;
+		this.rhs = rhs;
+	}
+
+	@Test
+	public void strict() {
+		NameResolver resolver = null;
+		check(new StrictTypeEmptinessTest(resolver), new RecursiveEmptinessOracle(resolver, false));
+	}
+
+	@Test
+	public void relaxed() {
+		NameResolver resolver = null;
+		check(new RelaxedTypeEmptinessTest(resolver), new RecursiveEmptinessOracle(resolver, true));
+	}
+
+	private void check(StrictTypeEmptinessTest actual, StrictTypeEmptinessTest expected) {
+		Type l = TestUtils.fromString(lhs);
+		Type r = TestUtils.fromString(rhs);
+		for (State ls : STATES) {
+			for (State rs : STATES) {
+				String query = l + ":" + ls + " & " + r + ":" + rs;
+				assertEquals(query, isVoid(expected, l, ls, r, rs), isVoid(actual, l, ls, r, rs));
+			}
+		}
+	}
+
+	/**
+	 * Apply a given emptiness test, returning either its result or the kind of
+	 * exception it raised.
+	 */
+	private static Object isVoid(StrictTypeEmptinessTest test, Type lhs, State lhsState, Type rhs, State rhsState) {
+		try {
+			return test.isVoid(lhs, lhsState, rhs, rhsState, null);
+		} catch (Exception e) {
+			return e.getClass();
+		}
+	}
+}
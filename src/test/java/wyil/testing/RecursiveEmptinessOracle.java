@@ -0,0 +1,137 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.testing;
+
+import static wyc.lang.WhileyFile.*;
+
+import java.util.ArrayList;
+
+import wybs.lang.NameResolver;
+import wybs.lang.NameResolver.ResolutionError;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wyil.type.subtyping.StrictTypeEmptinessTest;
+import wyil.type.util.BinaryRelation;
+
+/**
+ * A reference implementation of the emptiness test, which expands the worklist
+ * recursively (i.e. one level of recursion per item) and copies the worklist
+ * for every operand of a disjunction. This is used to check the iterative
+ * search performed by <code>StrictTypeEmptinessTest</code> gives the same
+ * results. Optionally, this can also mirror the relaxed interpretation of
+ * records given by <code>RelaxedTypeEmptinessTest</code>.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class RecursiveEmptinessOracle extends StrictTypeEmptinessTest {
+	private final boolean relaxed;
+
+	public RecursiveEmptinessOracle(NameResolver resolver, boolean relaxed) {
+		super(resolver);
+		this.relaxed = relaxed;
+	}
+
+	@Override
+	protected boolean isVoidTerm(Term<?> lhs, Term<?> rhs, BinaryRelation<Term<?>> assumptions,
+			LifetimeRelation lifetimes) throws ResolutionError {
+		if (assumptions.get(lhs, rhs)) {
+			return true;
+		} else {
+			assumptions.set(lhs, rhs, true);
+			ArrayList<Atom<?>> truths = new ArrayList<>();
+			ArrayList<Term<?>> worklist = new ArrayList<>();
+			worklist.add(lhs);
+			worklist.add(rhs);
+			boolean r = isVoid(truths, worklist, assumptions, lifetimes);
+			assumptions.set(lhs, rhs, false);
+			return r;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean isVoid(ArrayList<Atom<?>> truths, ArrayList<Term<?>> worklist,
+			BinaryRelation<Term<?>> assumptions, LifetimeRelation lifetimes) throws ResolutionError {
+		if (worklist.size() == 0) {
+			return isVoid(truths, assumptions, lifetimes);
+		} else {
+			Term<?> item = worklist.remove(worklist.size() - 1);
+			SemanticType t = item.type;
+			//
+			boolean conjunct = item.sign;
+			switch (t.getOpcode()) {
+			case SEMTYPE_union:
+			case TYPE_union:
+				conjunct = !conjunct;
+			case SEMTYPE_intersection: {
+				Type.Combinator ut = (Type.Combinator) t;
+				if (conjunct) {
+					push(worklist, item.sign, ut.getAll(), item.maximise);
+				} else {
+					SemanticType[] operands = ut.getAll();
+					for (int i = 0; i != operands.length; ++i) {
+						ArrayList<Term<?>> tmp = (ArrayList<Term<?>>) worklist.clone();
+						tmp.add(new Term<>(item.sign, operands[i], item.maximise));
+						if (!isVoid((ArrayList<Atom<?>>) truths.clone(), tmp, assumptions, lifetimes)) {
+							return false;
+						}
+					}
+					return true;
+				}
+				break;
+			}
+			case SEMTYPE_difference: {
+				SemanticType.Difference nt = (SemanticType.Difference) t;
+				worklist.add(new Term<>(item.sign, nt.getLeftHandSide(), item.maximise));
+				worklist.add(new Term<>(!item.sign, nt.getRightHandSide(), !item.maximise));
+				break;
+			}
+			case TYPE_nominal: {
+				Type.Nominal nom = (Type.Nominal) t;
+				Decl.Type decl = resolver.resolveExactly(nom.getName(), Decl.Type.class);
+				if (item.maximise || decl.getInvariant().size() == 0) {
+					worklist.add(new Term<>(item.sign, decl.getType(), item.maximise));
+				} else if (item.sign) {
+					return true;
+				}
+				break;
+			}
+			case TYPE_recursive: {
+				Type.Recursive rec = (Type.Recursive) t;
+				worklist.add(new Term<>(item.sign, rec.getHead(), item.maximise));
+				break;
+			}
+			default:
+				truths.add(new Atom<>(item.sign, (SemanticType.Atom) item.type, item.maximise));
+			}
+			return isVoid(truths, worklist, assumptions, lifetimes);
+		}
+	}
+
+	private static void push(ArrayList<Term<?>> worklist, boolean sign, SemanticType[] types, boolean maximise) {
+		for (int i = 0; i != types.length; ++i) {
+			worklist.add(new Term<>(sign, types[i], maximise));
+		}
+	}
+
+	@Override
+	protected boolean analyseRecordMatches(int matches, boolean lhsSign, boolean lhsOpen,
+			Tuple<? extends SemanticType.Field> lhsFields, boolean rhsSign, boolean rhsOpen,
+			Tuple<? extends SemanticType.Field> rhsFields) {
+		if (relaxed) {
+			return super.analyseRecordMatches(matches, lhsSign, true, lhsFields, rhsSign, true, rhsFields);
+		} else {
+			return super.analyseRecordMatches(matches, lhsSign, lhsOpen, lhsFields, rhsSign, rhsOpen, rhsFields);
+		}
+	}
+}
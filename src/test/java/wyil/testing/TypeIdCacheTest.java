@@ -0,0 +1,123 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.testing;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import wyc.lang.WhileyFile.SemanticType;
+import wyc.lang.WhileyFile.Type;
+import wyc.util.TestUtils;
+import wyil.type.util.TypeIdCache;
+
+/**
+ * Checks the identifiers given to types by a type identifier cache, and
+ * reports the throughput of lookups from one or more threads.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class TypeIdCacheTest {
+
+	@Test
+	public void structurallyEqualTypesWithoutNominals() {
+		TypeIdCache cache = new TypeIdCache();
+		// Each type is parsed into its own heap
+		long id = cache.getId(TestUtils.fromString("int|null"));
+		assertEquals(id, cache.getId(TestUtils.fromString("int|null")));
+		assertNotEquals(id, cache.getId(TestUtils.fromString("null|int")));
+	}
+
+	@Test
+	public void nominalTypesFromDifferentHeaps() {
+		TypeIdCache cache = new TypeIdCache();
+		Type t1 = TestUtils.fromString("T");
+		Type t2 = TestUtils.fromString("T");
+		assertEquals(cache.getId(t1), cache.getId(t1));
+		assertNotEquals(cache.getId(t1), cache.getId(t2));
+	}
+
+	@Test
+	public void detachedTypesFromDifferentHeaps() {
+		TypeIdCache cache = new TypeIdCache();
+		Type t1 = TestUtils.fromString("T|int");
+		Type t2 = TestUtils.fromString("T|int");
+		Type b = TestUtils.fromString("bool");
+		long id = cache.getId(new SemanticType.Difference(t1, b));
+		// A fresh but structurally identical type from the same heaps
+		assertEquals(id, cache.getId(new SemanticType.Difference(t1, b)));
+		// A structurally identical type whose nominal type is from elsewhere
+		assertNotEquals(id, cache.getId(new SemanticType.Difference(t2, b)));
+	}
+
+	@Test
+	public void fullCacheGivesNoIdentifier() {
+		TypeIdCache cache = new TypeIdCache(1);
+		long id = cache.getId(TestUtils.fromString("int"));
+		assertTrue(id >= 0);
+		assertEquals(-1, cache.getId(TestUtils.fromString("bool")));
+		assertEquals(id, cache.getId(TestUtils.fromString("int")));
+	}
+
+	/**
+	 * Report the throughput of looking up detached types, which is the
+	 * expensive case since they must be located structurally.
+	 */
+	@Test
+	public void throughput() throws Exception {
+		final List<SemanticType> types = new ArrayList<>();
+		String[] sources = { "int", "bool", "null", "int[]", "{int f}", "{int f, bool g}", "T", "(int|null)[]" };
+		for (String lhs : sources) {
+			for (String rhs : sources) {
+				types.add(new SemanticType.Intersection(TestUtils.fromString(lhs), TestUtils.fromString(rhs)));
+				types.add(new SemanticType.Difference(TestUtils.fromString(lhs), TestUtils.fromString(rhs)));
+			}
+		}
+		final int lookups = 200000;
+		for (int threads : new int[] { 1, 4 }) {
+			final TypeIdCache cache = new TypeIdCache();
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				long start = System.nanoTime();
+				List<Future<?>> futures = new ArrayList<>();
+				for (int t = 0; t != threads; ++t) {
+					futures.add(executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							for (int i = 0; i != lookups; ++i) {
+								cache.getId(types.get(i % types.size()));
+							}
+						}
+					}));
+				}
+				for (Future<?> f : futures) {
+					f.get();
+				}
+				long time = System.nanoTime() - start;
+				System.out.println("TypeIdCache: " + threads + " thread(s), " + (threads * lookups) + " lookup(s), "
+						+ (time / 1000000) + "ms, " + cache);
+				assertEquals(types.size(), cache.size());
+			} finally {
+				executor.shutdown();
+			}
+		}
+	}
+}